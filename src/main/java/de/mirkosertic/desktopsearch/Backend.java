@@ -17,18 +17,23 @@ package de.mirkosertic.desktopsearch;
 
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.util.MultiValueMap;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -37,20 +42,51 @@ import java.util.function.Predicate;
 @Component
 public class Backend implements ConfigurationChangeListener {
 
+    private static final int CHECK_BATCH_SIZE = 256;
+
     public static class FileEvent {
         public enum EventType {
             UPDATED, DELETED
         }
+        public enum Origin {
+            WATCHER, CRAWLER
+        }
         private final Configuration.CrawlLocation crawlLocation;
         private final Path path;
         private final EventType type;
         private final BasicFileAttributes attributes;
+        private final Origin origin;
+        private final Runnable processed;
+
+        public FileEvent(final Configuration.CrawlLocation crawlLocation, final Path crawlPath, final BasicFileAttributes fileAttributes, final EventType eventType, final Origin eventOrigin) {
+            this(crawlLocation, crawlPath, fileAttributes, eventType, eventOrigin, null);
+        }
 
-        public FileEvent(final Configuration.CrawlLocation crawlLocation, final Path crawlPath, final BasicFileAttributes fileAttributes, final EventType eventType) {
+        public FileEvent(final Configuration.CrawlLocation crawlLocation, final Path crawlPath, final BasicFileAttributes fileAttributes, final EventType eventType, final Origin eventOrigin, final Runnable processedCallback) {
             this.crawlLocation = crawlLocation;
             path = crawlPath;
             type = eventType;
             attributes = fileAttributes;
+            origin = eventOrigin;
+            processed = processedCallback;
+        }
+
+        private void processed() {
+            if (processed != null) {
+                try {
+                    processed.run();
+                } catch (final Exception e) {
+                    log.error("Error notifying about processed file {}", path, e);
+                }
+            }
+        }
+
+        private boolean isLive() {
+            return origin == Origin.WATCHER;
+        }
+
+        private long size() {
+            return attributes != null ? attributes.size() : 0;
         }
     }
 
@@ -58,15 +94,30 @@ public class Backend implements ConfigurationChangeListener {
 
         private final FileEvent fileEvent;
         private final Content content;
+        // Set if only the modification time changed, so the indexed content can be kept
+        private final String unchangedRawHash;
 
         public LuceneCommand(final FileEvent fileEvent, final Content fileContent) {
+            this(fileEvent, fileContent, null);
+        }
+
+        public LuceneCommand(final FileEvent fileEvent, final Content fileContent, final String unchangedRawHash) {
             this.fileEvent = fileEvent;
             content = fileContent;
+            this.unchangedRawHash = unchangedRawHash;
+        }
+
+        private boolean hasWork() {
+            return fileEvent.type == FileEvent.EventType.DELETED || content != null || unchangedRawHash != null;
         }
     }
 
-    private LuceneIndexHandler luceneIndexHandler;
+    // Pipeline workers use the index handler under the read lock, it is only replaced under the write lock
+    private volatile LuceneIndexHandler luceneIndexHandler;
+    private final ReadWriteLock indexLock;
     private final ContentExtractor contentExtractor;
+    private final ExtractionWorkerPool extractionWorkerPool;
+    private final ExtractionController extractionController;
     private ProgressListener progressListener;
     private final Map<Configuration.CrawlLocation, LocalDirectoryWatcher> locations;
     private final PreviewProcessor previewProcessor;
@@ -74,7 +125,11 @@ public class Backend implements ConfigurationChangeListener {
     private final DirectoryListener directoryListener;
     private final Statistics statistics;
     private Thread progressInfo;
-    private final Consumer<FileEvent> processingPipeline;
+    private final PipelineStage<FileEvent> checkStage;
+    private final PipelineStage<FileEvent> extractionStage;
+    private final PipelineStage<LuceneCommand> indexStage;
+    private final Predicate<FileEvent> processingPipeline;
+    private final Map<String, CompletableFuture<Content>> extractionsInProgress;
 
 
     class SimpleDirectoryListener implements DirectoryListener {
@@ -84,69 +139,105 @@ public class Backend implements ConfigurationChangeListener {
 
         @Override
         public void fileDeleted(final Configuration.CrawlLocation crawlLocation, final Path deletedFile) {
-            synchronized (this) {
-                try {
-                    log.info("File deleted {}", deletedFile);
-                    if (contentExtractor.supportsFile(deletedFile.toString())) {
-                        log.info("Deleting file from index");
-                        statistics.newDeletedFileJob();
-
-                        processingPipeline.accept(new FileEvent(crawlLocation, deletedFile, null, FileEvent.EventType.DELETED));
-                        log.info("Deleting file done");
-                    } else {
-                        log.info("File {} has no supported file type", deletedFile);
-                    }
-                } catch (final Exception e) {
-                    log.error("Error processing file {}", deletedFile, e);
+            try {
+                log.info("File deleted {}", deletedFile);
+                if (contentExtractor.supportsFile(deletedFile.toString())) {
+                    log.info("Deleting file from index");
+                    statistics.newDeletedFileJob();
+
+                    processingPipeline.test(new FileEvent(crawlLocation, deletedFile, null, FileEvent.EventType.DELETED, FileEvent.Origin.WATCHER));
+                } else {
+                    log.info("File {} has no supported file type", deletedFile);
                 }
+            } catch (final Exception e) {
+                log.error("Error processing file {}", deletedFile, e);
             }
         }
 
         @Override
-        public void fileCreatedOrModified(final Configuration.CrawlLocation crawlLocation, final Path createdOrModifiedFile) {
-            synchronized (this) {
-                try {
-                    log.info("File created or modified {}", createdOrModifiedFile);
-                    if (contentExtractor.supportsFile(createdOrModifiedFile.toString())) {
-                        log.info("Reindexing file");
-                        final var theAttributes = Files.readAttributes(createdOrModifiedFile, BasicFileAttributes.class);
+        public void fileCreatedOrModified(final Configuration.CrawlLocation crawlLocation, final Path createdOrModifiedFile, final BasicFileAttributes fileAttributes) {
+            log.info("File created or modified {}", createdOrModifiedFile);
+            fileUpdated(crawlLocation, createdOrModifiedFile, fileAttributes, FileEvent.Origin.WATCHER, null);
+        }
 
-                        statistics.newModifiedFileJob();
+        @Override
+        public void fileFound(final Configuration.CrawlLocation crawlLocation, final Path foundFile, final BasicFileAttributes fileAttributes, final Runnable processed) {
+            log.debug("File found {}", foundFile);
+            fileUpdated(crawlLocation, foundFile, fileAttributes, FileEvent.Origin.CRAWLER, processed);
+        }
 
-                        processingPipeline.accept(new FileEvent(crawlLocation, createdOrModifiedFile, theAttributes, FileEvent.EventType.UPDATED));
-                        log.info("Reindexing file done");
-                    } else {
-                        log.info("File {} has no supported file type", createdOrModifiedFile);
+        private void fileUpdated(final Configuration.CrawlLocation crawlLocation, final Path updatedFile, final BasicFileAttributes fileAttributes,
+                                 final FileEvent.Origin origin, final Runnable processed) {
+            var theSubmitted = false;
+            try {
+                if (contentExtractor.supportsFile(updatedFile.toString())) {
+                    log.debug("Reindexing file");
+
+                    statistics.newModifiedFileJob();
+
+                    if (!processingPipeline.test(new FileEvent(crawlLocation, updatedFile, fileAttributes, FileEvent.EventType.UPDATED, origin, processed))) {
+                        // The file is not processed, so its directory is not completed either
+                        log.warn("File {} was not indexed, the indexing pipeline is stopped", updatedFile);
+                        return;
                     }
-                } catch (final Exception e) {
-                    log.error("Error processing file {}", createdOrModifiedFile, e);
+                    theSubmitted = true;
+                } else {
+                    log.debug("File {} has no supported file type", updatedFile);
                 }
+            } catch (final Exception e) {
+                log.error("Error processing file {}", updatedFile, e);
+            }
+            if (!theSubmitted && processed != null) {
+                processed.run();
             }
         }
     }
 
-    class UpdatedFilter implements Predicate<Backend.FileEvent> {
+    class UpdatedFilter implements Function<List<FileEvent>, List<FileEvent>> {
         @Override
-        public boolean test(final FileEvent fileEvent) {
-            // Always keep delete file events
-            if (fileEvent.type == FileEvent.EventType.DELETED) {
-                return true;
+        public List<FileEvent> apply(final List<FileEvent> fileEvents) {
+            indexLock.readLock().lock();
+            try {
+                return filter(fileEvents);
+            } finally {
+                indexLock.readLock().unlock();
             }
-            final var thePath = fileEvent.path;
-            final var theFileName = thePath.toString();
+        }
 
-            try {
-                final var theUpdateCheckResult = luceneIndexHandler
-                        .checkIfModified(theFileName, fileEvent.attributes.lastModifiedTime().toMillis());
+        private List<FileEvent> filter(final List<FileEvent> fileEvents) {
+            final List<FileEvent> theResult = new ArrayList<>();
+            final var theManifest = luceneIndexHandler.getCrawlManifest();
+            final Map<String, Long> theLastModifiedTimestamps = new HashMap<>();
+            for (final var theEvent : fileEvents) {
+                // Always keep delete file events, files known by the manifest do not need an index lookup
+                if (theEvent.type != FileEvent.EventType.DELETED
+                        && !theManifest.isUnchanged(theEvent.path.toString(), theEvent.attributes.lastModifiedTime().toMillis(), theEvent.attributes.size())) {
+                    theLastModifiedTimestamps.put(theEvent.path.toString(), theEvent.attributes.lastModifiedTime().toMillis());
+                }
+            }
 
-                final var result = theUpdateCheckResult == UpdateCheckResult.UPDATED;
-                if (!result) {
-                    log.info("File seems not to have changed, skipping it ({}).", fileEvent.path);
-                    statistics.jobSkipped();
+            try {
+                final var theUpdateCheckResults = theLastModifiedTimestamps.isEmpty()
+                        ? Map.<String, UpdateCheckResult>of()
+                        : luceneIndexHandler.checkIfModified(theLastModifiedTimestamps);
+
+                for (final var theEvent : fileEvents) {
+                    final var theFileName = theEvent.path.toString();
+                    if (theEvent.type == FileEvent.EventType.DELETED
+                            || theUpdateCheckResults.get(theFileName) == UpdateCheckResult.UPDATED) {
+                        theResult.add(theEvent);
+                    } else {
+                        if (theUpdateCheckResults.containsKey(theFileName)) {
+                            // Unchanged, but not yet known to the manifest
+                            theManifest.recordUpdate(theFileName, theEvent.attributes.lastModifiedTime().toMillis(), theEvent.attributes.size(), 0);
+                        }
+                        log.info("File seems not to have changed, skipping it ({}).", theEvent.path);
+                        jobSkipped(theEvent);
+                    }
                 }
-                return result;
+                return theResult;
             } catch (final Exception e) {
-                throw new RuntimeException();
+                throw new RuntimeException(e);
             }
         }
     }
@@ -159,16 +250,93 @@ public class Backend implements ConfigurationChangeListener {
             }
 
             final var thePath = fileEvent.path;
-            log.info("Extracting content from {}", thePath);
-            final var theContent = contentExtractor.extractContentFrom(thePath, fileEvent.attributes);
-            log.info("Extracting content done");
+            final ContentExtractor.RawContent theRawContent;
+            try {
+                theRawContent = contentExtractor.readRawContent(thePath, fileEvent.attributes);
+                if (isIndexedWithRawHash(thePath.toString(), theRawContent.getHash())) {
+                    log.info("Content of {} did not change, only updating modification time", thePath);
+                    return new LuceneCommand(fileEvent, null, theRawContent.getHash());
+                }
+            } catch (final IOException e) {
+                log.error("Error reading content of {}", thePath, e);
+                return new LuceneCommand(fileEvent, null);
+            }
+
+            // Identical files share one extraction. Files currently extracted by another
+            // worker are waited for, already indexed ones are taken from the index.
+            final var theExtraction = new CompletableFuture<Content>();
+            final var theRunningExtraction = extractionsInProgress.putIfAbsent(theRawContent.getHash(), theExtraction);
+            if (theRunningExtraction != null) {
+                log.info("Waiting for extraction of identical file for {}", thePath);
+                final var theSharedContent = theRunningExtraction.join();
+                return new LuceneCommand(fileEvent, theSharedContent != null
+                        ? contentExtractor.copyContentFrom(theSharedContent, thePath, fileEvent.attributes)
+                        : null);
+            }
+
+            Content theContent = null;
+            try {
+                final var theIndexedContent = findContentByRawHash(theRawContent.getHash());
+                if (theIndexedContent != null) {
+                    log.info("Reusing content of identical file {} for {}", theIndexedContent.getFileName(), thePath);
+                    theContent = contentExtractor.copyContentFrom(theIndexedContent, thePath, fileEvent.attributes);
+                } else {
+                    theContent = extract(thePath, fileEvent.attributes, theRawContent);
+                }
+            } catch (final IOException e) {
+                log.error("Error looking up identical files for {}", thePath, e);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while extracting content from {}", thePath);
+            } finally {
+                extractionsInProgress.remove(theRawContent.getHash(), theExtraction);
+                theExtraction.complete(theContent);
+            }
             return new LuceneCommand(fileEvent, theContent);
         }
     }
 
+    private boolean isIndexedWithRawHash(final String fileName, final String rawHash) throws IOException {
+        indexLock.readLock().lock();
+        try {
+            return luceneIndexHandler.isIndexedWithRawHash(fileName, rawHash);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private Content findContentByRawHash(final String rawHash) throws IOException {
+        indexLock.readLock().lock();
+        try {
+            return luceneIndexHandler.findContentByRawHash(rawHash);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private Content extract(final Path file, final BasicFileAttributes fileAttributes, final ContentExtractor.RawContent rawContent)
+            throws InterruptedException {
+        log.info("Extracting content from {}", file);
+        final var theContent = extractionWorkerPool != null
+                ? extractionWorkerPool.extractContentFrom(file, fileAttributes)
+                : contentExtractor.extractContentFrom(file, fileAttributes, rawContent);
+        log.info("Extracting content done");
+        return theContent;
+    }
+
     class IndexUpdater implements Consumer<LuceneCommand> {
         @Override
         public void accept(final LuceneCommand command) {
+            indexLock.readLock().lock();
+            try {
+                update(command);
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            jobFinished(command.fileEvent);
+        }
+
+        private void update(final LuceneCommand command) {
             if (command.fileEvent.type == FileEvent.EventType.DELETED) {
                 try {
                     luceneIndexHandler.removeFromIndex(command.fileEvent.path.toString());
@@ -183,6 +351,21 @@ public class Backend implements ConfigurationChangeListener {
                     final String message = "Error deleting " + command.fileEvent.path.getFileName();
                     progressListener.infotext(message);
 
+                    log.error(message, e);
+                }
+            } else if (command.unchangedRawHash != null) {
+                try {
+                    luceneIndexHandler.updateLastModified(command.fileEvent.crawlLocation.getId(), command.fileEvent.path.toString(),
+                            command.fileEvent.attributes.lastModifiedTime().toMillis(), command.fileEvent.attributes.size(), command.unchangedRawHash);
+
+                    log.info("Updated modification time of {}", command.fileEvent.path.getFileName());
+
+                } catch (final Exception e) {
+
+                    final String message = "Error updating " + command.fileEvent.path.getFileName();
+
+                    progressListener.infotext(message);
+
                     log.error(message, e);
                 }
             } else {
@@ -212,12 +395,15 @@ public class Backend implements ConfigurationChangeListener {
     public Backend(final ConfigurationManager configurationManager, final PreviewProcessor aPreviewProcessor) throws IOException {
         this.previewProcessor = aPreviewProcessor;
         this.locations = new HashMap<>();
+        this.indexLock = new ReentrantReadWriteLock();
 
         final var configuration = configurationManager.getConfiguration();
         configurationManager.addChangeListener(this);
 
         this.contentExtractor = new ContentExtractor(configuration);
+        this.extractionWorkerPool = ExtractionWorkerPool.create(configuration);
         this.statistics = new Statistics();
+        this.extractionsInProgress = new ConcurrentHashMap<>();
 
         this.directoryListener = new SimpleDirectoryListener();
 
@@ -225,26 +411,71 @@ public class Backend implements ConfigurationChangeListener {
         final EventContentExtractor eventContentExtractor = new EventContentExtractor();
         final IndexUpdater indexUpdater = new IndexUpdater();
 
-        this.processingPipeline = fileEvent -> {
-            try {
-                if (updatedFilter.test(fileEvent)) {
-                    final LuceneCommand theCommand = eventContentExtractor.apply(fileEvent);
+        // The pipeline consists of three stages connected by bounded queues. The
+        // modification check is mostly waiting for I/O, so it runs on virtual threads
+        // and checks all queued files with a single index lookup.
+        // Content extraction is CPU bound and gets the biggest pool.
+        // Every stage has two lanes. Changes reported by the watcher are processed first,
+        // crawled files are processed smallest first, so most documents become searchable early.
+        final var theQueueCapacity = configuration.getIndexingQueueCapacity();
+        // The number of extraction workers is the upper bound, the controller decides how many of them are busy
+        this.extractionController = new ExtractionController(configuration.getNumberOfExtractionWorkers(), statistics);
+        final Comparator<FileEvent> theBySize = Comparator.comparingLong(FileEvent::size);
+        this.indexStage = new PipelineStage<>("Index",
+                new PriorityLaneQueue<>(configuration.getNumberOfIndexWorkers() * 2, x -> x.fileEvent.isLive(), Comparator.comparing(x -> x.fileEvent, theBySize)),
+                configuration.getNumberOfIndexWorkers(),
+                Thread.ofPlatform().name("Index-Update-", 0).daemon(true).factory(), indexUpdater);
+        this.extractionStage = new PipelineStage<>("Extract",
+                new PriorityLaneQueue<>(theQueueCapacity, FileEvent::isLive, theBySize), configuration.getNumberOfExtractionWorkers(),
+                Thread.ofPlatform().name("Index-Extract-", 0).daemon(true).factory(), fileEvent -> {
+                    final var theEstimatedBytes = ExtractionController.estimateHeapBytes(fileEvent.size());
+                    try {
+                        extractionController.acquire(theEstimatedBytes);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        jobFinished(fileEvent);
+                        return;
+                    }
+                    try {
+                        final LuceneCommand theCommand = eventContentExtractor.apply(fileEvent);
+                        if (theCommand.hasWork()) {
+                            indexStage.submit(theCommand);
+                        } else {
+                            jobFinished(fileEvent);
+                        }
+                    } catch (final Exception e) {
+                        log.error("Error processing file {}", fileEvent.path, e);
+                        jobFinished(fileEvent);
+                    } finally {
+                        extractionController.release(theEstimatedBytes, fileEvent.size());
+                    }
+                });
+        this.checkStage = new PipelineStage<>("Check",
+                new PriorityLaneQueue<>(theQueueCapacity, FileEvent::isLive, theBySize), configuration.getNumberOfCheckWorkers(),
+                Thread.ofVirtual().name("Index-Check-", 0).factory(), CHECK_BATCH_SIZE, fileEvents -> {
+                    try {
+                        updatedFilter.apply(fileEvents).forEach(extractionStage::submit);
+                    } catch (final Exception e) {
+                        log.error("Error checking {} files for modifications", fileEvents.size(), e);
+                        fileEvents.forEach(Backend.this::jobFinished);
+                    }
+                });
 
-                    indexUpdater.accept(theCommand);
-                }
-            } catch (final Exception e) {
-                log.error("Error processing file {}", fileEvent.path, e);
-            }
-        };
+        // Submitting blocks as long as the check stage is saturated, so the
+        // producers are slowed down instead of queueing up unbounded work
+        this.processingPipeline = checkStage::submit;
 
         configurationUpdated(configuration);
     }
 
-    @Scheduled(fixedDelay = 60000) // 60 seconds
-    private void commitDataJob() {
-        if (this.luceneIndexHandler != null) {
-            this.luceneIndexHandler.commitDataJob();
-        }
+    private void jobFinished(final FileEvent fileEvent) {
+        statistics.jobFinished();
+        fileEvent.processed();
+    }
+
+    private void jobSkipped(final FileEvent fileEvent) {
+        statistics.jobSkipped();
+        fileEvent.processed();
     }
 
     @Override
@@ -278,6 +509,9 @@ public class Backend implements ConfigurationChangeListener {
                 long lastRemaining = -1;
                 final var format = NumberFormat.getIntegerInstance();
                 var lastMessage = "";
+                var lastExtractionMetrics = "";
+                var lastSearchMetrics = "";
+                var ticks = 0;
 
                 while (!isInterrupted()) {
 
@@ -287,14 +521,15 @@ public class Backend implements ConfigurationChangeListener {
                     final var remaining = Math.max(totalJobs - completedJobs, 0);
 
                     if (remaining > 0) {
+                        final var extracting = " Extracting " + statistics.extractionsInFlight() + " of at most " + statistics.extractionLimit() + " files.";
                         if (lastRemaining == -1) {
-                            lastMessage = remaining + " Files are still in the indexing queue.";
+                            lastMessage = remaining + " Files are still in the indexing queue." + extracting;
                             Backend.this.progressListener.infotext(lastMessage);
                         } else {
                             final var thruput = lastRemaining - remaining;
                             if (thruput > 0) {
                                 final var eta = ((double) remaining) / thruput;
-                                lastMessage = remaining + " Files are still in the indexing queue, " + format.format(eta) + " seconds remaining (ETA).";
+                                lastMessage = remaining + " Files are still in the indexing queue, " + format.format(eta) + " seconds remaining (ETA)." + extracting;
                                 Backend.this.progressListener.infotext(lastMessage);
                             } else {
                                 if (!lastMessage.isEmpty()) {
@@ -308,6 +543,20 @@ public class Backend implements ConfigurationChangeListener {
 
                     lastRemaining = remaining;
 
+                    // The metrics are logged every ten seconds as long as they change
+                    if (ticks++ % 10 == 0) {
+                        final var extractionMetrics = extractionMetrics();
+                        if (!extractionMetrics.equals(lastExtractionMetrics)) {
+                            log.info(extractionMetrics);
+                            lastExtractionMetrics = extractionMetrics;
+                        }
+                        final var searchMetrics = searchMetrics();
+                        if (!searchMetrics.equals(lastSearchMetrics)) {
+                            log.info(searchMetrics);
+                            lastSearchMetrics = searchMetrics;
+                        }
+                    }
+
                     try {
                         sleep(1000);
                     } catch (final InterruptedException e) {
@@ -319,15 +568,35 @@ public class Backend implements ConfigurationChangeListener {
         progressInfo.start();
     }
 
+    private String extractionMetrics() {
+        return String.format("Extracting %d files with an estimated heap of %d MB, the limit is %d due to %s, %.1f files/s, %.1f MB/s",
+                statistics.extractionsInFlight(), statistics.extractionBytesInFlight() / (1024 * 1024),
+                statistics.extractionLimit(), statistics.extractionLimitReason(),
+                statistics.extractedFilesPerSecond(), statistics.extractedBytesPerSecond() / (1024 * 1024));
+    }
+
+    private String searchMetrics() {
+        return String.format("The last searcher refresh took %d ms, its facets took %d ms, %d facet states were built and %d reused, %d queries waited %d ms in total for facets",
+                statistics.searcherRefreshMillis(), statistics.facetStatesMillis(),
+                statistics.builtFacetStates(), statistics.reusedFacetStates(),
+                statistics.stalledFacetQueries(), statistics.facetQueryStallMillis());
+    }
+
     private void add(final Configuration.CrawlLocation crawlLocation) throws IOException {
         locations.put(crawlLocation, new LocalDirectoryWatcher(crawlLocation, LocalDirectoryWatcher.DEFAULT_WAIT_FOR_ACTION, directoryListener).startWatching());
     }
 
     private void setIndexLocation(final Configuration configuration) throws IOException {
-        if (luceneIndexHandler != null) {
-            shutdown();
+        // Waits for the pipeline workers using the old handler, the others wait for the new one
+        indexLock.writeLock().lock();
+        try {
+            if (luceneIndexHandler != null) {
+                luceneIndexHandler.shutdown();
+            }
+            luceneIndexHandler = new LuceneIndexHandler(configuration, previewProcessor, statistics);
+        } finally {
+            indexLock.writeLock().unlock();
         }
-        luceneIndexHandler = new LuceneIndexHandler(configuration, previewProcessor);
     }
 
     public void crawlLocations() {
@@ -337,16 +606,24 @@ public class Backend implements ConfigurationChangeListener {
         final var theRunner = new Thread(() -> {
 
             log.info("Starting to crawl");
+            final List<CompletableFuture<Void>> theCrawls = new ArrayList<>();
             locations.values().forEach(theWatcher -> {
                 try {
-                    theWatcher.crawl();
+                    theCrawls.add(theWatcher.crawl(luceneIndexHandler.getCrawlCheckpoint(), configuration.getNumberOfCrawlThreads()));
                 } catch (final Exception e) {
                     log.error("Error while crawling", e);
                 }
             });
 
             progressListener.crawlingFinished();
+
+            // The bulk build of an empty index ends once every crawled file is processed. Changes
+            // reported by the watcher in the meantime do not delay it.
+            CompletableFuture.allOf(theCrawls.toArray(new CompletableFuture[0])).join();
+            luceneIndexHandler.crawlingFinished();
         });
+        // An interrupted crawl never completes, so the runner must not keep the application alive
+        theRunner.setDaemon(true);
         theRunner.start();
     }
 
@@ -354,7 +631,14 @@ public class Backend implements ConfigurationChangeListener {
     @PreDestroy
     public void shutdown() {
         log.info("Shutting down backend");
+        // Upstream stages first, so a worker handing over an item never waits for a stopped stage
+        checkStage.shutdown();
+        extractionStage.shutdown();
+        indexStage.shutdown();
         luceneIndexHandler.shutdown();
+        if (extractionWorkerPool != null) {
+            extractionWorkerPool.stopWorkers();
+        }
         if (progressInfo != null) {
             progressInfo.interrupt();
         }
@@ -372,7 +656,7 @@ public class Backend implements ConfigurationChangeListener {
         return luceneIndexHandler.getFileOnDiskForDocument(luceneDocumentId);
     }
 
-    public String highlightMatch(final String queryString, final int luceneDocumentId) {
-        return luceneIndexHandler.highlight(queryString, luceneDocumentId);
+    public String highlightMatch(final String queryString, final String fileName) {
+        return luceneIndexHandler.highlight(queryString, fileName);
     }
 }
@@ -64,11 +64,26 @@ public class Configuration {
     private Set<SupportedLanguage> enabledLanguages;
     private Set<SupportedDocumentType> enabledDocumentTypes;
     private Map<String, String> metaDataNameReplacement;
+    private Set<String> metaDataFields;
     private File configDirectory;
     private int facetCount;
     private boolean useTitleAsFilename;
     private boolean defaultFuzzySearch;
     private int fuzzySearchEditDistance;
+    private boolean prefixSearch;
+    private int indexingQueueCapacity;
+    private int numberOfCheckWorkers;
+    private int numberOfExtractionWorkers;
+    private int numberOfIndexWorkers;
+    private int numberOfExtractionProcesses;
+    private int extractionTimeoutSeconds;
+    private int extractionProcessHeapMB;
+    private int extractionProcessMaxDocuments;
+    private int searchRefreshMillis;
+    private int commitIntervalSeconds;
+    private int searchThreads;
+    private int searchSliceDocuments;
+    private int numberOfCrawlThreads;
 
     private Configuration() {
         // Needed by Jackson
@@ -102,10 +117,24 @@ public class Configuration {
         metaDataNameReplacement.put("character count", "character-count");
         metaDataNameReplacement.put("npages", "page-count");
         metaDataNameReplacement.put("slide-count", "page-count");
+        metaDataFields = new HashSet<>();
         facetCount = 10;
         useTitleAsFilename = true;
-        defaultFuzzySearch = true;
+        defaultFuzzySearch = false;
         fuzzySearchEditDistance = 2;
+        indexingQueueCapacity = 1000;
+        numberOfCheckWorkers = 16;
+        numberOfExtractionWorkers = Runtime.getRuntime().availableProcessors();
+        numberOfIndexWorkers = 2;
+        numberOfExtractionProcesses = 0;
+        extractionTimeoutSeconds = 60;
+        extractionProcessHeapMB = 512;
+        extractionProcessMaxDocuments = 500;
+        searchRefreshMillis = 100;
+        commitIntervalSeconds = 60;
+        searchThreads = Runtime.getRuntime().availableProcessors();
+        searchSliceDocuments = 250000;
+        numberOfCrawlThreads = 8;
     }
 
     private Configuration(final Configuration aConfiguration) {
@@ -120,12 +149,27 @@ public class Configuration {
         enabledLanguages = new HashSet<>(aConfiguration.enabledLanguages);
         enabledDocumentTypes = new HashSet<>(aConfiguration.enabledDocumentTypes);
         metaDataNameReplacement = new HashMap<>(aConfiguration.metaDataNameReplacement);
+        metaDataFields = new HashSet<>(aConfiguration.metaDataFields);
         configDirectory = aConfiguration.configDirectory;
         crawlOnStartup = aConfiguration.crawlOnStartup;
         facetCount = aConfiguration.facetCount;
         useTitleAsFilename = aConfiguration.useTitleAsFilename;
         defaultFuzzySearch = aConfiguration.defaultFuzzySearch;
         fuzzySearchEditDistance = aConfiguration.fuzzySearchEditDistance;
+        prefixSearch = aConfiguration.prefixSearch;
+        indexingQueueCapacity = aConfiguration.indexingQueueCapacity;
+        numberOfCheckWorkers = aConfiguration.numberOfCheckWorkers;
+        numberOfExtractionWorkers = aConfiguration.numberOfExtractionWorkers;
+        numberOfIndexWorkers = aConfiguration.numberOfIndexWorkers;
+        numberOfExtractionProcesses = aConfiguration.numberOfExtractionProcesses;
+        extractionTimeoutSeconds = aConfiguration.extractionTimeoutSeconds;
+        extractionProcessHeapMB = aConfiguration.extractionProcessHeapMB;
+        extractionProcessMaxDocuments = aConfiguration.extractionProcessMaxDocuments;
+        searchRefreshMillis = aConfiguration.searchRefreshMillis;
+        commitIntervalSeconds = aConfiguration.commitIntervalSeconds;
+        searchThreads = aConfiguration.searchThreads;
+        searchSliceDocuments = aConfiguration.searchSliceDocuments;
+        numberOfCrawlThreads = aConfiguration.numberOfCrawlThreads;
     }
 
     public Configuration(final File aConfigDirectory) {
@@ -165,6 +209,14 @@ public class Configuration {
         return Collections.unmodifiableMap(metaDataNameReplacement);
     }
 
+    /**
+     * Metadata keys which are indexed in fields of their own and offered as facets. All other
+     * metadata is kept in a single field. Changes apply to files indexed afterwards.
+     */
+    public Set<String> getMetaDataFields() {
+        return Collections.unmodifiableSet(metaDataFields);
+    }
+
     public int getSuggestionSlop() {
         return suggestionSlop;
     }
@@ -249,6 +301,12 @@ public class Configuration {
         return theConfiguration;
     }
 
+    public Configuration updateMetaDataFields(final Set<String> aKeys) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.metaDataFields = new HashSet<>(aKeys);
+        return theConfiguration;
+    }
+
     public Configuration updateSuggestionWindowBefore(final int aValue) {
         final var theConfiguration = new Configuration(this);
         theConfiguration.suggestionWindowBefore = aValue;
@@ -298,4 +356,144 @@ public class Configuration {
         theConfiguration.fuzzySearchEditDistance = fuzzySearchEditDistance  ;
         return theConfiguration;
     }
+
+    public boolean isPrefixSearch() {
+        return prefixSearch;
+    }
+
+    public Configuration updatePrefixSearch(final boolean aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.prefixSearch = aValue;
+        return theConfiguration;
+    }
+
+    public int getIndexingQueueCapacity() {
+        return indexingQueueCapacity;
+    }
+
+    public Configuration updateIndexingQueueCapacity(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.indexingQueueCapacity = aValue;
+        return theConfiguration;
+    }
+
+    public int getNumberOfCheckWorkers() {
+        return numberOfCheckWorkers;
+    }
+
+    public Configuration updateNumberOfCheckWorkers(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.numberOfCheckWorkers = aValue;
+        return theConfiguration;
+    }
+
+    public int getNumberOfExtractionWorkers() {
+        return numberOfExtractionWorkers;
+    }
+
+    public Configuration updateNumberOfExtractionWorkers(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.numberOfExtractionWorkers = aValue;
+        return theConfiguration;
+    }
+
+    public int getNumberOfIndexWorkers() {
+        return numberOfIndexWorkers;
+    }
+
+    public Configuration updateNumberOfIndexWorkers(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.numberOfIndexWorkers = aValue;
+        return theConfiguration;
+    }
+
+    public int getNumberOfExtractionProcesses() {
+        return numberOfExtractionProcesses;
+    }
+
+    public Configuration updateNumberOfExtractionProcesses(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.numberOfExtractionProcesses = aValue;
+        return theConfiguration;
+    }
+
+    public int getExtractionTimeoutSeconds() {
+        return extractionTimeoutSeconds;
+    }
+
+    public Configuration updateExtractionTimeoutSeconds(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.extractionTimeoutSeconds = aValue;
+        return theConfiguration;
+    }
+
+    public int getExtractionProcessHeapMB() {
+        return extractionProcessHeapMB;
+    }
+
+    public Configuration updateExtractionProcessHeapMB(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.extractionProcessHeapMB = aValue;
+        return theConfiguration;
+    }
+
+    public int getExtractionProcessMaxDocuments() {
+        return extractionProcessMaxDocuments;
+    }
+
+    public Configuration updateExtractionProcessMaxDocuments(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.extractionProcessMaxDocuments = aValue;
+        return theConfiguration;
+    }
+
+    public int getSearchRefreshMillis() {
+        return searchRefreshMillis;
+    }
+
+    public Configuration updateSearchRefreshMillis(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.searchRefreshMillis = aValue;
+        return theConfiguration;
+    }
+
+    public int getCommitIntervalSeconds() {
+        return commitIntervalSeconds;
+    }
+
+    public Configuration updateCommitIntervalSeconds(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.commitIntervalSeconds = aValue;
+        return theConfiguration;
+    }
+
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    public Configuration updateSearchThreads(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.searchThreads = aValue;
+        return theConfiguration;
+    }
+
+    public int getSearchSliceDocuments() {
+        return searchSliceDocuments;
+    }
+
+    public Configuration updateSearchSliceDocuments(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.searchSliceDocuments = aValue;
+        return theConfiguration;
+    }
+
+    public int getNumberOfCrawlThreads() {
+        return numberOfCrawlThreads;
+    }
+
+    public Configuration updateNumberOfCrawlThreads(final int aValue) {
+        final var theConfiguration = new Configuration(this);
+        theConfiguration.numberOfCrawlThreads = aValue;
+        return theConfiguration;
+    }
 }
\ No newline at end of file
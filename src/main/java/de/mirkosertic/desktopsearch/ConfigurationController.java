@@ -25,6 +25,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Locale;
 import java.util.Objects;
+import java.util.TreeSet;
 import java.util.UUID;
 
 @JavaFXController
@@ -34,6 +35,7 @@ public class ConfigurationController {
     private static final String CATEGORY_SUGGEST = "Suggestion";
     private static final String CATEGORY_LANGUAGE = "Language analyzers";
     private static final String CATEGORY_FILEFORMATS = "File formats";
+    private static final String CATEGORY_INDEXING = "Indexing";
 
     @FXML
     ListView<Configuration.CrawlLocation> indexedDirectories;
@@ -143,6 +145,18 @@ public class ConfigurationController {
                 currentConfiguration = currentConfiguration.updateFuzzySearchEditDistance((Integer) o);
             }
         });
+        propertySheet.getItems().add(new PropertyEditorItem(boolean.class, CATEGORY_COMMON, "Search as you type with word prefixes", BooleanPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.isPrefixSearch();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updatePrefixSearch((Boolean) o);
+            }
+        });
         propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_SUGGEST, "Max number of suggestions", SpinnerPropertyEditor.class) {
 
             @Override
@@ -203,6 +217,180 @@ public class ConfigurationController {
                 currentConfiguration = currentConfiguration.updateSuggestionsInOrder((Boolean) o);
             }
         });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Indexing queue capacity", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getIndexingQueueCapacity();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateIndexingQueueCapacity((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Number of crawler threads", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getNumberOfCrawlThreads();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateNumberOfCrawlThreads((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Number of modification check workers", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getNumberOfCheckWorkers();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateNumberOfCheckWorkers((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Number of content extraction workers", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getNumberOfExtractionWorkers();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateNumberOfExtractionWorkers((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Number of index writer workers", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getNumberOfIndexWorkers();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateNumberOfIndexWorkers((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Number of extraction processes", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getNumberOfExtractionProcesses();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateNumberOfExtractionProcesses((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Extraction timeout in seconds", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getExtractionTimeoutSeconds();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateExtractionTimeoutSeconds((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Extraction process heap in MB", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getExtractionProcessHeapMB();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateExtractionProcessHeapMB((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Documents per extraction process", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getExtractionProcessMaxDocuments();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateExtractionProcessMaxDocuments((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Search refresh interval in ms", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getSearchRefreshMillis();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateSearchRefreshMillis((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Commit interval in seconds", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getCommitIntervalSeconds();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateCommitIntervalSeconds((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Number of search threads", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getSearchThreads();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateSearchThreads((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(Integer.class, CATEGORY_INDEXING, "Documents per search slice", SpinnerPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return currentConfiguration.getSearchSliceDocuments();
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                currentConfiguration = currentConfiguration.updateSearchSliceDocuments((Integer) o);
+            }
+        });
+        propertySheet.getItems().add(new PropertyEditorItem(String.class, CATEGORY_INDEXING, "Metadata facets", TextPropertyEditor.class) {
+
+            @Override
+            public Object getValue() {
+                return String.join(", ", new TreeSet<>(currentConfiguration.getMetaDataFields()));
+            }
+
+            @Override
+            public void setValue(final Object o) {
+                final var theKeys = new TreeSet<String>();
+                for (final var theKey : ((String) o).split(",")) {
+                    if (!theKey.isBlank()) {
+                        theKeys.add(theKey.trim());
+                    }
+                }
+                currentConfiguration = currentConfiguration.updateMetaDataFields(theKeys);
+            }
+        });
 
         for (final var theLanguage : SupportedLanguage.values()) {
 
@@ -37,15 +37,22 @@ public class Content {
     private final List<KeyValuePair> metadata;
     private final String fileContent;
     private final SupportedLanguage language;
+    private final String rawHash;
 
     public Content(
             final String fileName, final String fileContent, final long fileSize, final long lastModified, final SupportedLanguage language) {
+        this(fileName, fileContent, fileSize, lastModified, language, null);
+    }
+
+    public Content(
+            final String fileName, final String fileContent, final long fileSize, final long lastModified, final SupportedLanguage language, final String rawHash) {
         this.fileName = fileName;
         this.fileSize = fileSize;
         this.lastModified = lastModified;
         this.metadata = new ArrayList<>();
         this.fileContent = fileContent;
         this.language = language;
+        this.rawHash = rawHash;
     }
 
     public String getFileName() {
@@ -68,6 +75,13 @@ public class Content {
         return language;
     }
 
+    /**
+     * Hash of the raw file bytes, or null if unknown.
+     */
+    public String getRawHash() {
+        return rawHash;
+    }
+
     public Stream<KeyValuePair> getMetadata() {
         return metadata.stream();
     }
@@ -16,6 +16,8 @@
 package de.mirkosertic.desktopsearch;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.tika.Tika;
 import org.apache.tika.language.detect.LanguageDetector;
 import org.apache.tika.metadata.Metadata;
@@ -23,10 +25,15 @@ import org.apache.tika.utils.DateUtils;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.Locale;
@@ -35,6 +42,8 @@ import java.util.regex.Pattern;
 @Slf4j
 public class ContentExtractor {
 
+    private static final long MAX_IN_MEMORY_SIZE = 1024 * 1024 * 4;
+
     private final Tika tika;
     private final Pattern metaDataDatePattern;
     private final Configuration configuration;
@@ -72,25 +81,103 @@ public class ContentExtractor {
         return metadataName;
     }
 
+    /**
+     * The raw bytes of a file together with their hash. Small files are kept in memory,
+     * so they are read only once for hashing and parsing. Large files are hashed with a
+     * sequential read, which is much cheaper than parsing them, so unchanged and identical
+     * files are still detected before they are parsed.
+     */
+    public static final class RawContent {
+
+        private final String hash;
+        private final byte[] data;
+
+        private RawContent(final String hash, final byte[] data) {
+            this.hash = hash;
+            this.data = data;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    /**
+     * Reads the rest of the stream before it is closed, so the digest covers the whole file,
+     * even if the parser stopped early, like at the maximum text length.
+     */
+    private static final class DrainingInputStream extends FilterInputStream {
+
+        private boolean closed;
+
+        private DrainingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    in.transferTo(OutputStream.nullOutputStream());
+                } finally {
+                    super.close();
+                }
+            }
+        }
+    }
+
+    public RawContent readRawContent(final Path file, final BasicFileAttributes fileAttributes) throws IOException {
+        // Files under 4 Meg are read into memory as a whole
+        if (fileAttributes.size() < MAX_IN_MEMORY_SIZE) {
+            final var theData = Files.readAllBytes(file);
+            return new RawContent(DigestUtils.md5Hex(theData), theData);
+        }
+        try (final var theStream = Files.newInputStream(file, StandardOpenOption.READ)) {
+            return new RawContent(DigestUtils.md5Hex(theStream), null);
+        }
+    }
+
     public Content extractContentFrom(final Path fileToExtractContentFrom, final BasicFileAttributes fileAttributes) {
+        try {
+            // Without a lookup of unchanged or identical files before, large files are only hashed while they are parsed
+            final var theRawContent = fileAttributes.size() < MAX_IN_MEMORY_SIZE
+                    ? readRawContent(fileToExtractContentFrom, fileAttributes)
+                    : new RawContent(null, null);
+            return extractContentFrom(fileToExtractContentFrom, fileAttributes, theRawContent);
+        } catch (final Exception e) {
+            log.error("Error reading content of {}", fileToExtractContentFrom, e);
+        }
+
+        return null;
+    }
+
+    public Content extractContentFrom(final Path fileToExtractContentFrom, final BasicFileAttributes fileAttributes, final RawContent rawContent) {
         try {
             final var theMetaData = new Metadata();
 
             final String theStringData;
-            // Files under 10 Meg are read into memory as a whole
-            if (fileAttributes.size() < 1024 * 1024 * 4) {
-                final var theData = Files.readAllBytes(fileToExtractContentFrom);
-                theStringData = tika.parseToString(new ByteArrayInputStream(theData), theMetaData)
+            final String theRawHash;
+            if (rawContent.data != null) {
+                theStringData = tika.parseToString(new ByteArrayInputStream(rawContent.data), theMetaData)
                         .replace('\n', ' ')
                         .replace('\r', ' ')
                         .replace('\t',' ');
+                theRawHash = rawContent.hash;
             } else {
-                try (final var theStream = Files.newInputStream(fileToExtractContentFrom, StandardOpenOption.READ)) {
+                // The file is hashed again while it is parsed, in case it changed since it was hashed before
+                final var theDigest = DigestUtils.getMd5Digest();
+                try (final var theStream = new DrainingInputStream(new DigestInputStream(
+                        Files.newInputStream(fileToExtractContentFrom, StandardOpenOption.READ), theDigest))) {
                     theStringData = tika.parseToString(new BufferedInputStream(theStream), theMetaData)
                             .replace('\n', ' ')
                             .replace('\r', ' ')
                             .replace('\t',' ');
                 }
+                theRawHash = Hex.encodeHexString(theDigest.digest());
+                if (rawContent.hash != null && !rawContent.hash.equals(theRawHash)) {
+                    log.info("File {} changed while it was extracted, using the hash of the extracted content", fileToExtractContentFrom);
+                }
             }
 
             final var theLanguageResult = languageDetector.detect(theStringData);
@@ -105,7 +192,7 @@ public class ContentExtractor {
             } catch (final Exception e) {
                 log.info("Language {} was detected, but is not supported", theLanguageResult.getLanguage());
             }
-            final var theContent = new Content(fileToExtractContentFrom.toString(), theStringData, fileAttributes.size(), theFileTime.toMillis(), theLanguage);
+            final var theContent = new Content(fileToExtractContentFrom.toString(), theStringData, fileAttributes.size(), theFileTime.toMillis(), theLanguage, theRawHash);
             for (final var theName : theMetaData.names()) {
 
                 final var theMetaDataValue = theMetaData.get(theName);
@@ -135,12 +222,7 @@ public class ContentExtractor {
                 }
             }
 
-            final var theFileName = fileToExtractContentFrom.toString();
-            final var p = theFileName.lastIndexOf(".");
-            if (p > 0) {
-                final var theExtension = theFileName.substring(p + 1);
-                theContent.addMetaData(IndexFields.EXTENSION, theExtension.toLowerCase());
-            }
+            addExtension(theContent, fileToExtractContentFrom);
 
             return theContent;
         } catch (final Exception e) {
@@ -150,6 +232,29 @@ public class ContentExtractor {
         return null;
     }
 
+    /**
+     * Reuses content extracted from another file with the same bytes, so Tika has to
+     * parse identical files only once.
+     */
+    public Content copyContentFrom(final Content source, final Path file, final BasicFileAttributes fileAttributes) {
+        final var theContent = new Content(file.toString(), source.getFileContent(), fileAttributes.size(),
+                fileAttributes.lastModifiedTime().toMillis(), source.getLanguage(), source.getRawHash());
+        source.getMetadata()
+                .filter(theEntry -> !IndexFields.EXTENSION.equals(theEntry.key))
+                .forEach(theEntry -> theContent.addMetaData(theEntry.key, theEntry.value));
+        addExtension(theContent, file);
+        return theContent;
+    }
+
+    private void addExtension(final Content content, final Path file) {
+        final var theFileName = file.toString();
+        final var p = theFileName.lastIndexOf(".");
+        if (p > 0) {
+            final var theExtension = theFileName.substring(p + 1);
+            content.addMetaData(IndexFields.EXTENSION, theExtension.toLowerCase());
+        }
+    }
+
     public boolean supportsFile(final String filenameToCheck) {
         for (final var theType : configuration.getEnabledDocumentTypes()) {
             if (theType.supports(filenameToCheck)) {
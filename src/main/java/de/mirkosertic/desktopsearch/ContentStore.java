@@ -0,0 +1,517 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Content addressed store for the extracted text of files, so the index does not need to store it.
+ * Texts are identified by their MD5 hash, and a text shared by several files is stored only once.
+ * <p>
+ * Texts are appended to pack files, split into blocks of 64 KB which are compressed independently.
+ * Every pack has an index file listing hash, offset and length of its records, so opening the store
+ * does not need to read the packs. Texts no longer referenced by the index are removed by copying the
+ * remaining texts of mostly unused packs to a new pack.
+ */
+@Slf4j
+public class ContentStore implements Closeable {
+
+    private static final class Pack {
+
+        private final int number;
+        private final Path dataFile;
+        private final Path indexFile;
+        private final FileChannel data;
+        private final FileChannel index;
+        private long size;
+
+        private Pack(final int number, final Path directory) throws IOException {
+            this.number = number;
+            this.dataFile = directory.resolve(String.format("content-%06d.pack", number));
+            this.indexFile = directory.resolve(String.format("content-%06d.idx", number));
+            this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = data.size();
+        }
+
+        private void close() throws IOException {
+            data.close();
+            index.close();
+        }
+    }
+
+    /**
+     * Open addressing hash table from the first eight bytes of a hash to the location of its text.
+     */
+    private static final class LocationTable {
+
+        private long[] keys;
+        private long[] values;
+        private int size;
+
+        private LocationTable(final int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+        }
+
+        private int slot(final long key) {
+            final var theMask = keys.length - 1;
+            var theSlot = (int) (key ^ (key >>> 32)) & theMask;
+            while (keys[theSlot] != 0 && keys[theSlot] != key) {
+                theSlot = (theSlot + 1) & theMask;
+            }
+            return theSlot;
+        }
+
+        private long get(final long key) {
+            final var theSlot = slot(key);
+            return keys[theSlot] == 0 ? -1 : values[theSlot];
+        }
+
+        private void put(final long key, final long value) {
+            if ((size + 1) * 2 > keys.length) {
+                final var theOld = this.retain(v -> true, keys.length * 2);
+                keys = theOld.keys;
+                values = theOld.values;
+            }
+            final var theSlot = slot(key);
+            if (keys[theSlot] == 0) {
+                keys[theSlot] = key;
+                size++;
+            }
+            values[theSlot] = value;
+        }
+
+        private LocationTable retain(final LongPredicate value, final int capacity) {
+            final var theResult = new LocationTable(capacity);
+            for (var i = 0; i < keys.length; i++) {
+                if (keys[i] != 0 && value.test(values[i])) {
+                    final var theSlot = theResult.slot(keys[i]);
+                    theResult.keys[theSlot] = keys[i];
+                    theResult.values[theSlot] = values[i];
+                    theResult.size++;
+                }
+            }
+            return theResult;
+        }
+    }
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final long MAX_PACK_SIZE = 256L * 1024 * 1024;
+    private static final double MIN_LIVE_RATIO = 0.5;
+
+    // Record layout: hash, number of blocks, length of all blocks, then per block raw length, compressed length and data
+    private static final int HASH_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = HASH_SIZE + 8;
+    private static final int BLOCK_HEADER_SIZE = 8;
+
+    // Index entry layout: hash, offset, length of the record
+    private static final int INDEX_ENTRY_SIZE = HASH_SIZE + 12;
+
+    private static final int OFFSET_BITS = 40;
+
+    private final Path directory;
+    private final ReadWriteLock lock;
+    private final TreeMap<Integer, Pack> packs;
+    private LocationTable locations;
+    private Pack currentPack;
+    private Set<Long> usedDuringCollection;
+
+    private ContentStore(final Path directory) {
+        this.directory = directory;
+        this.lock = new ReentrantReadWriteLock();
+        this.packs = new TreeMap<>();
+        this.locations = new LocationTable(1 << 16);
+    }
+
+    public static ContentStore open(final Path directory) throws IOException {
+        Files.createDirectories(directory);
+        final var theStore = new ContentStore(directory);
+        final List<Integer> theNumbers = new ArrayList<>();
+        try (final var theFiles = Files.newDirectoryStream(directory, "content-*.pack")) {
+            for (final var theFile : theFiles) {
+                final var theName = theFile.getFileName().toString();
+                theNumbers.add(Integer.parseInt(theName.substring("content-".length(), theName.length() - ".pack".length())));
+            }
+        }
+        theNumbers.sort(null);
+        // Later packs win, so texts copied by an interrupted collection are found at their new location
+        for (final var theNumber : theNumbers) {
+            theStore.load(new Pack(theNumber, directory));
+        }
+        theStore.currentPack = theStore.packs.isEmpty() ? theStore.newPack() : theStore.packs.lastEntry().getValue();
+        log.info("Opened content store {} with {} texts in {} packs", directory, theStore.locations.size, theStore.packs.size());
+        return theStore;
+    }
+
+    private void load(final Pack pack) throws IOException {
+        final var theEntries = ByteBuffer.allocate((int) (pack.index.size() / INDEX_ENTRY_SIZE * INDEX_ENTRY_SIZE));
+        pack.index.read(theEntries, 0);
+        theEntries.flip();
+        var theValidEntries = 0L;
+        while (theEntries.remaining() >= INDEX_ENTRY_SIZE) {
+            final var theKey = theEntries.getLong();
+            theEntries.getLong();
+            final var theOffset = theEntries.getLong();
+            final var theLength = theEntries.getInt();
+            if (theOffset + theLength > pack.size) {
+                // Record was not completely written before a crash
+                break;
+            }
+            locations.put(key(theKey), location(pack.number, theOffset));
+            theValidEntries++;
+        }
+        pack.index.truncate(theValidEntries * INDEX_ENTRY_SIZE);
+        packs.put(pack.number, pack);
+    }
+
+    private Pack newPack() throws IOException {
+        final var thePack = new Pack(packs.isEmpty() ? 1 : packs.lastKey() + 1, directory);
+        packs.put(thePack.number, thePack);
+        return thePack;
+    }
+
+    private static long key(final long hashPrefix) {
+        // Zero marks an empty slot of the location table
+        return hashPrefix == 0 ? 1 : hashPrefix;
+    }
+
+    private static long location(final int packNumber, final long offset) {
+        return ((long) packNumber << OFFSET_BITS) | offset;
+    }
+
+    private static int packNumber(final long location) {
+        return (int) (location >>> OFFSET_BITS);
+    }
+
+    private static long offset(final long location) {
+        return location & ((1L << OFFSET_BITS) - 1);
+    }
+
+    private static byte[] parseHash(final String hash) {
+        return HexFormat.of().parseHex(hash);
+    }
+
+    private static long hashPrefix(final byte[] hash) {
+        return ByteBuffer.wrap(hash).getLong();
+    }
+
+    /**
+     * The key of a text hash as passed to the predicate of {@link #collectGarbage(LongPredicate)}.
+     */
+    public static long keyOf(final String hash) {
+        return key(hashPrefix(parseHash(hash)));
+    }
+
+    public synchronized boolean contains(final String hash) {
+        return locations.get(keyOf(hash)) != -1;
+    }
+
+    /**
+     * Stores a text under its hash, unless it is already known.
+     */
+    public void put(final String hash, final String text) throws IOException {
+        final var theHash = parseHash(hash);
+        final var theKey = key(hashPrefix(theHash));
+        synchronized (this) {
+            if (usedDuringCollection != null) {
+                usedDuringCollection.add(theKey);
+            }
+            if (locations.get(theKey) != -1) {
+                return;
+            }
+        }
+
+        final var theRecord = compress(theHash, text.getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            if (locations.get(theKey) == -1) {
+                append(theHash, theRecord);
+            }
+        }
+    }
+
+    private static ByteBuffer compress(final byte[] hash, final byte[] data) {
+        final var theDeflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final var theBlocks = new ByteArrayOutputStream(data.length / 3 + 64);
+            final var theBuffer = new byte[BLOCK_SIZE + BLOCK_SIZE / 8];
+            var theNumberOfBlocks = 0;
+            for (var theStart = 0; theStart < data.length || theNumberOfBlocks == 0; theStart += BLOCK_SIZE) {
+                final var theLength = Math.min(BLOCK_SIZE, data.length - theStart);
+                theDeflater.reset();
+                theDeflater.setInput(data, theStart, theLength);
+                theDeflater.finish();
+                final var theCompressed = new ByteArrayOutputStream(theLength / 2 + 64);
+                while (!theDeflater.finished()) {
+                    theCompressed.write(theBuffer, 0, theDeflater.deflate(theBuffer));
+                }
+                writeInt(theBlocks, theLength);
+                writeInt(theBlocks, theCompressed.size());
+                theBlocks.writeBytes(theCompressed.toByteArray());
+                theNumberOfBlocks++;
+            }
+
+            final var theRecord = ByteBuffer.allocate(RECORD_HEADER_SIZE + theBlocks.size());
+            theRecord.put(hash);
+            theRecord.putInt(theNumberOfBlocks);
+            theRecord.putInt(theBlocks.size());
+            theRecord.put(theBlocks.toByteArray());
+            return theRecord.flip();
+        } finally {
+            theDeflater.end();
+        }
+    }
+
+    private static void writeInt(final ByteArrayOutputStream out, final int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private void append(final byte[] hash, final ByteBuffer record) throws IOException {
+        if (currentPack.size > 0 && currentPack.size + record.remaining() > MAX_PACK_SIZE) {
+            currentPack.data.force(false);
+            currentPack.index.force(false);
+            currentPack = newPack();
+        }
+        final var theOffset = currentPack.size;
+        final var theLength = record.remaining();
+        while (record.hasRemaining()) {
+            currentPack.size += currentPack.data.write(record, currentPack.size);
+        }
+
+        final var theEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        theEntry.put(hash);
+        theEntry.putLong(theOffset);
+        theEntry.putInt(theLength);
+        theEntry.flip();
+        final var theIndexSize = currentPack.index.size();
+        while (theEntry.hasRemaining()) {
+            currentPack.index.write(theEntry, theIndexSize + theEntry.position());
+        }
+        locations.put(key(hashPrefix(hash)), location(currentPack.number, theOffset));
+    }
+
+    /**
+     * Loads a text, or returns null if it is not stored.
+     */
+    public String get(final String hash) throws IOException {
+        final var theHash = parseHash(hash);
+        lock.readLock().lock();
+        try {
+            final Pack thePack;
+            final long theOffset;
+            synchronized (this) {
+                final var theLocation = locations.get(key(hashPrefix(theHash)));
+                if (theLocation == -1) {
+                    return null;
+                }
+                thePack = packs.get(packNumber(theLocation));
+                theOffset = offset(theLocation);
+            }
+
+            final var theHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            readFully(thePack.data, theHeader, theOffset);
+            final var theStoredHash = new byte[HASH_SIZE];
+            theHeader.get(theStoredHash);
+            if (!Arrays.equals(theHash, theStoredHash)) {
+                // Another text with the same hash prefix
+                return null;
+            }
+            final var theNumberOfBlocks = theHeader.getInt();
+            final var theBlocks = ByteBuffer.allocate(theHeader.getInt());
+            readFully(thePack.data, theBlocks, theOffset + RECORD_HEADER_SIZE);
+            return new String(decompress(theBlocks, theNumberOfBlocks), StandardCharsets.UTF_8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of content pack");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static byte[] decompress(final ByteBuffer blocks, final int numberOfBlocks) throws IOException {
+        final var theInflater = new Inflater();
+        try {
+            final var theResult = new ByteArrayOutputStream(blocks.remaining() * 3);
+            final var theBuffer = new byte[BLOCK_SIZE];
+            for (var i = 0; i < numberOfBlocks; i++) {
+                final var theRawLength = blocks.getInt();
+                final var theCompressedLength = blocks.getInt();
+                theInflater.reset();
+                theInflater.setInput(blocks.array(), blocks.position(), theCompressedLength);
+                var theInflated = 0;
+                while (theInflated < theRawLength) {
+                    final var theCount = theInflater.inflate(theBuffer);
+                    if (theCount == 0 && (theInflater.finished() || theInflater.needsInput())) {
+                        throw new IOException("Corrupt block in content pack");
+                    }
+                    theResult.write(theBuffer, 0, theCount);
+                    theInflated += theCount;
+                }
+                blocks.position(blocks.position() + theCompressedLength);
+            }
+            return theResult.toByteArray();
+        } catch (final DataFormatException e) {
+            throw new IOException("Corrupt block in content pack", e);
+        } finally {
+            theInflater.end();
+        }
+    }
+
+    /**
+     * Makes all stored texts durable. Must be called before the index referencing them is committed.
+     */
+    public synchronized void sync() throws IOException {
+        currentPack.data.force(false);
+        currentPack.index.force(false);
+    }
+
+    /**
+     * Starts to remember all texts stored from now on. They are kept by the next collection,
+     * as documents referencing them might not be visible to the caller yet.
+     */
+    public synchronized void beginCollection() {
+        usedDuringCollection = new HashSet<>();
+    }
+
+    /**
+     * Removes texts which are not used anymore. Packs with less than half of their data still in
+     * use are rewritten. Called with the first eight bytes of a text hash, the predicate tells if
+     * the text is still used.
+     */
+    public void collectGarbage(final LongPredicate used) throws IOException {
+        final List<Pack> theCollected = new ArrayList<>();
+        var theCopiedBytes = 0L;
+        try {
+            final List<Pack> theSealedPacks;
+            synchronized (this) {
+                // The current pack is sealed as well, texts still in use are copied to a new one
+                if (currentPack.size > 0) {
+                    sync();
+                    currentPack = newPack();
+                }
+                theSealedPacks = new ArrayList<>(packs.headMap(currentPack.number).values());
+            }
+            for (final var thePack : theSealedPacks) {
+                final var theEntries = ByteBuffer.allocate((int) thePack.index.size());
+                readFully(thePack.index, theEntries, 0);
+
+                // Entries still in use, as hash, offset and length
+                final List<long[]> theLive = new ArrayList<>();
+                final List<byte[]> theLiveHashes = new ArrayList<>();
+                var theLiveBytes = 0L;
+                while (theEntries.remaining() >= INDEX_ENTRY_SIZE) {
+                    final var theHash = new byte[HASH_SIZE];
+                    theEntries.get(theHash);
+                    final var theOffset = theEntries.getLong();
+                    final var theLength = theEntries.getInt();
+                    final var theKey = key(hashPrefix(theHash));
+                    final boolean theUsed;
+                    synchronized (this) {
+                        theUsed = locations.get(theKey) == location(thePack.number, theOffset)
+                                && (used.test(theKey) || usedDuringCollection != null && usedDuringCollection.contains(theKey));
+                    }
+                    if (theUsed) {
+                        theLive.add(new long[] {theOffset, theLength});
+                        theLiveHashes.add(theHash);
+                        theLiveBytes += theLength;
+                    }
+                }
+                if (theLiveBytes >= thePack.size * MIN_LIVE_RATIO) {
+                    continue;
+                }
+
+                for (var i = 0; i < theLive.size(); i++) {
+                    final var theRecord = ByteBuffer.allocate((int) theLive.get(i)[1]);
+                    readFully(thePack.data, theRecord, theLive.get(i)[0]);
+                    synchronized (this) {
+                        append(theLiveHashes.get(i), theRecord);
+                    }
+                    theCopiedBytes += theRecord.capacity();
+                }
+                theCollected.add(thePack);
+            }
+
+            if (!theCollected.isEmpty()) {
+                // Copies must be durable before the originals are gone
+                sync();
+                lock.writeLock().lock();
+                try {
+                    synchronized (this) {
+                        final Set<Integer> theNumbers = new HashSet<>();
+                        for (final var thePack : theCollected) {
+                            packs.remove(thePack.number);
+                            theNumbers.add(thePack.number);
+                        }
+                        locations = locations.retain(v -> !theNumbers.contains(packNumber(v)), locations.keys.length);
+                    }
+                    for (final var thePack : theCollected) {
+                        thePack.close();
+                        Files.delete(thePack.dataFile);
+                        Files.delete(thePack.indexFile);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                log.info("Removed {} content packs, copied {} bytes still in use", theCollected.size(), theCopiedBytes);
+            }
+        } finally {
+            synchronized (this) {
+                usedDuringCollection = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        for (final var thePack : packs.values()) {
+            thePack.close();
+        }
+        packs.clear();
+    }
+}
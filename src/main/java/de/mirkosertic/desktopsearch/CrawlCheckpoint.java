@@ -0,0 +1,90 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Progress of running crawls, persisted in the commit user data of the index. For every
+ * crawl location the set of completely processed directories is kept. A directory is complete
+ * once all of its files are indexed or known to be unchanged, and all of its subdirectories are
+ * complete. Completed subdirectories are replaced by their parent, so the set stays small.
+ */
+public class CrawlCheckpoint {
+
+    private static final String KEY_PREFIX = "crawlCheckpoint.";
+    private static final String SEPARATOR = "\u0000";
+
+    private final Map<String, Set<Path>> completedDirectories;
+
+    private CrawlCheckpoint() {
+        completedDirectories = new HashMap<>();
+    }
+
+    public static CrawlCheckpoint fromCommitData(final Map<String, String> commitData) {
+        final var theResult = new CrawlCheckpoint();
+        commitData.forEach((theKey, theValue) -> {
+            if (theKey.startsWith(KEY_PREFIX) && !theValue.isEmpty()) {
+                final Set<Path> theDirectories = new HashSet<>();
+                for (final var theDirectory : theValue.split(SEPARATOR)) {
+                    theDirectories.add(Path.of(theDirectory));
+                }
+                theResult.completedDirectories.put(theKey.substring(KEY_PREFIX.length()), theDirectories);
+            }
+        });
+        return theResult;
+    }
+
+    public static boolean isCheckpointKey(final String commitDataKey) {
+        return commitDataKey.startsWith(KEY_PREFIX);
+    }
+
+    /**
+     * Directories which were completely processed by an interrupted crawl of the location.
+     */
+    public synchronized Set<Path> completedDirectories(final String locationId) {
+        return Set.copyOf(completedDirectories.getOrDefault(locationId, Set.of()));
+    }
+
+    public synchronized void directoryCompleted(final String locationId, final Path directory, final Collection<Path> completedSubdirectories) {
+        final var theDirectories = completedDirectories.computeIfAbsent(locationId, k -> new HashSet<>());
+        theDirectories.removeAll(completedSubdirectories);
+        theDirectories.add(directory);
+    }
+
+    public synchronized void crawlFinished(final String locationId) {
+        completedDirectories.remove(locationId);
+    }
+
+    /**
+     * The checkpoint as commit user data, one entry per location with a running crawl.
+     */
+    public synchronized Map<String, String> toCommitData() {
+        final Map<String, String> theResult = new HashMap<>();
+        completedDirectories.forEach((theLocationId, theDirectories) -> {
+            final Set<String> theSorted = new TreeSet<>();
+            theDirectories.forEach(theDirectory -> theSorted.add(theDirectory.toString()));
+            theResult.put(KEY_PREFIX + theLocationId, String.join(SEPARATOR, theSorted));
+        });
+        return theResult;
+    }
+}
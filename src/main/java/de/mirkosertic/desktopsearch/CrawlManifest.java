@@ -0,0 +1,376 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.MurmurHash3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Compact on-disk table of everything known to be in the index. The table maps the hash of a path
+ * to last modification date, size and content hash of the file and is memory-mapped, so checking
+ * if a file has changed does not need any index lookup.
+ * <p>
+ * Changes are only collected in memory until the index was committed. They are then written together
+ * with the generation of the Lucene commit. A manifest with a generation different from the one stored
+ * in the index is discarded when opened, so manifest and index never disagree after a crash.
+ */
+@Slf4j
+public class CrawlManifest implements Closeable {
+
+    public static final class Entry {
+        private final long lastModified;
+        private final long size;
+        private final long contentHash;
+
+        public Entry(final long lastModified, final long size, final long contentHash) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.contentHash = contentHash;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getContentHash() {
+            return contentHash;
+        }
+    }
+
+    private static final Entry REMOVED = new Entry(-1, -1, 0);
+
+    private static final long MAGIC = 0x46445343524d4e46L;
+    private static final int VERSION = 1;
+
+    // Header layout: magic, version, generation, capacity, size, used slots
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_VERSION = 8;
+    private static final int OFFSET_GENERATION = 16;
+    private static final int OFFSET_CAPACITY = 24;
+    private static final int OFFSET_SIZE = 32;
+    private static final int OFFSET_USED = 40;
+
+    // Slot layout: path hash, last modified, size, content hash
+    private static final int SLOT_SIZE = 32;
+
+    // Written while the table is rebuilt in place, so a crash leaves a manifest which is detected as outdated
+    private static final long INVALID_GENERATION = -1;
+
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final Map<Long, Entry> pendingChanges;
+    private final ReadWriteLock lock;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+    private int usedSlots;
+    private long generation;
+
+    private CrawlManifest() {
+        this.pendingChanges = new ConcurrentHashMap<>();
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Opens the manifest. If the manifest does not belong to the given index generation, it is reset.
+     */
+    public static CrawlManifest open(final Path file, final long expectedGeneration) throws IOException {
+        final var theManifest = new CrawlManifest();
+        if (Files.exists(file) && theManifest.map(file, expectedGeneration)) {
+            log.info("Using crawl manifest {} with {} entries", file, theManifest.size);
+            return theManifest;
+        }
+        log.info("Creating new crawl manifest {} for generation {}", file, expectedGeneration);
+        theManifest.create(file, INITIAL_CAPACITY, expectedGeneration);
+        return theManifest;
+    }
+
+    static long hash(final String path) {
+        final var theHash = MurmurHash3.hash128x64(path.getBytes(StandardCharsets.UTF_8))[0];
+        if (theHash == EMPTY || theHash == TOMBSTONE) {
+            return theHash + 1;
+        }
+        return theHash;
+    }
+
+    /**
+     * Maps an existing manifest. The header is checked before the file is mapped, a mapping cannot be
+     * released explicitly, and a mapped file cannot be truncated on Windows when the manifest is reset.
+     */
+    private boolean map(final Path file, final long expectedGeneration) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final var theHeader = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.read(theHeader, 0) < HEADER_SIZE) {
+            channel.close();
+            return false;
+        }
+        if (theHeader.getLong(0) != MAGIC || theHeader.getInt(OFFSET_VERSION) != VERSION) {
+            log.warn("Crawl manifest {} has an unknown format", file);
+            channel.close();
+            return false;
+        }
+        generation = theHeader.getLong(OFFSET_GENERATION);
+        capacity = theHeader.getInt(OFFSET_CAPACITY);
+        size = theHeader.getInt(OFFSET_SIZE);
+        usedSlots = theHeader.getInt(OFFSET_USED);
+        if (generation != expectedGeneration || channel.size() != HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+            log.warn("Crawl manifest {} is at generation {}, but the index at generation {}", file, generation, expectedGeneration);
+            channel.close();
+            return false;
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        return true;
+    }
+
+    private void create(final Path file, final int aCapacity, final long aGeneration) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) aCapacity * SLOT_SIZE);
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putLong(OFFSET_GENERATION, INVALID_GENERATION);
+        buffer.putInt(OFFSET_CAPACITY, aCapacity);
+        buffer.putInt(OFFSET_SIZE, 0);
+        buffer.putInt(OFFSET_USED, 0);
+        buffer.force();
+
+        buffer.putLong(OFFSET_GENERATION, aGeneration);
+        buffer.force();
+        capacity = aCapacity;
+        size = 0;
+        usedSlots = 0;
+        generation = aGeneration;
+    }
+
+    private int findSlot(final long pathHash) {
+        final var theMask = capacity - 1;
+        var theSlot = (int) (pathHash ^ (pathHash >>> 32)) & theMask;
+        while (true) {
+            final var theKey = buffer.getLong(HEADER_SIZE + theSlot * SLOT_SIZE);
+            if (theKey == pathHash || theKey == EMPTY) {
+                return theSlot;
+            }
+            theSlot = (theSlot + 1) & theMask;
+        }
+    }
+
+    private void put(final long pathHash, final Entry entry) {
+        final var theMask = capacity - 1;
+        var theSlot = (int) (pathHash ^ (pathHash >>> 32)) & theMask;
+        var theFreeSlot = -1;
+        while (true) {
+            final var theKey = buffer.getLong(HEADER_SIZE + theSlot * SLOT_SIZE);
+            if (theKey == pathHash) {
+                theFreeSlot = theSlot;
+                break;
+            }
+            if (theKey == TOMBSTONE && theFreeSlot < 0) {
+                theFreeSlot = theSlot;
+            }
+            if (theKey == EMPTY) {
+                if (theFreeSlot < 0) {
+                    theFreeSlot = theSlot;
+                }
+                break;
+            }
+            theSlot = (theSlot + 1) & theMask;
+        }
+        final var theOffset = HEADER_SIZE + theFreeSlot * SLOT_SIZE;
+        final var thePreviousKey = buffer.getLong(theOffset);
+        if (thePreviousKey == EMPTY) {
+            usedSlots++;
+            size++;
+        } else if (thePreviousKey == TOMBSTONE) {
+            size++;
+        }
+        buffer.putLong(theOffset, pathHash);
+        buffer.putLong(theOffset + 8, entry.lastModified);
+        buffer.putLong(theOffset + 16, entry.size);
+        buffer.putLong(theOffset + 24, entry.contentHash);
+    }
+
+    private void remove(final long pathHash) {
+        final var theOffset = HEADER_SIZE + findSlot(pathHash) * SLOT_SIZE;
+        if (buffer.getLong(theOffset) == pathHash) {
+            buffer.putLong(theOffset, TOMBSTONE);
+            size--;
+        }
+    }
+
+    private void ensureCapacity(final int additionalEntries) throws IOException {
+        if (usedSlots + additionalEntries <= capacity * 0.7) {
+            return;
+        }
+        var theNewCapacity = capacity;
+        while (size + additionalEntries > theNewCapacity * 0.35) {
+            theNewCapacity <<= 1;
+        }
+
+        // Rehash into a new table, this also gets rid of all tombstones
+        final Map<Long, Entry> theEntries = new HashMap<>();
+        for (var i = 0; i < capacity; i++) {
+            final var theOffset = HEADER_SIZE + i * SLOT_SIZE;
+            final var theKey = buffer.getLong(theOffset);
+            if (theKey != EMPTY && theKey != TOMBSTONE) {
+                theEntries.put(theKey, new Entry(buffer.getLong(theOffset + 8), buffer.getLong(theOffset + 16), buffer.getLong(theOffset + 24)));
+            }
+        }
+        log.info("Resizing crawl manifest from {} to {} slots", capacity, theNewCapacity);
+
+        // The file is grown in place, as a mapped file cannot be replaced on Windows. The table is invalid
+        // until the commit writes the new generation, so a crash in between leaves an outdated manifest.
+        buffer.putLong(OFFSET_GENERATION, INVALID_GENERATION);
+        buffer.force();
+        final var theOldCapacity = capacity;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) theNewCapacity * SLOT_SIZE);
+        for (var i = 0; i < theOldCapacity; i++) {
+            buffer.putLong(HEADER_SIZE + i * SLOT_SIZE, EMPTY);
+        }
+        buffer.putInt(OFFSET_CAPACITY, theNewCapacity);
+        capacity = theNewCapacity;
+        size = 0;
+        usedSlots = 0;
+        theEntries.forEach(this::put);
+    }
+
+    public long getGeneration() {
+        lock.readLock().lock();
+        try {
+            return generation;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the committed entry for a path, or null if the path is unknown or was changed since the last commit.
+     */
+    public Entry lookup(final String path) {
+        final var theHash = hash(path);
+        if (pendingChanges.containsKey(theHash)) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            final var theOffset = HEADER_SIZE + findSlot(theHash) * SLOT_SIZE;
+            if (buffer.getLong(theOffset) != theHash) {
+                return null;
+            }
+            return new Entry(buffer.getLong(theOffset + 8), buffer.getLong(theOffset + 16), buffer.getLong(theOffset + 24));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isUnchanged(final String path, final long lastModified, final long size) {
+        final var theEntry = lookup(path);
+        return theEntry != null && theEntry.lastModified == lastModified && theEntry.size == size;
+    }
+
+    /**
+     * Checks if the path was changed since the last commit, so the committed index may not show its latest state.
+     */
+    public boolean hasPendingChange(final String path) {
+        return pendingChanges.containsKey(hash(path));
+    }
+
+    public void recordUpdate(final String path, final long lastModified, final long size, final long contentHash) {
+        pendingChanges.put(hash(path), new Entry(lastModified, size, contentHash));
+    }
+
+    public void recordRemoval(final String path) {
+        pendingChanges.put(hash(path), REMOVED);
+    }
+
+    /**
+     * Takes a snapshot of all changes recorded so far. This must happen before the index is committed, so
+     * every change in the snapshot is guaranteed to be part of the commit.
+     */
+    public Map<Long, Entry> snapshotPendingChanges() {
+        return new HashMap<>(pendingChanges);
+    }
+
+    /**
+     * Writes a snapshot after the index was successfully committed with the given generation.
+     */
+    public void commit(final Map<Long, Entry> snapshot, final long newGeneration) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(snapshot.size());
+            for (final var theChange : snapshot.entrySet()) {
+                if (theChange.getValue() == REMOVED) {
+                    remove(theChange.getKey());
+                } else {
+                    put(theChange.getKey(), theChange.getValue());
+                }
+            }
+            buffer.putInt(OFFSET_SIZE, size);
+            buffer.putInt(OFFSET_USED, usedSlots);
+            buffer.force();
+
+            // The generation is written last, a crash before this point leaves a manifest that is detected as outdated
+            buffer.putLong(OFFSET_GENERATION, newGeneration);
+            buffer.force();
+            generation = newGeneration;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        snapshot.forEach(pendingChanges::remove);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -16,6 +16,10 @@ import java.util.List;
 
 public class DesktopSearchAnalyzer extends Analyzer {
 
+    // Bounds of the n-grams indexed for the _infix and _prefix fields
+    public static final int MIN_GRAM_SIZE = 2;
+    public static final int MAX_GRAM_SIZE = 10;
+
     private final boolean indexTime;
 
     public DesktopSearchAnalyzer() {
@@ -40,9 +44,9 @@ public class DesktopSearchAnalyzer extends Analyzer {
 
         if (indexTime) {
             if (fieldName.endsWith("_infix")) {
-                filter = new NGramTokenFilter(filter, 2, 10, true);
+                filter = new NGramTokenFilter(filter, MIN_GRAM_SIZE, MAX_GRAM_SIZE, true);
             } else if (fieldName.endsWith("_prefix")) {
-                filter = new EdgeNGramTokenFilter(filter, 2, 10, true);
+                filter = new EdgeNGramTokenFilter(filter, MIN_GRAM_SIZE, MAX_GRAM_SIZE, true);
             }
         }
 
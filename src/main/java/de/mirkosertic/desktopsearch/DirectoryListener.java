@@ -16,9 +16,16 @@
 package de.mirkosertic.desktopsearch;
 
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 public interface DirectoryListener {
     void fileDeleted(Configuration.CrawlLocation crawlLocation, Path deletedFile);
 
-    void fileCreatedOrModified(Configuration.CrawlLocation crawlLocation, Path createdOrModifiedFile);
+    void fileCreatedOrModified(Configuration.CrawlLocation crawlLocation, Path createdOrModifiedFile, BasicFileAttributes fileAttributes);
+
+    /**
+     * A file was found while crawling a location. It might or might not have changed. The
+     * callback is invoked as soon as the file was processed.
+     */
+    void fileFound(Configuration.CrawlLocation crawlLocation, Path foundFile, BasicFileAttributes fileAttributes, Runnable processed);
 }
\ No newline at end of file
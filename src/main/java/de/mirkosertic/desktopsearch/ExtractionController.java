@@ -0,0 +1,182 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the number of concurrent content extractions. The limit is adjusted AIMD style:
+ * it is raised by one as long as there is demand and the throughput does not suffer, and it
+ * is halved as soon as the heap runs full. Additionally, files are admitted against a memory
+ * budget based on an estimate of the heap needed to extract them.
+ */
+@Slf4j
+public class ExtractionController {
+
+    private static final long CONTROL_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final double HEAP_PRESSURE_THRESHOLD = 0.8;
+    private static final double THROUGHPUT_TOLERANCE = 0.9;
+    private static final double THROUGHPUT_DROP = 0.75;
+
+    // Parsers need some memory even for tiny files, and the extracted text is limited to 5M characters
+    private static final long MIN_ESTIMATED_BYTES = 1024 * 1024;
+    private static final long MAX_ESTIMATED_BYTES = 64 * 1024 * 1024;
+
+    private final int maxConcurrency;
+    private final long memoryBudget;
+    private final Statistics statistics;
+    private final LongSupplier clock;
+    private final DoubleSupplier heapUsage;
+    private final ReentrantLock lock;
+    private final Condition admitted;
+
+    private int limit;
+    private int inFlight;
+    private long inFlightBytes;
+    private boolean demand;
+    private boolean increased;
+
+    private long intervalStart;
+    private long intervalFiles;
+    private long intervalBytes;
+    private double lastFilesPerSecond;
+
+    public ExtractionController(final int maxConcurrency, final Statistics statistics) {
+        this(maxConcurrency, Runtime.getRuntime().maxMemory() / 4, statistics, System::nanoTime, ExtractionController::heapUsageAfterGC);
+    }
+
+    /**
+     * The clock returns nanoseconds, the heap usage is the share of the maximum heap in use after the last GC.
+     */
+    ExtractionController(final int maxConcurrency, final long memoryBudget, final Statistics statistics, final LongSupplier clock, final DoubleSupplier heapUsage) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.memoryBudget = memoryBudget;
+        this.statistics = statistics;
+        this.clock = clock;
+        this.heapUsage = heapUsage;
+        this.lock = new ReentrantLock();
+        this.admitted = lock.newCondition();
+        this.limit = Math.max(1, this.maxConcurrency / 2);
+        this.intervalStart = clock.getAsLong();
+        statistics.extractionLimitChanged(limit, "initial");
+    }
+
+    /**
+     * Rough estimate of the heap needed to extract a file. Some formats like PPTX
+     * expand a lot while being parsed, so this is a multiple of the file size.
+     */
+    static long estimateHeapBytes(final long fileSize) {
+        return Math.min(MAX_ESTIMATED_BYTES, Math.max(MIN_ESTIMATED_BYTES, fileSize * 4));
+    }
+
+    /**
+     * Waits until an extraction of a file with the given estimated heap usage is admitted. A
+     * file is always admitted if nothing else is extracted, so huge files cannot block forever.
+     */
+    public void acquire(final long estimatedBytes) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight > 0 && (inFlight >= limit || inFlightBytes + estimatedBytes > memoryBudget)) {
+                demand = true;
+                admitted.await();
+            }
+            inFlight++;
+            inFlightBytes += estimatedBytes;
+            statistics.extractionInFlight(inFlight, inFlightBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(final long estimatedBytes, final long processedBytes) {
+        lock.lock();
+        try {
+            inFlight--;
+            inFlightBytes -= estimatedBytes;
+            intervalFiles++;
+            intervalBytes += processedBytes;
+            statistics.extractionInFlight(inFlight, inFlightBytes);
+
+            final var theNow = clock.getAsLong();
+            if (theNow - intervalStart >= CONTROL_INTERVAL_NANOS) {
+                adjust(theNow);
+            }
+            admitted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust(final long now) {
+        final var theSeconds = (now - intervalStart) / 1_000_000_000d;
+        final var theFilesPerSecond = intervalFiles / theSeconds;
+        final var theBytesPerSecond = intervalBytes / theSeconds;
+        statistics.extractionThroughput(theFilesPerSecond, theBytesPerSecond);
+
+        final var theHeapUsage = heapUsage.getAsDouble();
+        final var theOldLimit = limit;
+        final String theReason;
+        if (theHeapUsage > HEAP_PRESSURE_THRESHOLD) {
+            limit = Math.max(1, limit / 2);
+            theReason = String.format("heap usage %.0f%%", theHeapUsage * 100);
+            increased = false;
+        } else if (increased && theFilesPerSecond < lastFilesPerSecond * THROUGHPUT_DROP) {
+            // The last increase made things worse, so take it back
+            limit = Math.max(1, limit - 1);
+            theReason = String.format("throughput dropped to %.1f files/s", theFilesPerSecond);
+            increased = false;
+        } else if (demand && limit < maxConcurrency && theFilesPerSecond >= lastFilesPerSecond * THROUGHPUT_TOLERANCE) {
+            limit++;
+            theReason = String.format("throughput %.1f files/s", theFilesPerSecond);
+            increased = true;
+        } else {
+            theReason = null;
+            increased = false;
+        }
+
+        if (theReason != null && limit != theOldLimit) {
+            log.info("Extraction concurrency changed from {} to {} due to {}", theOldLimit, limit, theReason);
+            statistics.extractionLimitChanged(limit, theReason);
+        }
+
+        lastFilesPerSecond = theFilesPerSecond;
+        intervalStart = now;
+        intervalFiles = 0;
+        intervalBytes = 0;
+        demand = false;
+    }
+
+    private static double heapUsageAfterGC() {
+        long theUsed = 0;
+        for (final var thePool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (thePool.getType() == MemoryType.HEAP && thePool.isCollectionUsageThresholdSupported()) {
+                final var theUsage = thePool.getCollectionUsage();
+                if (theUsage != null) {
+                    theUsed += theUsage.getUsed();
+                }
+            }
+        }
+        return (double) theUsed / Runtime.getRuntime().maxMemory();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+
+/**
+ * Entry point of a forked content extraction process, and the binary protocol used to talk to it.
+ *
+ * <p>The parent sends the serialized configuration once, the worker answers with a ready marker.
+ * After that, every request is a single file name, and every response is the extracted content
+ * or a failure marker. Standard output is reserved for the protocol, all logging goes to
+ * standard error. This class must not have a logger, as loggers have to be initialized after
+ * standard output was redirected.</p>
+ */
+public final class ExtractionWorker {
+
+    static final int READY = 0x46445357;
+
+    private static final byte RESULT_FAILED = 0;
+    private static final byte RESULT_CONTENT = 1;
+
+    private static final byte VALUE_STRING = 0;
+    private static final byte VALUE_DATE = 1;
+
+    private ExtractionWorker() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final var theOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        final var theIn = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        System.setOut(System.err);
+
+        final var theConfiguration = new ObjectMapper().readValue(readBytes(theIn), Configuration.class);
+        final var theExtractor = new ContentExtractor(theConfiguration);
+        theOut.writeInt(READY);
+        theOut.flush();
+
+        while (true) {
+            final String theFileName;
+            try {
+                theFileName = theIn.readUTF();
+            } catch (final EOFException e) {
+                // Parent process closed the connection
+                return;
+            }
+
+            Content theContent = null;
+            try {
+                final var thePath = Path.of(theFileName);
+                theContent = theExtractor.extractContentFrom(thePath, Files.readAttributes(thePath, BasicFileAttributes.class));
+            } catch (final Exception e) {
+                System.err.println("Error extracting content of " + theFileName + " : " + e);
+            }
+            writeContent(theOut, theContent);
+            theOut.flush();
+        }
+    }
+
+    static void writeConfiguration(final DataOutputStream out, final Configuration configuration) throws IOException {
+        writeBytes(out, new ObjectMapper().writeValueAsBytes(configuration));
+    }
+
+    static void writeRequest(final DataOutputStream out, final Path file) throws IOException {
+        out.writeUTF(file.toString());
+    }
+
+    private static void writeContent(final DataOutputStream out, final Content content) throws IOException {
+        if (content == null) {
+            out.writeByte(RESULT_FAILED);
+            return;
+        }
+        out.writeByte(RESULT_CONTENT);
+        writeString(out, content.getFileContent());
+        out.writeUTF(content.getLanguage().name());
+        out.writeUTF(content.getRawHash() != null ? content.getRawHash() : "");
+        final var theMetaData = content.getMetadata()
+                .filter(e -> e.value instanceof String || e.value instanceof Date)
+                .toList();
+        out.writeInt(theMetaData.size());
+        for (final var theEntry : theMetaData) {
+            writeString(out, theEntry.key);
+            if (theEntry.value instanceof Date) {
+                out.writeByte(VALUE_DATE);
+                out.writeLong(((Date) theEntry.value).getTime());
+            } else {
+                out.writeByte(VALUE_STRING);
+                writeString(out, (String) theEntry.value);
+            }
+        }
+    }
+
+    /**
+     * Reads the response to a request. File name, size and modification time are taken from
+     * the parent, so the result is the same as for an extraction in the parent process. The
+     * hash is computed by the worker while it reads the file.
+     */
+    static Content readContent(final DataInputStream in, final Path file, final BasicFileAttributes fileAttributes) throws IOException {
+        if (in.readByte() == RESULT_FAILED) {
+            return null;
+        }
+        final var theText = readString(in);
+        final var theLanguage = SupportedLanguage.valueOf(in.readUTF());
+        final var theRawHash = in.readUTF();
+        final var theContent = new Content(file.toString(), theText, fileAttributes.size(), fileAttributes.lastModifiedTime().toMillis(), theLanguage,
+                theRawHash.isEmpty() ? null : theRawHash);
+        final var theCount = in.readInt();
+        for (var i = 0; i < theCount; i++) {
+            final var theKey = readString(in);
+            if (in.readByte() == VALUE_DATE) {
+                theContent.addMetaData(theKey, new Date(in.readLong()));
+            } else {
+                theContent.addMetaData(theKey, readString(in));
+            }
+        }
+        return theContent;
+    }
+
+    // writeUTF is limited to 64k, so longer texts are written as length prefixed UTF-8
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final var theData = new byte[in.readInt()];
+        in.readFully(theData);
+        return theData;
+    }
+}
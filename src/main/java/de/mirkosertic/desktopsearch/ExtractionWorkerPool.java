@@ -0,0 +1,209 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.SystemUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs content extraction in forked JVMs. A document which hangs the parser or exhausts the
+ * heap only kills its worker process, which is then restarted on demand. Workers are also
+ * restarted after a configured number of documents to get rid of leaked memory.
+ */
+@Slf4j
+public class ExtractionWorkerPool {
+
+    private class WorkerProcess {
+
+        private final int number;
+        private Process process;
+        private DataOutputStream out;
+        private DataInputStream in;
+        private int documents;
+
+        private WorkerProcess(final int number) {
+            this.number = number;
+        }
+
+        private void ensureStarted() throws IOException {
+            if (process != null && process.isAlive()) {
+                return;
+            }
+            stop();
+
+            log.info("Starting extraction worker {}", number);
+            final var theBuilder = new ProcessBuilder(javaExecutable.toString(),
+                    "-Xmx" + heapSizeMB + "m",
+                    "-XX:+UseSerialGC",
+                    "-XX:+ExitOnOutOfMemoryError",
+                    "-Djava.awt.headless=true",
+                    "-cp", System.getProperty("java.class.path"),
+                    ExtractionWorker.class.getName());
+            theBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = theBuilder.start();
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            documents = 0;
+
+            ExtractionWorker.writeConfiguration(out, configuration);
+            out.flush();
+            // Loading the language models takes a while, so startup gets its own time budget
+            withTimeout(STARTUP_TIMEOUT_SECONDS, () -> {
+                if (in.readInt() != ExtractionWorker.READY) {
+                    throw new IOException("Unexpected answer from extraction worker " + number);
+                }
+                return null;
+            });
+        }
+
+        private Content extract(final Path file, final BasicFileAttributes fileAttributes) throws IOException {
+            ensureStarted();
+            documents++;
+            ExtractionWorker.writeRequest(out, file);
+            out.flush();
+            return withTimeout(timeoutSeconds, () -> ExtractionWorker.readContent(in, file, fileAttributes));
+        }
+
+        private <T> T withTimeout(final int seconds, final IOCallable<T> callable) throws IOException {
+            final var theProcess = process;
+            final var theTimedOut = new AtomicBoolean();
+            final var theWatchdog = watchdog.schedule(() -> {
+                theTimedOut.set(true);
+                theProcess.destroyForcibly();
+            }, seconds, TimeUnit.SECONDS);
+            try {
+                return callable.call();
+            } catch (final IOException e) {
+                stop();
+                if (theTimedOut.get()) {
+                    throw new IOException("Extraction worker " + number + " timed out after " + seconds + " seconds", e);
+                }
+                throw new IOException("Extraction worker " + number + " terminated", e);
+            } finally {
+                theWatchdog.cancel(false);
+            }
+        }
+
+        private void stop() {
+            if (process != null) {
+                log.info("Stopping extraction worker {}", number);
+                try {
+                    out.close();
+                } catch (final IOException e) {
+                    // Process might already be dead
+                }
+                process.destroyForcibly();
+                process = null;
+            }
+        }
+    }
+
+    private interface IOCallable<T> {
+        T call() throws IOException;
+    }
+
+    private static final int STARTUP_TIMEOUT_SECONDS = 120;
+
+    private final Configuration configuration;
+    private final Path javaExecutable;
+    private final int timeoutSeconds;
+    private final int heapSizeMB;
+    private final int maxDocumentsPerProcess;
+    private final BlockingQueue<WorkerProcess> idleWorkers;
+    private final List<WorkerProcess> workers;
+    private final ScheduledExecutorService watchdog;
+
+    private ExtractionWorkerPool(final Configuration configuration, final Path javaExecutable) {
+        this.configuration = configuration;
+        this.javaExecutable = javaExecutable;
+        this.timeoutSeconds = Math.max(1, configuration.getExtractionTimeoutSeconds());
+        this.heapSizeMB = Math.max(64, configuration.getExtractionProcessHeapMB());
+        this.maxDocumentsPerProcess = Math.max(1, configuration.getExtractionProcessMaxDocuments());
+        this.idleWorkers = new ArrayBlockingQueue<>(configuration.getNumberOfExtractionProcesses());
+        this.workers = new ArrayList<>();
+        for (var i = 0; i < configuration.getNumberOfExtractionProcesses(); i++) {
+            final var theWorker = new WorkerProcess(i);
+            workers.add(theWorker);
+            idleWorkers.add(theWorker);
+        }
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("Extraction-Watchdog").daemon(true).factory());
+    }
+
+    /**
+     * Creates a pool if extraction processes are enabled by the configuration and a Java
+     * executable is available. Returns null otherwise, so content is extracted in process.
+     */
+    public static ExtractionWorkerPool create(final Configuration configuration) {
+        if (configuration.getNumberOfExtractionProcesses() <= 0) {
+            return null;
+        }
+        final var theJavaExecutable = Path.of(System.getProperty("java.home"), "bin", SystemUtils.IS_OS_WINDOWS ? "java.exe" : "java");
+        if (!Files.isExecutable(theJavaExecutable)) {
+            log.warn("No Java executable found at {}, extracting content in process", theJavaExecutable);
+            return null;
+        }
+        return new ExtractionWorkerPool(configuration, theJavaExecutable);
+    }
+
+    /**
+     * Extracts the content of a file using the next idle worker process. Returns null if the
+     * extraction failed, timed out or the worker process died.
+     */
+    public Content extractContentFrom(final Path file, final BasicFileAttributes fileAttributes) throws InterruptedException {
+        final var theWorker = idleWorkers.take();
+        try {
+            return theWorker.extract(file, fileAttributes);
+        } catch (final IOException e) {
+            log.error("Error extracting content of {}", file, e);
+            return null;
+        } finally {
+            if (theWorker.documents >= maxDocumentsPerProcess) {
+                theWorker.stop();
+            }
+            idleWorkers.add(theWorker);
+        }
+    }
+
+    /**
+     * Stops all idle worker processes. They are started again on demand. Worker processes
+     * also terminate as soon as this process exits, as their input is closed then.
+     */
+    public void stopWorkers() {
+        for (final var theWorker : workers) {
+            if (idleWorkers.remove(theWorker)) {
+                theWorker.stop();
+                idleWorkers.add(theWorker);
+            }
+        }
+    }
+}
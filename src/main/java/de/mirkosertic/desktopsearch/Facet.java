@@ -20,11 +20,13 @@ public class Facet {
     private final String name;
     private final long number;
     private final String link;
+    private final boolean selected;
 
-    public Facet(final String name, final long number, final String link) {
+    public Facet(final String name, final long number, final String link, final boolean selected) {
         this.name = name;
         this.number = number;
         this.link = link;
+        this.selected = selected;
     }
 
     public String getName() {
@@ -38,4 +40,8 @@ public class Facet {
     public String getLink() {
         return link;
     }
+
+    public boolean isSelected() {
+        return selected;
+    }
 }
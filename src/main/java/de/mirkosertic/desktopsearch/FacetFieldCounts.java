@@ -0,0 +1,192 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LongValues;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Counts the values of several facet fields in a single pass over the hits. Every field is a
+ * flat dimension whose children are the values of the field. A field which is drilled down is
+ * counted on its drill sideways hits instead, so its other values keep their counts and can
+ * be added to the selection.
+ */
+public class FacetFieldCounts extends Facets {
+
+    private final Map<String, SortedSetDocValuesReaderState> states;
+    private final Map<String, int[]> counts;
+
+    public FacetFieldCounts(final Map<String, SortedSetDocValuesReaderState> states, final FacetsCollector hits,
+            final String[] sidewaysFields, final FacetsCollector[] sidewaysHits) throws IOException {
+        this.states = states;
+        this.counts = new HashMap<>();
+        final List<String> theFields = new ArrayList<>(states.keySet());
+        if (sidewaysFields != null) {
+            for (var i = 0; i < sidewaysFields.length; i++) {
+                if (theFields.remove(sidewaysFields[i])) {
+                    count(List.of(sidewaysFields[i]), sidewaysHits[i]);
+                }
+            }
+        }
+        count(theFields, hits);
+    }
+
+    private void count(final List<String> fields, final FacetsCollector hits) throws IOException {
+        final var theFieldCount = fields.size();
+        if (theFieldCount == 0) {
+            return;
+        }
+        final var theCounts = new int[theFieldCount][];
+        final var theOrdinalMaps = new OrdinalMap[theFieldCount];
+        for (var i = 0; i < theFieldCount; i++) {
+            final var theState = states.get(fields.get(i));
+            theCounts[i] = new int[theState.getSize()];
+            counts.put(fields.get(i), theCounts[i]);
+            // A reader with a single segment needs no mapping to global ordinals
+            if (theState.getDocValues() instanceof final MultiDocValues.MultiSortedSetDocValues theMultiValues) {
+                theOrdinalMaps[i] = theMultiValues.mapping;
+            }
+        }
+
+        final var theSegmentValues = new SortedSetDocValues[theFieldCount];
+        final var theGlobalOrds = new LongValues[theFieldCount];
+        for (final var theMatchingDocs : hits.getMatchingDocs()) {
+            if (theMatchingDocs.totalHits() == 0) {
+                continue;
+            }
+            final var theContext = theMatchingDocs.context();
+            for (var i = 0; i < theFieldCount; i++) {
+                theSegmentValues[i] = theContext.reader().getSortedSetDocValues(fields.get(i));
+                theGlobalOrds[i] = theOrdinalMaps[i] != null ? theOrdinalMaps[i].getGlobalOrds(theContext.ord) : LongValues.IDENTITY;
+            }
+            final var theDocs = theMatchingDocs.bits().iterator();
+            if (theDocs == null) {
+                continue;
+            }
+            for (var theDoc = theDocs.nextDoc(); theDoc != DocIdSetIterator.NO_MORE_DOCS; theDoc = theDocs.nextDoc()) {
+                for (var i = 0; i < theFieldCount; i++) {
+                    final var theValues = theSegmentValues[i];
+                    if (theValues != null && theValues.advanceExact(theDoc)) {
+                        for (var j = 0; j < theValues.docValueCount(); j++) {
+                            theCounts[i][(int) theGlobalOrds[i].get(theValues.nextOrd())]++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public FacetResult getTopChildren(final int topN, final String dim, final String... path) throws IOException {
+        validateTopN(topN);
+        final var theCounts = countsOf(dim, path);
+        if (theCounts == null) {
+            return null;
+        }
+        // Least frequent value on top, so it is replaced first
+        final var theQueue = new PriorityQueue<Integer>(Comparator.<Integer>comparingInt(theOrd -> theCounts[theOrd])
+                .thenComparing(Comparator.reverseOrder()));
+        var theTotal = 0;
+        var theChildCount = 0;
+        for (var theOrd = 0; theOrd < theCounts.length; theOrd++) {
+            if (theCounts[theOrd] > 0) {
+                theTotal += theCounts[theOrd];
+                theChildCount++;
+                theQueue.add(theOrd);
+                if (theQueue.size() > topN) {
+                    theQueue.poll();
+                }
+            }
+        }
+        final var theValues = states.get(dim).getDocValues();
+        final var theLabels = new LabelAndValue[theQueue.size()];
+        for (var i = theLabels.length - 1; i >= 0; i--) {
+            final int theOrd = theQueue.poll();
+            theLabels[i] = new LabelAndValue(theValues.lookupOrd(theOrd).utf8ToString(), theCounts[theOrd]);
+        }
+        return new FacetResult(dim, path, theTotal, theLabels, theChildCount);
+    }
+
+    @Override
+    public FacetResult getAllChildren(final String dim, final String... path) throws IOException {
+        final var theCounts = countsOf(dim, path);
+        if (theCounts == null) {
+            return null;
+        }
+        final var theValues = states.get(dim).getDocValues();
+        final List<LabelAndValue> theLabels = new ArrayList<>();
+        var theTotal = 0;
+        for (var theOrd = 0; theOrd < theCounts.length; theOrd++) {
+            if (theCounts[theOrd] > 0) {
+                theTotal += theCounts[theOrd];
+                theLabels.add(new LabelAndValue(theValues.lookupOrd(theOrd).utf8ToString(), theCounts[theOrd]));
+            }
+        }
+        return new FacetResult(dim, path, theTotal, theLabels.toArray(new LabelAndValue[0]), theLabels.size());
+    }
+
+    @Override
+    public Number getSpecificValue(final String dim, final String... path) throws IOException {
+        if (path.length != 1) {
+            throw new IllegalArgumentException("Path must be the value of the field");
+        }
+        final var theCounts = counts.get(dim);
+        if (theCounts == null) {
+            return -1;
+        }
+        final var theOrd = states.get(dim).getDocValues().lookupTerm(new BytesRef(path[0]));
+        return theOrd >= 0 ? theCounts[(int) theOrd] : -1;
+    }
+
+    @Override
+    public List<FacetResult> getAllDims(final int topN) throws IOException {
+        final List<FacetResult> theResults = new ArrayList<>();
+        for (final var theField : counts.keySet()) {
+            final var theResult = getTopChildren(topN, theField);
+            if (theResult != null && theResult.childCount > 0) {
+                theResults.add(theResult);
+            }
+        }
+        // Most frequent dimensions first, like the facet counts of Lucene
+        theResults.sort(Comparator.comparingInt((FacetResult theResult) -> -theResult.value.intValue())
+                .thenComparing(theResult -> theResult.dim));
+        return theResults;
+    }
+
+    private int[] countsOf(final String dim, final String... path) {
+        if (path.length > 0) {
+            throw new IllegalArgumentException("Facet fields are flat, there are no children below a value");
+        }
+        return counts.get(dim);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Manages near real time searchers over several index writers. Every writer has its own reader,
+ * and a searcher combines them with a {@link MultiReader}. On refresh, only the readers of
+ * changed indexes are reopened. Searchers are reference counted like the ones of a
+ * {@link org.apache.lucene.search.SearcherManager}.
+ */
+public class FederatedSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    private final List<IndexWriter> writers;
+    private final SearcherFactory searcherFactory;
+    // The manager holds one reference of every current reader, every multi reader holds another one
+    private DirectoryReader[] readers;
+
+    public FederatedSearcherManager(final List<IndexWriter> writers, final SearcherFactory searcherFactory) throws IOException {
+        this.writers = List.copyOf(writers);
+        this.searcherFactory = searcherFactory;
+        this.readers = new DirectoryReader[this.writers.size()];
+        try {
+            for (var i = 0; i < readers.length; i++) {
+                readers[i] = DirectoryReader.open(this.writers.get(i));
+            }
+            current = newSearcher(readers, null);
+        } catch (final IOException | RuntimeException e) {
+            decRefAll(readers);
+            throw e;
+        }
+    }
+
+    private IndexSearcher newSearcher(final DirectoryReader[] subReaders, final IndexReader previousReader) throws IOException {
+        // The multi reader increments the references of the sub readers, and releases them when closed.
+        // If the searcher cannot be created, it is closed right away.
+        return SearcherManager.getSearcher(searcherFactory, new MultiReader(subReaders, false), previousReader);
+    }
+
+    private static void decRefAll(final DirectoryReader[] readers) throws IOException {
+        for (final var theReader : readers) {
+            if (theReader != null) {
+                theReader.decRef();
+            }
+        }
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(final IndexSearcher referenceToRefresh) throws IOException {
+        final var theNewReaders = new DirectoryReader[readers.length];
+        var theChanged = false;
+        try {
+            for (var i = 0; i < readers.length; i++) {
+                final var theReopened = DirectoryReader.openIfChanged(readers[i]);
+                if (theReopened != null) {
+                    theNewReaders[i] = theReopened;
+                    theChanged = true;
+                }
+            }
+            if (!theChanged) {
+                return null;
+            }
+            for (var i = 0; i < readers.length; i++) {
+                if (theNewReaders[i] == null) {
+                    theNewReaders[i] = readers[i];
+                    readers[i].incRef();
+                }
+            }
+            final var theSearcher = newSearcher(theNewReaders, referenceToRefresh.getIndexReader());
+            decRefAll(readers);
+            readers = theNewReaders;
+            return theSearcher;
+        } catch (final IOException | RuntimeException e) {
+            decRefAll(theNewReaders);
+            throw e;
+        }
+    }
+
+    @Override
+    protected boolean tryIncRef(final IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected void decRef(final IndexSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected int getRefCount(final IndexSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+
+    @Override
+    protected void afterClose() throws IOException {
+        decRefAll(readers);
+    }
+}
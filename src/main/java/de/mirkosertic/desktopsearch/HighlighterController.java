@@ -20,7 +20,7 @@ public class HighlighterController {
     }
 
     @GetMapping("/highlight")
-    public ModelAndView highlight(final HttpServletResponse response, @RequestParam final String query, @RequestParam final int docId) {
+    public ModelAndView highlight(final HttpServletResponse response, @RequestParam final String query, @RequestParam final String file) {
 
         response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().mustRevalidate().getHeaderValue());
         response.setHeader(HttpHeaders.PRAGMA, "no-cache");
@@ -28,8 +28,8 @@ public class HighlighterController {
 
         final ModelAndView result = new ModelAndView("highlight.html");
         result.addObject("query", query);
-        result.addObject("docId", docId);
-        result.addObject("highlight", backend.highlightMatch(query, docId));
+        result.addObject("file", file);
+        result.addObject("highlight", backend.highlightMatch(query, file));
         return result;
     }
 }
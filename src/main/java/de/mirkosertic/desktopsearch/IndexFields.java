@@ -20,10 +20,24 @@ public interface IndexFields {
     String UNIQUEID = "id";
     String LANGUAGE = "language";
     String CONTENT = "content";
+    // Edge n-grams of the content, analyzed by the DesktopSearchAnalyzer
+    String CONTENT_PREFIX = "content_prefix";
     String CONTENTMD5 = "contentmd5";
+    String RAWHASH = "rawhash";
     String FILESIZE = "filesize";
     String LASTMODIFIED = "lastmodified";
     String LOCATIONID = "locationid";
 
+    // Doc values only, used for fast modification checks
+    String FILESIZE_DV = "filesize_dv";
+    String LASTMODIFIED_DV = "lastmodified_dv";
+
     String EXTENSION = "extension";
+
+    // Metadata with dates and numbers, indexed as points with doc values
+    String DATE_PREFIX = "date_";
+    String NUMBER_PREFIX = "number_";
+
+    // All other metadata as key=value, indexed and stored in a single field
+    String META = "meta";
 }
\ No newline at end of file
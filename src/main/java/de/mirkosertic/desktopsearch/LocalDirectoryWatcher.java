@@ -21,43 +21,48 @@ import io.methvin.watcher.hashing.FileHasher;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class LocalDirectoryWatcher {
 
     public static final int DEFAULT_WAIT_FOR_ACTION = 5;
 
-    private static class ActionTimer {
+    private static class PendingAction {
 
-        private DirectoryChangeEvent.EventType eventType;
-        private int waitForAction;
+        private final Path path;
+        private final DirectoryChangeEvent.EventType eventType;
 
-        public ActionTimer(final DirectoryChangeEvent.EventType aKind, final int aWaitForAction) {
+        public PendingAction(final Path aPath, final DirectoryChangeEvent.EventType aKind) {
+            path = aPath;
             eventType = aKind;
-            waitForAction = aWaitForAction;
-        }
-
-        public void reset(final DirectoryChangeEvent.EventType aKind, final int aWaitForAction) {
-            eventType = aKind;
-            waitForAction = aWaitForAction;
-        }
-
-        public boolean runOneCycle() {
-            return (--waitForAction <= 0);
         }
     }
 
     private final Thread monitorThread;
-    private final Map<Path, ActionTimer> fileTimers;
+    private final Thread dispatcherThread;
+    private final TimingWheel<Path, DirectoryChangeEvent.EventType> fileTimers;
+    private final BlockingQueue<PendingAction> pendingActions;
     private final int waitForAction;
     private final Timer actionTimer;
     private final DirectoryListener directoryListener;
@@ -66,7 +71,8 @@ public class LocalDirectoryWatcher {
     private CompletableFuture<Void> watcherFuture;
 
     public LocalDirectoryWatcher(final Configuration.CrawlLocation crawlLocation, final int waitForAction, final DirectoryListener directoryListener) throws IOException {
-        this.fileTimers = new HashMap<>();
+        this.fileTimers = new TimingWheel<>(waitForAction + 1);
+        this.pendingActions = new LinkedBlockingQueue<>();
         this.waitForAction = waitForAction;
         this.directoryListener = directoryListener;
         this.filesystemLocation = crawlLocation;
@@ -84,11 +90,10 @@ public class LocalDirectoryWatcher {
             public void run() {
                 while (!isInterrupted()) {
                     try {
-                        synchronized (fileTimers) {
-                            final var size = fileTimers.size();
-                            if (size > 0) {
-                                log.info("Currently {} files in index queue...", size);
-                            }
+                        final var size = fileTimers.size();
+                        final var pending = pendingActions.size();
+                        if (size > 0 || pending > 0) {
+                            log.info("Currently {} files waiting for changes to settle, {} files waiting for dispatch...", size, pending);
                         }
                         Thread.sleep(1000);
                     } catch (final InterruptedException e) {
@@ -98,41 +103,59 @@ public class LocalDirectoryWatcher {
             }
         };
 
+        // Expired timers are dispatched to the listener by a dedicated thread.
+        // The listener might block for a long time due to backpressure of the
+        // indexing pipeline, but this must never stall the intake of new events
+        this.dispatcherThread = new Thread("Index-Dispatcher") {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    try {
+                        dispatch(pendingActions.take());
+                    } catch (final InterruptedException e) {
+                        log.debug("Dispatching interrupted", e);
+                        break;
+                    } catch (final Exception e) {
+                        log.error("Error dispatching file event", e);
+                    }
+                }
+            }
+        };
+
         this.actionTimer = new Timer();
     }
 
     private void publishActionFor(final Path filePath, final DirectoryChangeEvent.EventType eventType ) {
         log.debug("Got event {} for path {}", eventType, filePath);
-        synchronized (fileTimers) {
-            final var theTimer = fileTimers.get(filePath);
-            if (theTimer == null) {
-                fileTimers.put(filePath, new ActionTimer(eventType, waitForAction));
-            } else {
-                theTimer.reset(eventType, waitForAction);
-            }
-        }
+        fileTimers.schedule(filePath, eventType, waitForAction);
     }
 
     private void actionCountDown() {
-        synchronized (fileTimers) {
-            final Set<Path> theKeysToRemove = new HashSet<>();
-            fileTimers.entrySet().stream().forEach(theEntry -> {
-                if (theEntry.getValue().runOneCycle()) {
-                    theKeysToRemove.add(theEntry.getKey());
-                    if (!Files.isDirectory(theEntry.getKey())) {
-                        if (theEntry.getValue().eventType == DirectoryChangeEvent.EventType.CREATE) {
-                            directoryListener.fileCreatedOrModified(filesystemLocation, theEntry.getKey());
-                        }
-                        if (theEntry.getValue().eventType == DirectoryChangeEvent.EventType.DELETE) {
-                            directoryListener.fileDeleted(filesystemLocation, theEntry.getKey());
-                        }
-                        if (theEntry.getValue().eventType == DirectoryChangeEvent.EventType.MODIFY) {
-                            directoryListener.fileCreatedOrModified(filesystemLocation, theEntry.getKey());
-                        }
-                    }
-                }
-            });
-            theKeysToRemove.forEach(fileTimers::remove);
+        final List<PendingAction> theExpiredActions = new ArrayList<>();
+        fileTimers.advance((thePath, theEventType) -> theExpiredActions.add(new PendingAction(thePath, theEventType)));
+        // Handing over happens outside of the lock, so publishing new events is never blocked
+        pendingActions.addAll(theExpiredActions);
+    }
+
+    private void dispatch(final PendingAction action) {
+        if (action.eventType == DirectoryChangeEvent.EventType.DELETE) {
+            if (!Files.isDirectory(action.path)) {
+                directoryListener.fileDeleted(filesystemLocation, action.path);
+            }
+            return;
+        }
+        if (action.eventType == DirectoryChangeEvent.EventType.CREATE || action.eventType == DirectoryChangeEvent.EventType.MODIFY) {
+            // The attributes are read once here and handed over to the listener
+            final BasicFileAttributes theAttributes;
+            try {
+                theAttributes = Files.readAttributes(action.path, BasicFileAttributes.class);
+            } catch (final IOException e) {
+                log.debug("File {} vanished before it could be processed", action.path);
+                return;
+            }
+            if (!theAttributes.isDirectory()) {
+                directoryListener.fileCreatedOrModified(filesystemLocation, action.path, theAttributes);
+            }
         }
     }
 
@@ -141,6 +164,7 @@ public class LocalDirectoryWatcher {
         watcherFuture = directoryWatcher.watchAsync();
 
         monitorThread.start();
+        dispatcherThread.start();
         actionTimer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
@@ -154,6 +178,7 @@ public class LocalDirectoryWatcher {
     public void stopWatching() {
         actionTimer.cancel();
         monitorThread.interrupt();
+        dispatcherThread.interrupt();
         if (directoryWatcher != null) {
             try {
                 watcherFuture.cancel(true);
@@ -167,14 +192,183 @@ public class LocalDirectoryWatcher {
         }
     }
 
-    public void crawl() throws IOException {
+    /**
+     * Tracks the files and subdirectories of a crawled directory which are not processed yet.
+     * The listing of the directory itself counts as one task.
+     */
+    private class DirectoryProgress {
 
-        final var thePath = filesystemLocation.getDirectory().toPath();
-        log.info("Crawling {}", thePath);
-        Files.walk(thePath).forEach(aPath -> {
-            if (!Files.isDirectory(aPath)) {
-                publishActionFor(aPath, DirectoryChangeEvent.EventType.MODIFY);
+        private final Path directory;
+        private final DirectoryProgress parent;
+        private final CrawlCheckpoint checkpoint;
+        private final AtomicInteger pendingTasks;
+        private final List<Path> completedSubdirectories;
+        private final CompletableFuture<Void> completed;
+
+        private DirectoryProgress(final Path directory, final DirectoryProgress parent, final CrawlCheckpoint checkpoint) {
+            this.directory = directory;
+            this.parent = parent;
+            this.checkpoint = checkpoint;
+            this.pendingTasks = new AtomicInteger(1);
+            this.completedSubdirectories = Collections.synchronizedList(new ArrayList<>());
+            this.completed = new CompletableFuture<>();
+            if (parent != null) {
+                parent.taskStarted();
+            }
+        }
+
+        private void taskStarted() {
+            pendingTasks.incrementAndGet();
+        }
+
+        private void taskFinished() {
+            if (pendingTasks.decrementAndGet() == 0) {
+                final var theLocationId = filesystemLocation.getId();
+                if (parent != null) {
+                    checkpoint.directoryCompleted(theLocationId, directory, completedSubdirectories);
+                    parent.subdirectoryCompleted(directory);
+                } else {
+                    log.info("Crawl of {} completed", directory);
+                    checkpoint.crawlFinished(theLocationId);
+                }
+                completed.complete(null);
             }
-        });
+        }
+
+        private void subdirectoryCompleted(final Path subdirectory) {
+            completedSubdirectories.add(subdirectory);
+            taskFinished();
+        }
+    }
+
+    /**
+     * Directories are crawled in parallel, each one by its own virtual thread. The number of
+     * directories listed at the same time is limited, as too many concurrent requests only slow
+     * down network shares and spinning disks.
+     */
+    private class Traversal {
+
+        private final Set<Path> completedDirectories;
+        private final Semaphore permits;
+        private final ExecutorService executor;
+        private final AtomicInteger activeDirectories;
+        private final CountDownLatch finished;
+
+        private Traversal(final Set<Path> completedDirectories, final int parallelism) {
+            this.completedDirectories = completedDirectories;
+            this.permits = new Semaphore(Math.max(1, parallelism));
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Index-Crawl-", 0).factory());
+            this.activeDirectories = new AtomicInteger();
+            this.finished = new CountDownLatch(1);
+        }
+
+        private void submit(final DirectoryProgress progress) {
+            activeDirectories.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    crawl(progress);
+                } finally {
+                    if (activeDirectories.decrementAndGet() == 0) {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+
+        private void await() throws InterruptedException {
+            try {
+                finished.await();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        private void crawl(final DirectoryProgress progress) {
+            try {
+                permits.acquire();
+            } catch (final InterruptedException e) {
+                // The directory stays incomplete, so it is crawled again on resume
+                return;
+            }
+            try {
+                final List<Path> theSubdirectories = new ArrayList<>();
+                final Map<Path, BasicFileAttributes> theFiles = new LinkedHashMap<>();
+
+                // With a depth of one, all entries including subdirectories are passed to visitFile,
+                // together with the attributes the walker had to read anyway
+                Files.walkFileTree(progress.directory, Set.of(), 1, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                        if (attributes.isDirectory()) {
+                            theSubdirectories.add(file);
+                        } else if (attributes.isSymbolicLink()) {
+                            // Links to files are indexed, links to directories are not followed
+                            try {
+                                final var theTargetAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+                                if (!theTargetAttributes.isDirectory()) {
+                                    theFiles.put(file, theTargetAttributes);
+                                }
+                            } catch (final IOException e) {
+                                log.debug("Cannot resolve link {}", file);
+                            }
+                        } else {
+                            theFiles.put(file, attributes);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                        log.warn("Error crawling {}", file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+                for (final var theSubdirectory : theSubdirectories) {
+                    if (completedDirectories.contains(theSubdirectory)) {
+                        log.debug("Skipping completed directory {}", theSubdirectory);
+                        progress.completedSubdirectories.add(theSubdirectory);
+                    } else {
+                        submit(new DirectoryProgress(theSubdirectory, progress, progress.checkpoint));
+                    }
+                }
+
+                // Reporting might block due to backpressure of the indexing pipeline,
+                // so the traversal does not run ahead of the indexing too far
+                theFiles.forEach((theFile, theAttributes) -> {
+                    progress.taskStarted();
+                    directoryListener.fileFound(filesystemLocation, theFile, theAttributes, progress::taskFinished);
+                });
+            } catch (final IOException e) {
+                log.warn("Error crawling directory {}", progress.directory, e);
+            } finally {
+                permits.release();
+                progress.taskFinished();
+            }
+        }
+    }
+
+    /**
+     * Crawls the location and reports all files found. Returns once the directories are listed,
+     * the returned future completes once every reported file is processed. It never completes if
+     * the crawl was interrupted.
+     */
+    public CompletableFuture<Void> crawl(final CrawlCheckpoint checkpoint, final int parallelism) throws InterruptedException {
+
+        final var thePath = filesystemLocation.getDirectory().toPath();
+        final var theCompletedDirectories = checkpoint.completedDirectories(filesystemLocation.getId());
+        if (theCompletedDirectories.isEmpty()) {
+            log.info("Crawling {}", thePath);
+        } else {
+            log.info("Resuming crawl of {}, {} directories are already completed", thePath, theCompletedDirectories.size());
+        }
+
+        // Crawled files bypass the timers and the dispatcher, so they never delay
+        // changes reported by the watcher
+        final var theTraversal = new Traversal(theCompletedDirectories, parallelism);
+        final var theRoot = new DirectoryProgress(thePath, null, checkpoint);
+        theTraversal.submit(theRoot);
+        theTraversal.await();
+        return theRoot.completed;
     }
 }
@@ -18,31 +18,56 @@ package de.mirkosertic.desktopsearch;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.KeywordField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.DrillDownQuery;
+import org.apache.lucene.facet.DrillSideways;
 import org.apache.lucene.facet.FacetResult;
 import org.apache.lucene.facet.Facets;
-import org.apache.lucene.facet.FacetsCollectorManager;
+import org.apache.lucene.facet.FacetsCollector;
 import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.range.LongRangeFacetCounts;
 import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
-import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.facet.taxonomy.TaxonomyReader;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.search.BooleanClause;
-import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TotalHits;
@@ -51,13 +76,12 @@ import org.apache.lucene.search.suggest.Lookup;
 import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
 import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
 import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
-import org.apache.tika.metadata.DublinCore;
-import org.apache.tika.metadata.PDF;
-import org.apache.tika.metadata.TikaCoreProperties;
-import org.apache.tika.utils.DateUtils;
+import org.springframework.util.FileSystemUtils;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -65,83 +89,453 @@ import org.springframework.web.util.UriComponentsBuilder;
 import java.io.File;
 import java.io.IOException;
 import java.text.BreakIterator;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 @Slf4j
 public class LuceneIndexHandler {
 
     private static final int NUMBER_OF_HIGHLIGHT_PASSAGES = 5;
 
+    private static final String COMMIT_MANIFEST_GENERATION = "manifestGeneration";
+    private static final String COMMIT_BULK_BUILD = "bulkBuild";
+    private static final String COMMIT_SCHEMA_VERSION = "schemaVersion";
+
+    // Version 1 stored term vectors for the content, version 2 offsets in the postings,
+    // version 3 adds the content analyzed for the language of the document,
+    // version 4 keeps one index per crawl location, version 5 indexes sizes, dates and numbers as points,
+    // version 6 keeps uncurated metadata in a single field
+    private static final int SCHEMA_VERSION = 6;
+    // Newest first, an index is migrated from the newest schema found
+    private static final String[] LEGACY_INDEX_DIRECTORIES = {"index-v5", "index-v4", "index-v3", "index-v2", "index"};
+    // Documents without a configured location and the commit data are kept in the default index
+    private static final String DEFAULT_INDEX = "default";
+    private static final String LOCATION_INDEX_PREFIX = "location-";
+
+    // Metadata which is indexed as a number. Values which are no numbers are not indexed for these keys.
+    private static final Set<String> NUMERIC_METADATA = Set.of("page-count", "word-count", "character-count", "line-count", "paragraph-count");
+    private static final String DAY_SUFFIX = "-year-month-day";
+    // Metadata which is indexed in fields of its own. Every field costs field infos and doc values metadata
+    // in every segment, so all other metadata is kept in the meta field, unless enabled in the configuration.
+    private static final Set<String> CURATED_METADATA = Set.of("author", IndexFields.EXTENSION, "title", "subject",
+            "creation-date", "last-modified");
+    // Metadata used as the title of a document, in order of preference
+    private static final List<String> TITLE_METADATA = List.of("title", "subject");
+
+    private static final List<RangeField> RANGE_FACETS = List.of(RangeField.SIZE, RangeField.MODIFIED);
+
+    private static final Sort NEWEST_FIRST = new Sort(new SortField(IndexFields.LASTMODIFIED_DV, SortField.Type.LONG, true),
+            new SortField(null, SortField.Type.DOC, true));
+
+    // During the initial build, fewer and larger segments are written and merged less often
+    private static final double BULK_MIN_RAM_BUFFER_MB = 64;
+    private static final double BULK_MAX_RAM_BUFFER_MB = 512;
+    private static final int BULK_SEGMENTS_PER_TIER = 50;
+    private static final int SEGMENTS_PER_TIER = 10;
+
+    /**
+     * The index of a crawl location, or the default index. Every index has its own writer, so
+     * indexes on different disks are merged independently, and the index of a removed location
+     * is deleted as a whole.
+     */
+    private static final class LocationIndex {
+
+        private final IndexWriter writer;
+        private final TieredMergePolicy mergePolicy;
+
+        private LocationIndex(final IndexWriter writer, final TieredMergePolicy mergePolicy) {
+            this.writer = writer;
+            this.mergePolicy = mergePolicy;
+        }
+    }
+
+    /**
+     * Facet states of one reader generation. They are never changed once built, so concurrent
+     * queries share them without locking.
+     */
+    private static final class FacetStates {
+
+        private final Map<String, SortedSetDocValuesReaderState> states;
+
+        private FacetStates(final Map<String, SortedSetDocValuesReaderState> states) {
+            this.states = states;
+        }
+    }
+
     private final Map<String, String> facetFieldToTitle;
+    private final Set<String> metaDataFields;
     private final Configuration configuration;
     private final PreviewProcessor previewProcessor;
-    private final IndexWriter indexWriter;
-    private DirectoryReader indexReader;
-    private IndexSearcher indexSearcher;
+    private final Statistics statistics;
+    private final LocationIndex defaultIndex;
+    private final Map<String, LocationIndex> locationIndexes;
+    private final List<LocationIndex> indexes;
+    // Near real time searchers over all indexes, refreshed by the reopen thread
+    private final FederatedSearcherManager searcherManager;
+    // The searchers of the old index while it is migrated, the ones of the writers otherwise
+    private volatile ReferenceManager<IndexSearcher> activeSearcherManager;
+    private ReferenceManager<IndexSearcher> legacySearcherManager;
+    private ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    private final ScheduledExecutorService commitScheduler;
+    private final ExecutorService searchExecutor;
+    private final ExecutorService facetExecutor;
     private final QueryParser queryParser;
     private final Analyzer analyzer;
     private final FacetsConfig facetsConfig;
-    private final Map<String, SortedSetDocValuesReaderState> facetStatesCache;
+    // Built by the searcher factory before a searcher is published, removed once its reader is closed
+    private final Map<IndexReader, FacetStates> facetStates;
+    private volatile IndexReader suggesterReader;
     private Directory suggestDirectory;
     private final AtomicReference<AnalyzingInfixSuggester> suggester;
+    private final CrawlManifest crawlManifest;
+    private final CrawlCheckpoint crawlCheckpoint;
+    private volatile boolean bulkMode;
+    private IndexReader legacyIndexReader;
+    private volatile boolean migrating;
+    private volatile boolean migrationStopped;
+    private Thread migrationThread;
+    private final Set<String> changedDuringMigration;
 
     private final FieldType contentFieldType;
+    private final FieldType prefixFieldType;
+    private final ContentStore contentStore;
+    // Held while a text is stored and its document added, so collecting unused texts sees either both or none
+    private final ReadWriteLock contentLock;
 
     public LuceneIndexHandler(final Configuration configuration, final PreviewProcessor previewProcessor) throws IOException {
+        this(configuration, previewProcessor, new Statistics());
+    }
+
+    public LuceneIndexHandler(final Configuration configuration, final PreviewProcessor previewProcessor, final Statistics statistics) throws IOException {
         this.suggester = new AtomicReference<>();
         this.previewProcessor = previewProcessor;
+        this.statistics = statistics;
         this.configuration = configuration;
         this.facetFieldToTitle = new HashMap<>();
         this.facetFieldToTitle.put(IndexFields.LANGUAGE, "Language");
         this.facetFieldToTitle.put("attr_author", "Author");
-        this.facetFieldToTitle.put("attr_last-modified-year", "Last modified");
         this.facetFieldToTitle.put("attr_" + IndexFields.EXTENSION, "File type");
+        this.metaDataFields = new HashSet<>(CURATED_METADATA);
+        for (final var theKey : configuration.getMetaDataFields()) {
+            this.metaDataFields.add(theKey);
+            if (!NUMERIC_METADATA.contains(theKey)) {
+                this.facetFieldToTitle.putIfAbsent("attr_" + theKey, theKey);
+            }
+        }
 
-        this.contentFieldType = new FieldType(TextField.TYPE_STORED);
-        this.contentFieldType.setStoreTermVectors(true);
-        this.contentFieldType.setStoreTermVectorPositions(true);
-        this.contentFieldType.setStoreTermVectorOffsets(true);
+        // The highlighter reads the offsets from the postings, which is much smaller than term vectors.
+        // The text itself is kept in the content store, so stored fields only contain small metadata.
+        this.contentFieldType = new FieldType(TextField.TYPE_NOT_STORED);
+        this.contentFieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        this.contentFieldType.freeze();
+        // Prefixes are only looked up, so neither frequencies nor positions are needed
+        this.prefixFieldType = new FieldType(TextField.TYPE_NOT_STORED);
+        this.prefixFieldType.setIndexOptions(IndexOptions.DOCS);
+        this.prefixFieldType.setOmitNorms(true);
+        this.prefixFieldType.freeze();
 
         this.facetsConfig = new FacetsConfig();
-        this.facetStatesCache = new HashMap<>();
+        this.facetStates = new ConcurrentHashMap<>();
+        this.contentStore = ContentStore.open(new File(configuration.getConfigDirectory(), "content").toPath());
+        this.contentLock = new ReentrantReadWriteLock();
 
-        final var theIndexDirectory = new File(configuration.getConfigDirectory(), "index");
+        final var theIndexDirectory = new File(configuration.getConfigDirectory(), "index-v" + SCHEMA_VERSION);
         if (!theIndexDirectory.mkdirs()) {
             log.warn("Could not create index directory {}", theIndexDirectory.getAbsolutePath());
         }
 
-        // Try to open or create a new lucene index
-        final Directory directory = FSDirectory.open(theIndexDirectory.toPath());
-        this.analyzer = new StandardAnalyzer();
-        final IndexWriterConfig config = new IndexWriterConfig(analyzer);
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        final Map<String, Analyzer> theFieldAnalyzers = new HashMap<>();
+        for (final var theLanguage : SupportedLanguage.values()) {
+            theFieldAnalyzers.put(theLanguage.getContentField(), theLanguage.createAnalyzer());
+        }
+        theFieldAnalyzers.put(IndexFields.CONTENT_PREFIX, new DesktopSearchAnalyzer());
+        this.analyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer(), theFieldAnalyzers);
+
+        // Try to open or create the lucene indexes
+        this.defaultIndex = openIndex(new File(theIndexDirectory, DEFAULT_INDEX));
+        final Map<String, LocationIndex> theLocationIndexes = new HashMap<>();
+        for (final var theLocation : configuration.getCrawlLocations()) {
+            theLocationIndexes.put(theLocation.getId(), openIndex(new File(theIndexDirectory, LOCATION_INDEX_PREFIX + theLocation.getId())));
+        }
+        this.locationIndexes = Map.copyOf(theLocationIndexes);
+        final List<LocationIndex> theIndexes = new ArrayList<>();
+        theIndexes.add(defaultIndex);
+        theIndexes.addAll(locationIndexes.values());
+        this.indexes = List.copyOf(theIndexes);
+        this.changedDuringMigration = ConcurrentHashMap.newKeySet();
+
+        // An index with an older schema stays searchable until its documents are migrated
+        Map<String, String> theLegacyCommitData = Map.of();
+        for (final var theName : LEGACY_INDEX_DIRECTORIES) {
+            final var theLegacyReaders = openLegacyReaders(new File(configuration.getConfigDirectory(), theName));
+            if (!theLegacyReaders.isEmpty()) {
+                theLegacyCommitData = theLegacyReaders.get(0).getIndexCommit().getUserData();
+                this.legacyIndexReader = theLegacyReaders.size() == 1
+                        ? theLegacyReaders.get(0)
+                        : new MultiReader(theLegacyReaders.toArray(new IndexReader[0]), true);
+                this.migrating = true;
+                break;
+            }
+        }
+        // Queries on large indexes search slices of segments in parallel
+        this.searchExecutor = configuration.getSearchThreads() > 0
+                ? Executors.newFixedThreadPool(configuration.getSearchThreads(), Thread.ofPlatform().name("Search-", 0).daemon(true).factory())
+                : null;
+        // The facet fields of a new reader are prepared in parallel
+        this.facetExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(facetFieldToTitle.size(), Runtime.getRuntime().availableProcessors())),
+                Thread.ofPlatform().name("Facet-", 0).daemon(true).factory());
+        final var theSearcherFactory = new SlicedSearcherFactory(searchExecutor, configuration.getSearchSliceDocuments()) {
+            @Override
+            public IndexSearcher newSearcher(final IndexReader reader, final IndexReader previousReader) throws IOException {
+                // Queries keep using the previous searcher until the facets of the new one are ready
+                prepareFacetStates(reader, previousReader);
+                return super.newSearcher(reader, previousReader);
+            }
+        };
+        this.searcherManager = new FederatedSearcherManager(indexes.stream().map(theIndex -> theIndex.writer).toList(), theSearcherFactory);
+        this.searcherManager.addListener(new ReferenceManager.RefreshListener() {
+
+            private long refreshStart;
+
+            @Override
+            public void beforeRefresh() {
+                refreshStart = System.nanoTime();
+            }
+
+            @Override
+            public void afterRefresh(final boolean didRefresh) {
+                if (didRefresh) {
+                    statistics.searcherRefreshed(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - refreshStart));
+                }
+            }
+        });
+        if (migrating) {
+            this.legacySearcherManager = new StaticSearcherManager(legacyIndexReader, theSearcherFactory);
+            this.activeSearcherManager = legacySearcherManager;
+        } else {
+            this.activeSearcherManager = searcherManager;
+        }
+
+        if (!commitUserData().containsKey(COMMIT_SCHEMA_VERSION)) {
+            // The new index continues with the crawl state of the old one
+            final Map<String, String> theCommitData = new HashMap<>();
+            theCommitData.putAll(theLegacyCommitData);
+            theCommitData.put(COMMIT_SCHEMA_VERSION, Integer.toString(SCHEMA_VERSION));
+            defaultIndex.writer.setLiveCommitData(theCommitData.entrySet());
+            defaultIndex.writer.commit();
+        }
+
+        final var theManifestGeneration = commitUserData().getOrDefault(COMMIT_MANIFEST_GENERATION, "0");
+        this.crawlManifest = CrawlManifest.open(new File(configuration.getConfigDirectory(), "crawl.manifest").toPath(), Long.parseLong(theManifestGeneration));
+        this.crawlCheckpoint = CrawlCheckpoint.fromCommitData(commitUserData());
+        // An interrupted initial build is continued in bulk mode
+        if (Boolean.parseBoolean(commitUserData().get(COMMIT_BULK_BUILD))) {
+            enterBulkMode();
+        }
+        dropRemovedLocations(theIndexDirectory);
 
-        this.indexWriter = new IndexWriter(directory, config);
-        this.indexReader = DirectoryReader.open(indexWriter);
         IndexSearcher.setMaxClauseCount(8192);
-        this.indexSearcher = new IndexSearcher(indexReader);
 
         this.queryParser = new QueryParser(analyzer);
 
         rebuildSuggester();
+
+        if (migrating) {
+            migrationThread = Thread.ofPlatform().name("Index-Migration").daemon(true).start(this::migrate);
+        } else if (!bulkMode) {
+            startRefreshing();
+        }
+
+        // Durable commits run on their own cadence, search visibility does not depend on them
+        final var theCommitInterval = Math.max(1, configuration.getCommitIntervalSeconds());
+        this.commitScheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("Index-Commit").daemon(true).factory());
+        this.commitScheduler.scheduleWithFixedDelay(this::commitDataJob, theCommitInterval, theCommitInterval, TimeUnit.SECONDS);
     }
 
-    private void rebuildSuggester() {
+    /**
+     * The readers of an index with an older schema. Up to schema version 3 this is a single index,
+     * later versions keep one index per location, and the default index with the commit data comes first.
+     */
+    private static List<DirectoryReader> openLegacyReaders(final File directory) throws IOException {
+        final List<DirectoryReader> theReaders = new ArrayList<>();
+        if (!directory.isDirectory()) {
+            return theReaders;
+        }
+        final List<File> theCandidates = new ArrayList<>();
+        theCandidates.add(directory);
+        theCandidates.add(new File(directory, DEFAULT_INDEX));
+        final var theLocationDirectories = directory.listFiles(theFile -> theFile.getName().startsWith(LOCATION_INDEX_PREFIX));
+        if (theLocationDirectories != null) {
+            Arrays.sort(theLocationDirectories);
+            theCandidates.addAll(Arrays.asList(theLocationDirectories));
+        }
+        for (final var theCandidate : theCandidates) {
+            if (theCandidate.isDirectory()) {
+                final Directory theDirectory = FSDirectory.open(theCandidate.toPath());
+                if (DirectoryReader.indexExists(theDirectory)) {
+                    theReaders.add(DirectoryReader.open(theDirectory));
+                } else {
+                    theDirectory.close();
+                }
+            }
+        }
+        return theReaders;
+    }
+
+    private LocationIndex openIndex(final File directory) throws IOException {
+        if (!directory.mkdirs()) {
+            log.warn("Could not create index directory {}", directory.getAbsolutePath());
+        }
+        final IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        final var theMergePolicy = new TieredMergePolicy();
+        theMergePolicy.setSegmentsPerTier(SEGMENTS_PER_TIER);
+        config.setMergePolicy(theMergePolicy);
+        return new LocationIndex(new IndexWriter(FSDirectory.open(directory.toPath()), config), theMergePolicy);
+    }
+
+    /**
+     * The index of a location, or the default index if the location is not configured.
+     */
+    private LocationIndex indexFor(final String locationId) {
+        final var theIndex = locationId != null ? locationIndexes.get(locationId) : null;
+        return theIndex != null ? theIndex : defaultIndex;
+    }
+
+    /**
+     * Deletes the indexes of crawl locations which were removed from the configuration. Their
+     * files are removed from the manifest first, so they are indexed again if the location is
+     * added back later.
+     */
+    private void dropRemovedLocations(final File indexDirectory) throws IOException {
+        final var theDirectories = indexDirectory.listFiles();
+        if (theDirectories == null) {
+            return;
+        }
+        for (final var theDirectory : theDirectories) {
+            final var theName = theDirectory.getName();
+            if (!theDirectory.isDirectory() || !theName.startsWith(LOCATION_INDEX_PREFIX)
+                    || locationIndexes.containsKey(theName.substring(LOCATION_INDEX_PREFIX.length()))) {
+                continue;
+            }
+            final long theStart = System.currentTimeMillis();
+            try (final var theLuceneDirectory = FSDirectory.open(theDirectory.toPath())) {
+                if (DirectoryReader.indexExists(theLuceneDirectory)) {
+                    try (final var theReader = DirectoryReader.open(theLuceneDirectory)) {
+                        final var theTerms = MultiTerms.getTerms(theReader, IndexFields.UNIQUEID);
+                        final var theTermsEnum = theTerms != null ? theTerms.iterator() : TermsEnum.EMPTY;
+                        for (var theTerm = theTermsEnum.next(); theTerm != null; theTerm = theTermsEnum.next()) {
+                            crawlManifest.recordRemoval(theTerm.utf8ToString());
+                        }
+                    }
+                }
+            }
+            crawlCheckpoint.crawlFinished(theName.substring(LOCATION_INDEX_PREFIX.length()));
+            commit();
+            FileSystemUtils.deleteRecursively(theDirectory);
+            log.info("Dropped index {} of a removed location in {} ms", theDirectory, System.currentTimeMillis() - theStart);
+        }
+    }
+
+    /**
+     * Opens a near real time reader over all indexes, which has to be closed by the caller.
+     */
+    private IndexReader openReader() throws IOException {
+        final var theReaders = new IndexReader[indexes.size()];
+        try {
+            for (var i = 0; i < theReaders.length; i++) {
+                theReaders[i] = DirectoryReader.open(indexes.get(i).writer);
+            }
+            return new MultiReader(theReaders, true);
+        } catch (final IOException | RuntimeException e) {
+            for (final var theReader : theReaders) {
+                if (theReader != null) {
+                    theReader.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts refreshing the searchers in the background, so changes become visible after the
+     * configured refresh interval. Opening a near real time reader flushes the pending documents,
+     * but never syncs them to disk.
+     */
+    private synchronized void startRefreshing() {
+        if (reopenThread == null) {
+            final var theStaleSeconds = Math.max(1, configuration.getSearchRefreshMillis()) / 1000d;
+            // The writer is only used to wait for generations, which is never done here
+            reopenThread = new ControlledRealTimeReopenThread<>(defaultIndex.writer, searcherManager, theStaleSeconds, theStaleSeconds);
+            reopenThread.setName("Index-Refresh");
+            reopenThread.setDaemon(true);
+            reopenThread.start();
+        }
+    }
+
+    /**
+     * Stops the background refresh, so the bulk build can fill its large RAM buffer.
+     */
+    private synchronized void stopRefreshing() {
+        if (reopenThread != null) {
+            reopenThread.close();
+            reopenThread = null;
+        }
+    }
+
+    private IndexSearcher acquireSearcher() throws IOException {
+        while (true) {
+            final var theManager = activeSearcherManager;
+            try {
+                return theManager.acquire();
+            } catch (final AlreadyClosedException e) {
+                // The old index was closed right after the migration, the new one is active now
+                if (theManager == activeSearcherManager) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void releaseSearcher(final IndexSearcher searcher) throws IOException {
+        // Releasing only decrements the reference count of the reader, so this also works for the old index
+        searcherManager.release(searcher);
+    }
+
+    private synchronized void rebuildSuggester() {
         try {
             final var suggestDirectoryFile = new File(configuration.getConfigDirectory(), "suggester");
             if (!suggestDirectoryFile.mkdirs()) {
                 log.warn("Could not suggest index directory {}", suggestDirectoryFile.getAbsolutePath());
             }
 
+            final var theSearcher = acquireSearcher();
+            suggesterReader = theSearcher.getIndexReader();
             new Thread(() -> {
                 try {
                     if (suggestDirectory != null) {
@@ -149,7 +543,7 @@ public class LuceneIndexHandler {
                     }
                     suggestDirectory = FSDirectory.open(suggestDirectoryFile.toPath());
                     final AnalyzingInfixSuggester sugg = new AnalyzingInfixSuggester(suggestDirectory, analyzer);
-                    final LuceneDictionary dictionary = new LuceneDictionary(indexSearcher.getIndexReader(), IndexFields.CONTENT);
+                    final LuceneDictionary dictionary = new LuceneDictionary(theSearcher.getIndexReader(), IndexFields.CONTENT);
                     final long suggestStart = System.currentTimeMillis();
                     log.info("Loading suggester...");
                     sugg.build(dictionary);
@@ -159,6 +553,12 @@ public class LuceneIndexHandler {
                     suggester.set(sugg);
                 } catch (final Exception e) {
                     log.error("Error while rebuilding suggester", e);
+                } finally {
+                    try {
+                        releaseSearcher(theSearcher);
+                    } catch (final IOException e) {
+                        log.error("Error while releasing searcher", e);
+                    }
                 }
             }).start();
 
@@ -167,33 +567,276 @@ public class LuceneIndexHandler {
         }
     }
 
-    public synchronized void commitDataJob() {
-        log.info("Committing data job");
+    /**
+     * Copies the newest copy of every file from the index with the older schema. Files written
+     * since the migration started, files already migrated before a restart, and files which do
+     * not exist anymore are skipped. Searches use the old index until the migration is done.
+     */
+    private void migrate() {
+        log.info("Migrating index to schema version {}", SCHEMA_VERSION);
+        final long theStart = System.currentTimeMillis();
+        var theMigrated = 0;
+        try (final var theMigratedReader = openReader()) {
+            final var theTerms = MultiTerms.getTerms(legacyIndexReader, IndexFields.UNIQUEID);
+            final var theMigratedTerms = MultiTerms.getTerms(theMigratedReader, IndexFields.UNIQUEID);
+            final var theMigratedTermsEnum = theMigratedTerms != null ? theMigratedTerms.iterator() : null;
+            final var theSearcher = new IndexSearcher(legacyIndexReader);
+            final var theTermsEnum = theTerms != null ? theTerms.iterator() : TermsEnum.EMPTY;
+            for (var theTerm = theTermsEnum.next(); theTerm != null; theTerm = theTermsEnum.next()) {
+                if (migrationStopped) {
+                    log.info("Migration stopped after {} documents, continuing with the next start", theMigrated);
+                    return;
+                }
+                if (theMigratedTermsEnum != null && theMigratedTermsEnum.seekExact(theTerm)) {
+                    continue;
+                }
+                final var theFileName = theTerm.utf8ToString();
+                if (!new File(theFileName).exists()) {
+                    continue;
+                }
+                // Older versions added a new document for every modification, only the newest one is kept
+                final var theDocs = theSearcher.search(new TermQuery(new Term(IndexFields.UNIQUEID, theFileName)), 1, NEWEST_FIRST);
+                if (theDocs.scoreDocs.length == 0) {
+                    continue;
+                }
+                final var theDocument = migratedDocument(theDocs.scoreDocs[0].doc);
+                contentLock.readLock().lock();
+                try {
+                    synchronized (changedDuringMigration) {
+                        if (!changedDuringMigration.contains(theFileName)) {
+                            final var theContent = theDocument.get(IndexFields.CONTENT);
+                            if (theContent != null) {
+                                contentStore.put(theDocument.get(IndexFields.CONTENTMD5), theContent);
+                            }
+                            indexFor(theDocument.get(IndexFields.LOCATIONID)).writer.addDocument(theDocument);
+                            theMigrated++;
+                        }
+                    }
+                } finally {
+                    contentLock.readLock().unlock();
+                }
+            }
+        } catch (final Exception e) {
+            log.error("Error while migrating index, continuing with the next start", e);
+            return;
+        }
+
+        synchronized (this) {
+            try {
+                commit();
+                searcherManager.maybeRefreshBlocking();
+                migrating = false;
+                changedDuringMigration.clear();
+                log.info("Migrated {} documents in {} ms", theMigrated, System.currentTimeMillis() - theStart);
+                activeSearcherManager = searcherManager;
+                legacySearcherManager.close();
+                legacySearcherManager = null;
+                legacyIndexReader = null;
+                for (final var theName : LEGACY_INDEX_DIRECTORIES) {
+                    final var theLegacyIndexDirectory = new File(configuration.getConfigDirectory(), theName);
+                    if (theLegacyIndexDirectory.exists()) {
+                        log.info("Deleting migrated index {}", theLegacyIndexDirectory);
+                        FileSystemUtils.deleteRecursively(theLegacyIndexDirectory);
+                    }
+                }
+                if (!bulkMode) {
+                    rebuildSuggester();
+                    startRefreshing();
+                }
+            } catch (final Exception e) {
+                log.error("Error while finishing index migration", e);
+            }
+        }
+        collectUnusedContent();
+    }
+
+    /**
+     * Rebuilds a document of the old index from its stored fields and doc values.
+     */
+    private Document migratedDocument(final int docId) throws IOException {
+        final var theStoredDocument = legacyIndexReader.storedFields().document(docId);
+        final var theDocument = new Document();
+        for (final var theField : theStoredDocument.getFields()) {
+            final var theName = theField.name();
+            final var theValue = storedValue(theField);
+            // The modification time is added below, older versions updated its doc values only
+            if (theValue == null || IndexFields.CONTENT.equals(theName) || IndexFields.CONTENTMD5.equals(theName)
+                    || IndexFields.LASTMODIFIED.equals(theName)) {
+                continue;
+            } else if (IndexFields.FILESIZE.equals(theName)) {
+                addFileSize(theDocument, Long.parseLong(theValue));
+            } else if (IndexFields.LANGUAGE.equals(theName)) {
+                theDocument.add(new KeywordField(theName, new BytesRef(theValue), Field.Store.YES));
+            } else if (theName.startsWith("attr_") || theName.startsWith(IndexFields.DATE_PREFIX) || theName.startsWith(IndexFields.NUMBER_PREFIX)
+                    || IndexFields.META.equals(theName)) {
+                addStoredMetadata(theDocument, theName, theValue);
+            } else {
+                theDocument.add(new StringField(theName, theValue, Field.Store.YES));
+            }
+        }
+
+        final var theLeaf = legacyIndexReader.leaves().get(ReaderUtil.subIndex(docId, legacyIndexReader.leaves()));
+        final var theLastModifiedValues = theLeaf.reader().getNumericDocValues(IndexFields.LASTMODIFIED_DV);
+        // The modification time of unchanged files was updated in the doc values only
+        final long theLastModified = theLastModifiedValues != null && theLastModifiedValues.advanceExact(docId - theLeaf.docBase)
+                ? theLastModifiedValues.longValue()
+                : Long.parseLong(theStoredDocument.get(IndexFields.LASTMODIFIED));
+        addLastModified(theDocument, theLastModified);
+
+        // Version 1 stored the text, version 2 kept it in the content store already
+        final var theContent = contentOf(theStoredDocument);
+        if (theContent != null) {
+            theDocument.add(new Field(IndexFields.CONTENT, theContent, contentFieldType));
+            theDocument.add(new StringField(IndexFields.CONTENTMD5, DigestUtils.md5Hex(theContent), Field.Store.YES));
+            final var theLanguage = storedValue(theStoredDocument.getField(IndexFields.LANGUAGE));
+            if (theLanguage != null) {
+                theDocument.add(new Field(SupportedLanguage.valueOf(theLanguage).getContentField(), theContent, contentFieldType));
+            }
+            if (configuration.isPrefixSearch()) {
+                theDocument.add(new Field(IndexFields.CONTENT_PREFIX, theContent, prefixFieldType));
+            }
+        }
+        return theDocument;
+    }
 
+    /**
+     * Adds a stored metadata field of an older schema, or of this one when read back. Schema
+     * version 4 and older indexed dates by day, month and year, and numbers as keywords. Schema
+     * version 5 and older had a field for every key.
+     */
+    private void addStoredMetadata(final Document document, final String fieldName, final String value) {
+        if (IndexFields.META.equals(fieldName)) {
+            final var theSeparator = value.indexOf('=');
+            if (theSeparator > 0) {
+                addMetadata(document, value.substring(0, theSeparator), metaValue(value.substring(theSeparator + 1)));
+            }
+        } else if (fieldName.startsWith(IndexFields.DATE_PREFIX)) {
+            addMetadata(document, fieldName.substring(IndexFields.DATE_PREFIX.length()), new Date(Long.parseLong(value)));
+        } else if (fieldName.startsWith(IndexFields.NUMBER_PREFIX)) {
+            addMetadata(document, fieldName.substring(IndexFields.NUMBER_PREFIX.length()), value);
+        } else {
+            final var theKey = fieldName.substring("attr_".length());
+            if (theKey.endsWith(DAY_SUFFIX)) {
+                final var theDay = LocalDate.parse(value, DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+                addMetadata(document, theKey.substring(0, theKey.length() - DAY_SUFFIX.length()),
+                        Date.from(theDay.atStartOfDay(ZoneOffset.UTC).toInstant()));
+            } else if (!theKey.endsWith("-year") && !theKey.endsWith("-year-month")) {
+                addMetadata(document, theKey, value);
+            }
+        }
+    }
+
+    /**
+     * A value of the meta field. Dates are kept as ISO-8601 instants there.
+     */
+    private static Object metaValue(final String value) {
         try {
-            indexWriter.flush();
-            indexWriter.commit();
+            return Date.from(Instant.parse(value));
+        } catch (final DateTimeParseException e) {
+            return value;
+        }
+    }
 
-            final DirectoryReader newReader = DirectoryReader.openIfChanged(indexReader);
-            if (newReader != null) {
-                indexReader.close();
-                indexReader = newReader;
-                indexSearcher = new IndexSearcher(indexReader);
-                facetStatesCache.clear();
+    /**
+     * The value of a stored field. Keyword fields store their value as bytes, so it is not
+     * returned by {@link Document#get(String)}.
+     */
+    private static String storedValue(final IndexableField field) {
+        if (field == null) {
+            return null;
+        }
+        if (field.stringValue() != null) {
+            return field.stringValue();
+        }
+        return field.binaryValue() != null ? field.binaryValue().utf8ToString() : null;
+    }
 
-                suggester.set(null);
-                rebuildSuggester();
+    private void changedDuringMigration(final String fileName) {
+        if (migrating) {
+            synchronized (changedDuringMigration) {
+                changedDuringMigration.add(fileName);
             }
+        }
+    }
 
-            if (facetStatesCache.isEmpty()) {
-                for (final String facetField : facetFields()) {
-                    try {
-                        final SortedSetDocValuesReaderState state = new DefaultSortedSetDocValuesReaderState(indexSearcher.getIndexReader(), facetField, facetsConfig);
-                        facetStatesCache.put(facetField, state);
-                    } catch (final IllegalArgumentException e) {
-                        log.debug("Could not get facets for field {}. Maybe field not used by documents?", facetField, e);
-                    }
+    /**
+     * Waits until a running migration is finished.
+     */
+    void awaitMigration() throws InterruptedException {
+        if (migrationThread != null) {
+            migrationThread.join();
+        }
+    }
+
+    private Map<String, String> commitUserData() {
+        final Map<String, String> theResult = new HashMap<>();
+        final var theCommitData = defaultIndex.writer.getLiveCommitData();
+        if (theCommitData != null) {
+            theCommitData.forEach(e -> theResult.put(e.getKey(), e.getValue()));
+        }
+        return theResult;
+    }
+
+    private synchronized void commit() throws IOException {
+        // Manifest changes and crawl progress are taken before the commit, so they are all covered by it
+        final var theManifestChanges = crawlManifest.snapshotPendingChanges();
+        final var theCommitData = commitUserData();
+        theCommitData.keySet().removeIf(CrawlCheckpoint::isCheckpointKey);
+        theCommitData.putAll(crawlCheckpoint.toCommitData());
+        if (bulkMode) {
+            theCommitData.put(COMMIT_BULK_BUILD, Boolean.TRUE.toString());
+        } else {
+            theCommitData.remove(COMMIT_BULK_BUILD);
+        }
+        final var theGeneration = crawlManifest.getGeneration() + 1;
+        if (!theManifestChanges.isEmpty()) {
+            theCommitData.put(COMMIT_MANIFEST_GENERATION, Long.toString(theGeneration));
+        }
+
+        // Commit data is only set if it changed, otherwise every call would create a new commit
+        if (!theCommitData.equals(commitUserData())) {
+            defaultIndex.writer.setLiveCommitData(theCommitData.entrySet());
+        }
+        // Texts of committed documents must survive a crash
+        contentStore.sync();
+        // The default index carries the manifest generation, so it is committed last
+        for (final var theIndex : indexes) {
+            if (theIndex != defaultIndex) {
+                theIndex.writer.commit();
+            }
+        }
+        defaultIndex.writer.commit();
+
+        if (!theManifestChanges.isEmpty()) {
+            crawlManifest.commit(theManifestChanges, theGeneration);
+        }
+    }
+
+    /**
+     * Makes all changes durable. Searchers are refreshed independently by the reopen thread,
+     * the suggestions are rebuilt with the commit cadence, as this is expensive.
+     */
+    public void commitDataJob() {
+        log.info("Committing data job");
+
+        try {
+            commit();
+
+            if (bulkMode || migrating) {
+                // Searchers, facets and suggestions are refreshed once the initial build or the migration is finished
+                log.info("Bulk build or migration in progress, skipping reader refresh");
+                return;
+            }
+
+            searcherManager.maybeRefreshBlocking();
+            final var theSearcher = acquireSearcher();
+            try {
+                if (theSearcher.getIndexReader() != suggesterReader) {
+                    suggester.set(null);
+                    rebuildSuggester();
                 }
+            } finally {
+                releaseSearcher(theSearcher);
             }
         } catch (final Exception e) {
             log.error("Error while committing data job", e);
@@ -202,6 +845,75 @@ public class LuceneIndexHandler {
         log.info("Done");
     }
 
+    /**
+     * The facet states of the reader of a searcher. They are prepared before the searcher is
+     * published, so a query only has to build them if this failed.
+     */
+    private FacetStates facetStatesFor(final IndexSearcher searcher) {
+        final var theReader = searcher.getIndexReader();
+        final var theStates = facetStates.get(theReader);
+        if (theStates != null) {
+            return theStates;
+        }
+        final var theStart = System.nanoTime();
+        prepareFacetStates(theReader, null);
+        statistics.facetQueryStalled(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - theStart));
+        return facetStates.getOrDefault(theReader, new FacetStates(Map.of()));
+    }
+
+    /**
+     * Builds the facet states of a new reader, one task per field. If the segments did not
+     * change since the previous reader, only documents were deleted or their doc values updated,
+     * and the ordinals of the previous states are reused.
+     */
+    private void prepareFacetStates(final IndexReader reader, final IndexReader previousReader) {
+        final var theStart = System.nanoTime();
+        final var thePrevious = previousReader != null ? facetStates.get(previousReader) : null;
+        final List<Callable<SortedSetDocValuesReaderState>> theTasks = new ArrayList<>();
+        for (final String facetField : facetFields()) {
+            final var thePreviousState = thePrevious != null ? thePrevious.states.get(facetField) : null;
+            theTasks.add(() -> facetState(reader, facetField, thePreviousState));
+        }
+        final Map<String, SortedSetDocValuesReaderState> theStates = new HashMap<>();
+        var theReused = 0;
+        try {
+            for (final var theFuture : facetExecutor.invokeAll(theTasks)) {
+                final var theState = theFuture.get();
+                if (theState != null) {
+                    theStates.put(theState.getField(), theState);
+                    if (theState instanceof ReusedSortedSetDocValuesReaderState) {
+                        theReused++;
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (final ExecutionException | RejectedExecutionException e) {
+            log.error("Error while building facet states", e);
+            return;
+        }
+        // Readers are closed once no searcher uses them anymore, their states are not needed then
+        facetStates.keySet().removeIf(theReader -> theReader.getRefCount() <= 0);
+        facetStates.put(reader, new FacetStates(Map.copyOf(theStates)));
+        statistics.facetStatesReady(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - theStart), theStates.size() - theReused, theReused);
+    }
+
+    private SortedSetDocValuesReaderState facetState(final IndexReader reader, final String facetField, final SortedSetDocValuesReaderState previous) throws IOException {
+        if (previous != null) {
+            final var theReused = ReusedSortedSetDocValuesReaderState.reuse(previous, reader);
+            if (theReused != null) {
+                return theReused;
+            }
+        }
+        try {
+            return new DefaultSortedSetDocValuesReaderState(reader, facetField, facetsConfig);
+        } catch (final IllegalArgumentException e) {
+            log.debug("Could not get facets for field {}. Maybe field not used by documents?", facetField, e);
+            return null;
+        }
+    }
+
     private String[] facetFields() {
         final var result = new String[facetFieldToTitle.size()];
         var i=0;
@@ -211,101 +923,439 @@ public class LuceneIndexHandler {
         return result;
     }
 
-    public void crawlingStarts() {
+    /**
+     * Switches to bulk mode if the index is empty, so the initial build runs with a large RAM
+     * buffer, fewer merges and without refreshing the searcher every minute.
+     */
+    public synchronized void crawlingStarts() {
+        if (!bulkMode && indexes.stream().allMatch(theIndex -> theIndex.writer.getDocStats().numDocs == 0)) {
+            enterBulkMode();
+        }
+    }
+
+    /**
+     * Called once everything found by the crawl is indexed. Ends the bulk mode, and removes
+     * texts from the content store which are not used anymore.
+     */
+    public void crawlingFinished() {
+        synchronized (this) {
+            if (bulkMode) {
+                finishBulkBuild();
+            }
+        }
+        collectUnusedContent();
+    }
+
+    /**
+     * The segments written so far are merged with the incremental merge settings, and the
+     * searcher, facets and suggestions are built once.
+     */
+    private void finishBulkBuild() {
+        log.info("Finishing bulk build");
+        try {
+            final long theStart = System.currentTimeMillis();
+            bulkMode = false;
+            for (final var theIndex : indexes) {
+                theIndex.writer.getConfig().setRAMBufferSizeMB(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+                theIndex.mergePolicy.setSegmentsPerTier(SEGMENTS_PER_TIER);
+                // One final merge, so incremental indexing does not start with a merge backlog
+                theIndex.writer.forceMerge(SEGMENTS_PER_TIER);
+            }
+            commit();
+            if (!migrating) {
+                searcherManager.maybeRefreshBlocking();
+                suggester.set(null);
+                rebuildSuggester();
+                startRefreshing();
+            }
+            log.info("Finishing bulk build took {} ms", System.currentTimeMillis() - theStart);
+        } catch (final Exception e) {
+            log.error("Error while finishing bulk build", e);
+        }
+    }
+
+    private void enterBulkMode() {
+        stopRefreshing();
+        final var theRAMBufferSizeMB = Math.min(BULK_MAX_RAM_BUFFER_MB, Math.max(BULK_MIN_RAM_BUFFER_MB, Runtime.getRuntime().maxMemory() / 8d / 1024 / 1024));
+        // The locations are crawled at the same time, so they share the buffer
+        final var theRAMBufferSizeMBPerIndex = Math.max(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB, theRAMBufferSizeMB / indexes.size());
+        log.info("Starting bulk build with a RAM buffer of {} MB for each of {} indexes", (long) theRAMBufferSizeMBPerIndex, indexes.size());
+        bulkMode = true;
+        for (final var theIndex : indexes) {
+            theIndex.writer.getConfig().setRAMBufferSizeMB(theRAMBufferSizeMBPerIndex);
+            theIndex.mergePolicy.setSegmentsPerTier(BULK_SEGMENTS_PER_TIER);
+        }
+    }
+
+    private static void addFileSize(final Document document, final long fileSize) {
+        document.add(new LongPoint(IndexFields.FILESIZE, fileSize));
+        document.add(new StoredField(IndexFields.FILESIZE, fileSize));
+        document.add(new NumericDocValuesField(IndexFields.FILESIZE_DV, fileSize));
+    }
+
+    private static void addLastModified(final Document document, final long lastModified) {
+        document.add(new LongPoint(IndexFields.LASTMODIFIED, lastModified));
+        document.add(new StoredField(IndexFields.LASTMODIFIED, lastModified));
+        document.add(new NumericDocValuesField(IndexFields.LASTMODIFIED_DV, lastModified));
+    }
+
+    /**
+     * Adds a metadata value to a document. Curated and enabled keys have fields of their own, dates
+     * and numbers are indexed as points with doc values, so they can be filtered by ranges, all other
+     * values as keywords. The values of all other keys are added to the meta field as key=value.
+     */
+    private void addMetadata(final Document document, final String key, final Object value) {
+        if (StringUtils.isEmpty(key)) {
+            return;
+        }
+        if (value instanceof final Date theDate) {
+            if (metaDataFields.contains(key)) {
+                document.add(new LongField(IndexFields.DATE_PREFIX + key, theDate.getTime(), Field.Store.YES));
+            } else {
+                document.add(new StringField(IndexFields.META, key + "=" + theDate.toInstant(), Field.Store.YES));
+            }
+        } else if (value instanceof final String theString && !StringUtils.isBlank(theString)) {
+            final var theValue = theString.trim();
+            if (NUMERIC_METADATA.contains(key)) {
+                if (NumberUtils.isDigits(theValue) && theValue.length() < 19) {
+                    document.add(new LongField(IndexFields.NUMBER_PREFIX + key, Long.parseLong(theValue), Field.Store.YES));
+                }
+            } else if (metaDataFields.contains(key)) {
+                document.add(new KeywordField("attr_" + key, new BytesRef(theValue), Field.Store.YES));
+            } else {
+                document.add(new StringField(IndexFields.META, key + "=" + theValue, Field.Store.YES));
+            }
+        }
     }
 
     public void addToIndex(final String locationId, final Content fileContent) throws IOException {
 
         final var theLanguage = fileContent.getLanguage();
 
+        final var theContentMD5 = DigestUtils.md5Hex(fileContent.getFileContent());
+
         final var theDocument = new Document();
         theDocument.add(new StringField(IndexFields.UNIQUEID, fileContent.getFileName(), Field.Store.YES));
         theDocument.add(new StringField(IndexFields.LOCATIONID, locationId, Field.Store.YES));
-        theDocument.add(new StringField(IndexFields.CONTENTMD5, DigestUtils.md5Hex(fileContent.getFileContent()), Field.Store.YES));
-        theDocument.add(new StringField(IndexFields.FILESIZE, Long.toString(fileContent.getFileSize()), Field.Store.YES));
-        theDocument.add(new StringField(IndexFields.LASTMODIFIED, Long.toString(fileContent.getLastModified()), Field.Store.YES));
+        theDocument.add(new StringField(IndexFields.CONTENTMD5, theContentMD5, Field.Store.YES));
+        if (fileContent.getRawHash() != null) {
+            theDocument.add(new StringField(IndexFields.RAWHASH, fileContent.getRawHash(), Field.Store.YES));
+        }
+        addFileSize(theDocument, fileContent.getFileSize());
+        addLastModified(theDocument, fileContent.getLastModified());
         theDocument.add(new KeywordField(IndexFields.LANGUAGE, new BytesRef(theLanguage.name()), Field.Store.YES));
 
-        fileContent.getMetadata().forEach(theEntry -> {
-            if (!StringUtils.isEmpty(theEntry.key)) {
-                final var theValue = theEntry.value;
-                if (theValue instanceof String) {
-                    final var theStringValue = ((String) theValue).trim();
-                    if (!StringUtils.isEmpty(theStringValue)) {
-                        theDocument.add(new KeywordField("attr_" + theEntry.key, new BytesRef(theStringValue), Field.Store.YES));
-                    }
-                }
-                if (theValue instanceof List) {
-                    final var theList = (List) theValue;
-                    // TODO: How to handle this list?
-                    //theDocument.setField("attr_" + theEntry.key, theList);
-                }
-                if (theValue instanceof Date) {
-                    final var theDateValue = (Date) theValue;
-                    final var theCalendar = GregorianCalendar.getInstance(DateUtils.UTC, Locale.US);
-                    theCalendar.setTime(theDateValue);
-
-                    // Full-Path
-                    {
-                        final var thePathInfo = String.format(
-                                "%04d/%02d/%02d",
-                                theCalendar.get(Calendar.YEAR),
-                                theCalendar.get(Calendar.MONTH) + 1,
-                                theCalendar.get(Calendar.DAY_OF_MONTH));
-
-                        theDocument.add(new KeywordField("attr_" + theEntry.key+"-year-month-day", new BytesRef(thePathInfo), Field.Store.YES));
-                    }
-                    // Year
-                    {
-                        final var thePathInfo = String.format(
-                                "%04d",
-                                theCalendar.get(Calendar.YEAR));
-
-                        theDocument.add(new KeywordField("attr_" + theEntry.key+"-year", new BytesRef(thePathInfo), Field.Store.YES));
-                    }
-                    // Year-month
-                    {
-                        final var thePathInfo = String.format(
-                                "%04d/%02d",
-                                theCalendar.get(Calendar.YEAR),
-                                theCalendar.get(Calendar.MONTH) + 1);
-
-                        theDocument.add(new KeywordField("attr_" + theEntry.key+"-year-month", new BytesRef(thePathInfo), Field.Store.YES));
-                    }
-                }
-            }
-        });
+        fileContent.getMetadata().forEach(theEntry -> addMetadata(theDocument, theEntry.key, theEntry.value));
 
         theDocument.add(new Field(IndexFields.CONTENT, fileContent.getFileContent(), contentFieldType));
+        theDocument.add(new Field(theLanguage.getContentField(), fileContent.getFileContent(), contentFieldType));
+        if (configuration.isPrefixSearch()) {
+            theDocument.add(new Field(IndexFields.CONTENT_PREFIX, fileContent.getFileContent(), prefixFieldType));
+        }
 
+        contentLock.readLock().lock();
         try {
             final long start = System.currentTimeMillis();
-            indexWriter.addDocument(theDocument);
+            contentStore.put(theContentMD5, fileContent.getFileContent());
+            changedDuringMigration(fileContent.getFileName());
+            // Replaces the previous version of the file, if any. A file is only kept once, even if it
+            // was found in another location before, like with nested locations.
+            final var theTerm = new Term(IndexFields.UNIQUEID, fileContent.getFileName());
+            final var theIndex = indexFor(locationId);
+            for (final var theOtherIndex : indexes) {
+                if (theOtherIndex != theIndex) {
+                    theOtherIndex.writer.deleteDocuments(theTerm);
+                }
+            }
+            theIndex.writer.updateDocument(theTerm, theDocument);
+            crawlManifest.recordUpdate(fileContent.getFileName(), fileContent.getLastModified(), fileContent.getFileSize(),
+                    manifestHash(fileContent.getRawHash() != null ? fileContent.getRawHash() : theContentMD5));
             final long duration = System.currentTimeMillis() - start;
             log.debug("Added document {} to index in {} ms", fileContent.getFileName(), duration);
         } catch (final Exception e) {
             throw new IOException(e);
+        } finally {
+            contentLock.readLock().unlock();
+        }
+    }
+
+    private static long manifestHash(final String hexHash) {
+        return Long.parseUnsignedLong(hexHash.substring(0, 16), 16);
+    }
+
+    /**
+     * Checks if the file is indexed with exactly these raw bytes. In this case only its
+     * modification time needs to be updated.
+     */
+    public boolean isIndexedWithRawHash(final String fileName, final String rawHash) throws IOException {
+        if (crawlManifest.hasPendingChange(fileName)) {
+            // The searcher does not see the latest version of this file yet
+            return false;
+        }
+        final var theSearcher = acquireSearcher();
+        try {
+            final var theDocs = theSearcher.search(new TermQuery(new Term(IndexFields.UNIQUEID, fileName)), 10);
+            final var theStoredFields = theSearcher.storedFields();
+            for (final var theScoreDoc : theDocs.scoreDocs) {
+                final var theDocument = theStoredFields.document(theScoreDoc.doc, Set.of(IndexFields.RAWHASH));
+                if (rawHash.equals(theDocument.get(IndexFields.RAWHASH))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            releaseSearcher(theSearcher);
         }
     }
 
+    /**
+     * Rebuilds the extracted content of an already indexed file with the given raw hash
+     * from its stored fields, or returns null if there is no such file.
+     */
+    public Content findContentByRawHash(final String rawHash) throws IOException {
+        final Document theDocument;
+        final var theSearcher = acquireSearcher();
+        try {
+            final var theDocs = theSearcher.search(new TermQuery(new Term(IndexFields.RAWHASH, rawHash)), 1);
+            if (theDocs.scoreDocs.length == 0) {
+                return null;
+            }
+            theDocument = theSearcher.storedFields().document(theDocs.scoreDocs[0].doc);
+        } finally {
+            releaseSearcher(theSearcher);
+        }
+        return storedContent(theDocument, theDocument.get(IndexFields.UNIQUEID), Long.parseLong(theDocument.get(IndexFields.FILESIZE)),
+                Long.parseLong(theDocument.get(IndexFields.LASTMODIFIED)), rawHash);
+    }
+
+    /**
+     * Rebuilds the extracted content of a document from its stored fields and the content store,
+     * or returns null if its text is not available.
+     */
+    private Content storedContent(final Document document, final String fileName, final long fileSize, final long lastModified,
+            final String rawHash) throws IOException {
+        final var theText = contentOf(document);
+        if (theText == null) {
+            return null;
+        }
+        final var theContent = new Content(fileName, theText, fileSize, lastModified,
+                SupportedLanguage.valueOf(storedValue(document.getField(IndexFields.LANGUAGE))), rawHash);
+        for (final var theField : document.getFields()) {
+            final var theName = theField.name();
+            if (theName.startsWith("attr_") && storedValue(theField) != null) {
+                theContent.addMetaData(theName.substring("attr_".length()), storedValue(theField));
+            } else if (theName.startsWith(IndexFields.DATE_PREFIX) && theField.numericValue() != null) {
+                theContent.addMetaData(theName.substring(IndexFields.DATE_PREFIX.length()), new Date(theField.numericValue().longValue()));
+            } else if (theName.startsWith(IndexFields.NUMBER_PREFIX) && theField.numericValue() != null) {
+                theContent.addMetaData(theName.substring(IndexFields.NUMBER_PREFIX.length()), theField.numericValue().toString());
+            } else if (IndexFields.META.equals(theName) && theField.stringValue() != null) {
+                final var theSeparator = theField.stringValue().indexOf('=');
+                if (theSeparator > 0) {
+                    theContent.addMetaData(theField.stringValue().substring(0, theSeparator), metaValue(theField.stringValue().substring(theSeparator + 1)));
+                }
+            }
+        }
+        return theContent;
+    }
+
+    /**
+     * Updates the modification time of a file whose content did not change. The document is rebuilt
+     * from its stored fields and the content store, so the file is not extracted again. Stored value,
+     * point and doc values of the modification time are all rewritten with the new time, so they stay
+     * consistent.
+     */
+    public void updateLastModified(final String locationId, final String fileName, final long lastModified, final long fileSize,
+            final String rawHash) throws IOException {
+        final Document theDocument;
+        final var theSearcher = acquireSearcher();
+        try {
+            final var theDocs = theSearcher.search(new TermQuery(new Term(IndexFields.UNIQUEID, fileName)), 1);
+            if (theDocs.scoreDocs.length == 0) {
+                throw new IOException("No document found for " + fileName);
+            }
+            theDocument = theSearcher.storedFields().document(theDocs.scoreDocs[0].doc);
+        } finally {
+            releaseSearcher(theSearcher);
+        }
+        final var theContent = storedContent(theDocument, fileName, fileSize, lastModified, rawHash);
+        if (theContent == null) {
+            throw new IOException("No content found for " + fileName);
+        }
+        addToIndex(locationId, theContent);
+    }
+
     public void removeFromIndex(final String fileName) throws IOException {
         try {
             // Create a Term for the field and value
+            changedDuringMigration(fileName);
             final Term term = new Term(IndexFields.UNIQUEID, fileName);
             // Delete all documents matching this term
-            final long deletedCount = indexWriter.deleteDocuments(term);
-            log.debug("Deleted {} documents for file {}", deletedCount, fileName);
+            for (final var theIndex : indexes) {
+                theIndex.writer.deleteDocuments(term);
+            }
+            crawlManifest.recordRemoval(fileName);
+            log.debug("Deleted documents for file {}", fileName);
         } catch (final Exception e) {
             throw new IOException(e);
         }
     }
 
+    /**
+     * The extracted text of a document. Documents indexed before the content store existed
+     * still have it in their stored fields.
+     */
+    private String contentOf(final Document document) throws IOException {
+        final var theStoredContent = document.get(IndexFields.CONTENT);
+        if (theStoredContent != null) {
+            return theStoredContent;
+        }
+        final var theContentMD5 = document.get(IndexFields.CONTENTMD5);
+        return theContentMD5 != null ? contentStore.get(theContentMD5) : null;
+    }
+
+    /**
+     * Removes texts from the content store which are not referenced by any document anymore.
+     */
+    private void collectUnusedContent() {
+        if (migrating) {
+            // Texts of documents not migrated yet are only referenced by the old index
+            return;
+        }
+        try {
+            final long theStart = System.currentTimeMillis();
+            final IndexReader theReader;
+            contentLock.writeLock().lock();
+            try {
+                contentStore.beginCollection();
+                theReader = openReader();
+            } finally {
+                contentLock.writeLock().unlock();
+            }
+
+            final long[] theUsed;
+            try (theReader) {
+                theUsed = usedContentKeys(theReader);
+            }
+            contentStore.collectGarbage(theKey -> Arrays.binarySearch(theUsed, theKey) >= 0);
+            log.info("Collecting unused content took {} ms", System.currentTimeMillis() - theStart);
+        } catch (final Exception e) {
+            log.error("Error while collecting unused content", e);
+        }
+    }
+
+    private static long[] usedContentKeys(final IndexReader reader) throws IOException {
+        var theKeys = new long[1024];
+        var theCount = 0;
+        for (final var theLeaf : reader.leaves()) {
+            final var theTerms = theLeaf.reader().terms(IndexFields.CONTENTMD5);
+            if (theTerms == null) {
+                continue;
+            }
+            final var theLiveDocs = theLeaf.reader().getLiveDocs();
+            final var theTermsEnum = theTerms.iterator();
+            PostingsEnum thePostings = null;
+            for (var theTerm = theTermsEnum.next(); theTerm != null; theTerm = theTermsEnum.next()) {
+                thePostings = theTermsEnum.postings(thePostings, PostingsEnum.NONE);
+                for (var theDoc = thePostings.nextDoc(); theDoc != DocIdSetIterator.NO_MORE_DOCS; theDoc = thePostings.nextDoc()) {
+                    if (theLiveDocs == null || theLiveDocs.get(theDoc)) {
+                        if (theCount == theKeys.length) {
+                            theKeys = Arrays.copyOf(theKeys, theCount * 2);
+                        }
+                        theKeys[theCount++] = ContentStore.keyOf(theTerm.utf8ToString());
+                        break;
+                    }
+                }
+            }
+        }
+        final var theResult = Arrays.copyOf(theKeys, theCount);
+        Arrays.sort(theResult);
+        return theResult;
+    }
+
+    /**
+     * Highlights with the text from the content store instead of the stored fields.
+     */
+    private class ContentStoreHighlighter extends UnifiedHighlighter {
+
+        private ContentStoreHighlighter(final Builder builder) {
+            super(builder);
+        }
+
+        @Override
+        protected int getMaxNoHighlightPassages(final String field) {
+            // Without a match in the stemmed field, the unstemmed content is highlighted instead
+            return field.startsWith(IndexFields.CONTENT + "_") ? 0 : super.getMaxNoHighlightPassages(field);
+        }
+
+        @Override
+        protected List<CharSequence[]> loadFieldValues(final String[] fields, final DocIdSetIterator docIter, final int cacheCharsThreshold) throws IOException {
+            final List<CharSequence[]> theResult = new ArrayList<>();
+            final var theStoredFields = getIndexSearcher().storedFields();
+            final Set<String> theFieldsToLoad = new HashSet<>(Arrays.asList(fields));
+            theFieldsToLoad.add(IndexFields.CONTENTMD5);
+            long theChars = 0;
+            do {
+                final var theDoc = docIter.nextDoc();
+                if (theDoc == DocIdSetIterator.NO_MORE_DOCS) {
+                    break;
+                }
+                final var theDocument = theStoredFields.document(theDoc, theFieldsToLoad);
+                final var theValues = new CharSequence[fields.length];
+                String theContent = null;
+                for (var i = 0; i < fields.length; i++) {
+                    // The stemmed language fields are analyzed from the same text
+                    final String theValue;
+                    if (IndexFields.CONTENT.equals(fields[i]) || fields[i].startsWith(IndexFields.CONTENT + "_")) {
+                        if (theContent == null) {
+                            theContent = contentOf(theDocument);
+                        }
+                        theValue = theContent;
+                    } else {
+                        theValue = theDocument.get(fields[i]);
+                    }
+                    if (theValue != null) {
+                        theValues[i] = theValue.length() > getMaxLength() ? theValue.substring(0, getMaxLength()) : theValue;
+                        theChars += theValues[i].length();
+                    }
+                }
+                theResult.add(theValues);
+            } while (theChars <= cacheCharsThreshold && cacheCharsThreshold != 0);
+            return theResult;
+        }
+    }
+
+    public CrawlManifest getCrawlManifest() {
+        return crawlManifest;
+    }
+
+    public CrawlCheckpoint getCrawlCheckpoint() {
+        return crawlCheckpoint;
+    }
+
     public void shutdown() {
         try {
-            indexWriter.flush();
-            indexWriter.commit();
-            indexReader.close();
-            indexWriter.close();
+            if (migrationThread != null) {
+                // Interrupting could close the files of the writer, so the migration is asked to stop
+                migrationStopped = true;
+                migrationThread.join();
+            }
+            stopRefreshing();
+            commitScheduler.shutdown();
+            commitScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            commit();
+            searcherManager.close();
+            if (legacySearcherManager != null) {
+                legacySearcherManager.close();
+            }
+            if (searchExecutor != null) {
+                searchExecutor.shutdown();
+            }
+            facetExecutor.shutdown();
+            for (final var theIndex : indexes) {
+                theIndex.writer.close();
+            }
+            crawlManifest.close();
+            contentStore.close();
 
             final AnalyzingInfixSuggester sugg = suggester.get();
             if (sugg != null) {
@@ -317,79 +1367,241 @@ public class LuceneIndexHandler {
     }
 
     public UpdateCheckResult checkIfModified(final String fileName, final long lastModifiedTimestamp) throws IOException {
+        return checkIfModified(Map.of(fileName, lastModifiedTimestamp)).get(fileName);
+    }
 
-        final Term term = new Term(IndexFields.UNIQUEID, fileName);
+    /**
+     * Checks a batch of files against the index. The file names are sorted once and then
+     * resolved with a single forward pass over the terms dictionary of every segment.
+     * The last modification date is read from doc values, so no stored document needs
+     * to be loaded.
+     */
+    public Map<String, UpdateCheckResult> checkIfModified(final Map<String, Long> lastModifiedTimestamps) throws IOException {
+
+        final Map<String, UpdateCheckResult> theResult = new HashMap<>();
+        final var theTerms = new BytesRef[lastModifiedTimestamps.size()];
+        var i = 0;
+        for (final var theFileName : lastModifiedTimestamps.keySet()) {
+            theResult.put(theFileName, UpdateCheckResult.UPDATED);
+            theTerms[i++] = new BytesRef(theFileName);
+        }
+        Arrays.sort(theTerms);
 
+        final var theSearcher = acquireSearcher();
         try {
-            final TopDocs topDocs = indexSearcher.search(new TermQuery(term), 1000);
-            for (final var scoreDoc : topDocs.scoreDocs) {
-                final Document doc = indexSearcher.storedFields().document(scoreDoc.doc);
+            for (final LeafReaderContext theLeaf : theSearcher.getIndexReader().leaves()) {
+                final Terms theIndexedTerms = theLeaf.reader().terms(IndexFields.UNIQUEID);
+                if (theIndexedTerms == null) {
+                    continue;
+                }
+                final TermsEnum theTermsEnum = theIndexedTerms.iterator();
+                final Bits theLiveDocs = theLeaf.reader().getLiveDocs();
+                PostingsEnum thePostings = null;
+                NumericDocValues theLastModifiedValues = null;
+
+                for (final var theTerm : theTerms) {
+                    if (!theTermsEnum.seekExact(theTerm)) {
+                        continue;
+                    }
+                    final var theFileName = theTerm.utf8ToString();
+                    final long theExpected = lastModifiedTimestamps.get(theFileName);
 
-                final var theStoredLastModified = Long.parseLong(doc.get(IndexFields.LASTMODIFIED));
-                if (theStoredLastModified != lastModifiedTimestamp) {
-                    return UpdateCheckResult.UPDATED;
+                    thePostings = theTermsEnum.postings(thePostings, PostingsEnum.NONE);
+                    for (var theDoc = thePostings.nextDoc(); theDoc != DocIdSetIterator.NO_MORE_DOCS; theDoc = thePostings.nextDoc()) {
+                        if (theLiveDocs != null && !theLiveDocs.get(theDoc)) {
+                            continue;
+                        }
+
+                        // Doc values can only be iterated forward
+                        if (theLastModifiedValues == null || theLastModifiedValues.docID() > theDoc) {
+                            theLastModifiedValues = theLeaf.reader().getNumericDocValues(IndexFields.LASTMODIFIED_DV);
+                        }
+
+                        final long theStoredLastModified;
+                        if (theLastModifiedValues != null && theLastModifiedValues.advanceExact(theDoc)) {
+                            theStoredLastModified = theLastModifiedValues.longValue();
+                        } else {
+                            // Document was indexed by an older version without doc values
+                            final var theDocument = theLeaf.reader().storedFields().document(theDoc, Set.of(IndexFields.LASTMODIFIED));
+                            theStoredLastModified = Long.parseLong(theDocument.get(IndexFields.LASTMODIFIED));
+                        }
+
+                        if (theStoredLastModified == theExpected) {
+                            theResult.put(theFileName, UpdateCheckResult.UNMODIFIED);
+                        }
+                    }
                 }
-                return UpdateCheckResult.UNMODIFIED;
             }
-            return UpdateCheckResult.UPDATED;
+            return theResult;
         } catch (final Exception e) {
             throw new IOException(e);
+        } finally {
+            releaseSearcher(theSearcher);
+        }
+    }
+
+    /**
+     * The stemmed content fields to search. Documents in languages which are not enabled are
+     * indexed with the default language.
+     */
+    private static Set<String> languageFields(final Configuration configuration) {
+        final Set<String> theResult = new TreeSet<>();
+        theResult.add(SupportedLanguage.getDefault().getContentField());
+        for (final var theLanguage : configuration.getEnabledLanguages()) {
+            theResult.add(theLanguage.getContentField());
         }
+        return theResult;
+    }
+
+    private static String prefixField(final Configuration configuration) {
+        return configuration.isPrefixSearch() ? IndexFields.CONTENT_PREFIX : null;
     }
 
-    private long indexSize() {
-        return indexReader.numDocs();
+    /**
+     * Checks if every document with content also has the prefix field. Documents indexed before prefix
+     * search was enabled are unchanged files, so they are not indexed again.
+     */
+    private static boolean hasCompletePrefixField(final IndexReader reader) throws IOException {
+        long theContentDocuments = 0;
+        long thePrefixDocuments = 0;
+        for (final var theLeaf : reader.leaves()) {
+            final var theContent = theLeaf.reader().terms(IndexFields.CONTENT);
+            final var thePrefix = theLeaf.reader().terms(IndexFields.CONTENT_PREFIX);
+            theContentDocuments += theContent != null ? theContent.getDocCount() : 0;
+            thePrefixDocuments += thePrefix != null ? thePrefix.getDocCount() : 0;
+        }
+        return thePrefixDocuments >= theContentDocuments;
     }
 
     private String getOrNull(final Document document, final String fieldName) {
-        final String value = document.get(fieldName);
+        final String value = storedValue(document.getField(fieldName));
         if (value == null || value.trim().isEmpty()) {
             return null;
         }
         return value;
     }
 
-    public synchronized QueryResult performQuery(final String queryString, final Configuration configuration, final MultiValueMap<String, String> drilldownFields) {
+    private static MultiValueMap<String, String> copyOf(final MultiValueMap<String, String> parameters) {
+        final MultiValueMap<String, String> theResult = new LinkedMultiValueMap<>();
+        parameters.forEach((theKey, theValues) -> theResult.put(theKey, new ArrayList<>(theValues)));
+        return theResult;
+    }
+
+    private static void removeFilter(final MultiValueMap<String, String> parameters, final String filterParam, final String value) {
+        final var theValues = parameters.get(filterParam);
+        theValues.remove(value);
+        if (theValues.isEmpty()) {
+            parameters.remove(filterParam);
+        }
+    }
+
+    private static String searchLink(final MultiValueMap<String, String> parameters) {
+        final UriComponentsBuilder linkBuilder = UriComponentsBuilder.fromPath("/search");
+        for (final Map.Entry<String, List<String>> e : parameters.entrySet()) {
+            linkBuilder.queryParam(e.getKey(), e.getValue());
+        }
+        return linkBuilder.encode().toUriString();
+    }
 
+    /**
+     * The hits to count the facets of a dimension on. A drilled down dimension is counted on its
+     * sideways hits, so its other values keep their counts.
+     */
+    private static FacetsCollector facetHits(final DrillSideways.DrillSidewaysResult result, final String dim) {
+        if (result.drillSidewaysDims != null) {
+            for (var i = 0; i < result.drillSidewaysDims.length; i++) {
+                if (result.drillSidewaysDims[i].equals(dim)) {
+                    return result.drillSidewaysFacetsCollector[i];
+                }
+            }
+        }
+        return result.drillDownFacetsCollector;
+    }
+
+    private static void addFacetDimension(final List<FacetDimension> facetDimensions, final FacetResult dimension, final String title,
+            final Function<String, String> labels, final MultiValueMap<String, String> drilldownFields) {
+        final String filterParam = "filter" + dimension.dim;
+        final List<String> selectedValues = drilldownFields.getOrDefault(filterParam, List.of());
+        final List<Facet> facetValues = new ArrayList<>();
+        for (final LabelAndValue facet : dimension.labelValues) {
+            final boolean selected = selectedValues.contains(facet.label);
+            if (facet.value.longValue() == 0 && !selected) {
+                continue;
+            }
+            // Querystring is already part of the map, a link toggles the value in the selection
+            final MultiValueMap<String, String> linkParams = copyOf(drilldownFields);
+            if (selected) {
+                removeFilter(linkParams, filterParam, facet.label);
+            } else {
+                linkParams.add(filterParam, facet.label);
+            }
+            facetValues.add(new Facet(labels.apply(facet.label), facet.value.longValue(), searchLink(linkParams), selected));
+        }
+        if (!facetValues.isEmpty()) {
+            facetDimensions.add(new FacetDimension(dimension.dim, title, facetValues));
+        }
+    }
+
+    public QueryResult performQuery(final String queryString, final Configuration configuration, final MultiValueMap<String, String> drilldownFields) {
+
+        IndexSearcher indexSearcher = null;
         try {
+            indexSearcher = acquireSearcher();
+            final var theFacetStates = facetStatesFor(indexSearcher);
+
             final long startTime = System.currentTimeMillis();
-            final Query query = queryParser.parse(queryString, IndexFields.CONTENT, configuration.isDefaultFuzzySearch(), configuration.getFuzzySearchEditDistance());
+            final Query query = queryParser.parse(queryString, IndexFields.CONTENT, languageFields(configuration), prefixField(configuration),
+                    hasCompletePrefixField(indexSearcher.getIndexReader()), configuration.isDefaultFuzzySearch(), configuration.getFuzzySearchEditDistance());
 
             final List<QueryResultDocument> documents = new ArrayList<>();
 
-            final FacetsCollectorManager facetsCollectorManager = new FacetsCollectorManager();
-            final BooleanQuery.Builder drillDownQueryBuilder = new BooleanQuery.Builder();
-            drillDownQueryBuilder.add(query, BooleanClause.Occur.MUST);
+            // Drilldowns only filter the hits, values of the same dimension are alternatives
+            final DrillDownQuery drilldownQuery = new DrillDownQuery(facetsConfig, query);
 
             final List<QueryFilter> activeFilters = new ArrayList<>();
             for (final Map.Entry<String, List<String>> entry : drilldownFields.entrySet()) {
                 final String key = entry.getKey();
                 if (key.startsWith("filter")) {
                     final String dim = key.substring("filter".length());
+                    final RangeField rangeField = RangeField.forName(dim);
                     for (final String value : entry.getValue()) {
-                        drillDownQueryBuilder.add(KeywordField.newExactQuery(dim, value), BooleanClause.Occur.MUST);
-
-                        final UriComponentsBuilder linkBuilder = UriComponentsBuilder.fromPath("/search");
-                        for (final Map.Entry<String, List<String>> e : drilldownFields.entrySet()) {
-                            if (!e.getKey().equals(key)) {
-                                linkBuilder.queryParam(e.getKey(), e.getValue());
-                            }
+                        final Query filter = rangeField != null ? rangeField.newRangeQuery(value, startTime) : KeywordField.newExactQuery(dim, value);
+                        if (filter == null) {
+                            continue;
                         }
-
-                        activeFilters.add(new QueryFilter(facetFieldToTitle.get(dim), linkBuilder.encode().toUriString()));
+                        drilldownQuery.add(dim, filter);
+
+                        final MultiValueMap<String, String> linkParams = copyOf(drilldownFields);
+                        removeFilter(linkParams, key, value);
+                        final String name = rangeField != null
+                                ? rangeField.getTitle() + ": " + rangeField.bucketLabel(value)
+                                : facetFieldToTitle.get(dim) + ": " + value;
+                        activeFilters.add(new QueryFilter(name, searchLink(linkParams)));
                     }
                 }
             }
 
+            // All dimensions are counted in one pass over the hits, a drilled down dimension is counted
+            // on the hits matching all other drilldowns. These sideways hits are collected by the same query.
+            final DrillSideways drillSideways = new DrillSideways(indexSearcher, facetsConfig, (TaxonomyReader) null) {
+                @Override
+                protected Facets buildFacetsResult(final FacetsCollector drillDowns, final FacetsCollector[] drillSideways, final String[] drillSidewaysDims) throws IOException {
+                    return new FacetFieldCounts(theFacetStates.states, drillDowns, drillSidewaysDims, drillSideways);
+                }
+            };
+
             final long searchStart = System.currentTimeMillis();
-            final Query drilldownQuery = drillDownQueryBuilder.build();
-            final FacetsCollectorManager.FacetsResult facetResult = FacetsCollectorManager.search(indexSearcher, drilldownQuery, this.configuration.getNumberOfSearchResults(), facetsCollectorManager);
+            final DrillSideways.DrillSidewaysResult facetResult = drillSideways.search(drilldownQuery, this.configuration.getNumberOfSearchResults());
             final long searchDuration = System.currentTimeMillis() - searchStart;
             log.info("Search for '{}' took {} ms", drilldownQuery, searchDuration);
             final StoredFields storedFields = indexSearcher.storedFields();
-            final TopDocs topDocs = facetResult.topDocs();
+            final TopDocs topDocs = facetResult.hits;
 
             final long docFetchStart = System.currentTimeMillis();
+            final Set<String> fieldsToLoad = new HashSet<>(Set.of(IndexFields.UNIQUEID, IndexFields.LASTMODIFIED));
+            for (final String titleKey : TITLE_METADATA) {
+                fieldsToLoad.add("attr_" + titleKey);
+            }
             for (final var scoreDoc : topDocs.scoreDocs) {
                 storedFields.prefetch(scoreDoc.doc);
             }
@@ -397,14 +1609,7 @@ public class LuceneIndexHandler {
             for (int i = 0; i < topDocs.scoreDocs.length; i++) {
                 final var scoreDoc = topDocs.scoreDocs[i];
 
-                final Document doc = storedFields.document(scoreDoc.doc,
-                        Set.of(IndexFields.UNIQUEID,
-                               IndexFields.LASTMODIFIED,
-                               "attr_" + DublinCore.TITLE,
-                               "attr_title",
-                               "attr_" + PDF.DOC_INFO_TITLE.getName(),
-                               "attr_" + TikaCoreProperties.TITLE.getName(),
-                               "attr_" + DublinCore.SUBJECT.getName()));
+                final Document doc = storedFields.document(scoreDoc.doc, fieldsToLoad);
 
                 final var theFileName = doc.get(IndexFields.UNIQUEID);
                 final var theStoredLastModified = Long.parseLong(doc.get(IndexFields.LASTMODIFIED));
@@ -420,18 +1625,12 @@ public class LuceneIndexHandler {
                     // Try to extract the title from the metadata
                     var theTitle = theFileName;
                     if (configuration.isUseTitleAsFilename()) {
-                        theTitle = getOrNull(doc, "attr_" + DublinCore.TITLE);
-                        if (theTitle == null) {
-                            theTitle = getOrNull(doc, "attr_" + PDF.DOC_INFO_TITLE.getName());
-                        }
-                        if (theTitle == null) {
-                            theTitle = getOrNull(doc, "attr_title");
-                        }
-                        if (theTitle == null) {
-                            theTitle = getOrNull(doc,"attr_" + TikaCoreProperties.TITLE.getName());
-                        }
-                        if (theTitle == null) {
-                            theTitle = getOrNull(doc, "attr_" + DublinCore.SUBJECT.getName());
+                        // Metadata names are stored without their namespace prefix
+                        theTitle = null;
+                        for (final String titleKey : TITLE_METADATA) {
+                            if (theTitle == null) {
+                                theTitle = getOrNull(doc, "attr_" + titleKey);
+                            }
                         }
                         if (theTitle == null) {
                             theTitle = theFileName;
@@ -452,29 +1651,14 @@ public class LuceneIndexHandler {
 
             final long computeFacetsStart = System.currentTimeMillis();
             final List<FacetDimension> facetDimensions = new ArrayList<>();
-            for (final Map.Entry<String, SortedSetDocValuesReaderState> entry : facetStatesCache.entrySet()) {
-                final String filterParam = "filter" + entry.getKey();
-                if (!drilldownFields.containsKey(filterParam)) {
-                    final String facetField = entry.getKey();
-                    final SortedSetDocValuesReaderState state = entry.getValue();
-                    final Facets facets = new SortedSetDocValuesFacetCounts(state, facetResult.facetsCollector());
-                    final List<Facet> facetValues = new ArrayList<>();
-                    for (final FacetResult facet : facets.getAllDims(this.configuration.getFacetCount())) {
-
-                        // Querystring is already part of the map
-                        final MultiValueMap<String, String> linkParams = new LinkedMultiValueMap<>(drilldownFields);
-                        linkParams.add(filterParam, facet.dim);
-
-                        final UriComponentsBuilder linkBuilder = UriComponentsBuilder.fromPath("/search");
-                        for (final Map.Entry<String, List<String>> e : linkParams.entrySet()) {
-                            linkBuilder.queryParam(e.getKey(), e.getValue());
-                        }
-                        facetValues.add(new Facet(facet.dim, facet.value.longValue(), linkBuilder.encode().toUriString()));
-                    }
-                    if (!facetValues.isEmpty()) {
-                        facetDimensions.add(new FacetDimension(facetField, facetFieldToTitle.get(facetField), facetValues));
-                    }
-                }
+            for (final FacetResult dimension : facetResult.facets.getAllDims(this.configuration.getFacetCount())) {
+                addFacetDimension(facetDimensions, dimension, facetFieldToTitle.get(dimension.dim), label -> label, drilldownFields);
+            }
+            // Range facets are counted on the doc values, their buckets are relative to the time of the query
+            for (final RangeField rangeField : RANGE_FACETS) {
+                final Facets rangeFacets = new LongRangeFacetCounts(rangeField.getName(), rangeField.facetValues(),
+                        facetHits(facetResult, rangeField.getName()), rangeField.facetRanges(startTime));
+                addFacetDimension(facetDimensions, rangeFacets.getAllChildren(rangeField.getName()), rangeField.getTitle(), rangeField::bucketLabel, drilldownFields);
             }
             final long computeFacetsDuration = System.currentTimeMillis() - computeFacetsStart;
             log.info("Computing facets took {} ms", computeFacetsDuration);
@@ -482,10 +1666,18 @@ public class LuceneIndexHandler {
             final long elapsedTime = System.currentTimeMillis() - startTime;
             log.info("Complete query took {} ms", elapsedTime);
 
-            return new QueryResult(queryString, elapsedTime, documents, facetDimensions, indexSize(), activeFilters);
+            return new QueryResult(queryString, elapsedTime, documents, facetDimensions, indexSearcher.getIndexReader().numDocs(), activeFilters);
 
         } catch (final Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            if (indexSearcher != null) {
+                try {
+                    releaseSearcher(indexSearcher);
+                } catch (final IOException e) {
+                    log.error("Error while releasing searcher", e);
+                }
+            }
         }
     }
 
@@ -513,30 +1705,58 @@ public class LuceneIndexHandler {
         return new File(aUniqueID);
     }
 
-    public String highlight(final String queryString, final int luceneDocumentId) {
+    /**
+     * Highlights the matches of a query in a file. The file is looked up by name, as document
+     * ids change whenever the searchers are refreshed.
+     */
+    public String highlight(final String queryString, final String fileName) {
 
-        final UnifiedHighlighter highlighter = new UnifiedHighlighter.Builder(indexSearcher, analyzer)
-                .withMaxLength(1_000_000)
-                .withFormatter(new DefaultPassageFormatter())
-                .withBreakIterator(() -> BreakIterator.getSentenceInstance(Locale.getDefault()))
-                .build();
+        IndexSearcher indexSearcher = null;
+        try {
+            indexSearcher = acquireSearcher();
+            final var theDocs = indexSearcher.search(new TermQuery(new Term(IndexFields.UNIQUEID, fileName)), 1);
+            if (theDocs.scoreDocs.length == 0) {
+                return null;
+            }
+            final int luceneDocumentId = theDocs.scoreDocs[0].doc;
 
-        final TotalHits totalHits = new TotalHits(1, TotalHits.Relation.EQUAL_TO);
-        final ScoreDoc scoreDoc = new ScoreDoc(luceneDocumentId, 1.0f);
-        final TopDocs topDocs = new TopDocs(totalHits, new ScoreDoc[] {scoreDoc});
+            final UnifiedHighlighter highlighter = new ContentStoreHighlighter(new UnifiedHighlighter.Builder(indexSearcher, analyzer)
+                    .withMaxLength(1_000_000)
+                    .withFormatter(new DefaultPassageFormatter())
+                    .withBreakIterator(() -> BreakIterator.getSentenceInstance(Locale.getDefault())));
 
-        try {
-            final Query query = queryParser.parse(queryString, IndexFields.CONTENT, configuration.isDefaultFuzzySearch(), configuration.getFuzzySearchEditDistance());
+            final TotalHits totalHits = new TotalHits(1, TotalHits.Relation.EQUAL_TO);
+            final ScoreDoc scoreDoc = new ScoreDoc(luceneDocumentId, 1.0f);
+            final TopDocs topDocs = new TopDocs(totalHits, new ScoreDoc[] {scoreDoc});
+
+            final Query query = queryParser.parse(queryString, IndexFields.CONTENT, languageFields(configuration), prefixField(configuration),
+                    hasCompletePrefixField(indexSearcher.getIndexReader()), configuration.isDefaultFuzzySearch(), configuration.getFuzzySearchEditDistance());
 
             // Perform highlighting
             final long highlightStart = System.currentTimeMillis();
-            final String[] highlights = highlighter.highlight(IndexFields.CONTENT, query, topDocs, NUMBER_OF_HIGHLIGHT_PASSAGES);
+            // Passages matching the stems are preferred, wildcard and fuzzy terms only match the unstemmed content
+            final var theLanguage = storedValue(indexSearcher.storedFields().document(luceneDocumentId, Set.of(IndexFields.LANGUAGE)).getField(IndexFields.LANGUAGE));
+            if (theLanguage == null) {
+                return highlighter.highlight(IndexFields.CONTENT, query, topDocs, NUMBER_OF_HIGHLIGHT_PASSAGES)[0];
+            }
+            final var theLanguageField = SupportedLanguage.valueOf(theLanguage).getContentField();
+            final Map<String, String[]> highlights = highlighter.highlightFields(new String[] {theLanguageField, IndexFields.CONTENT}, query, topDocs,
+                    new int[] {NUMBER_OF_HIGHLIGHT_PASSAGES, NUMBER_OF_HIGHLIGHT_PASSAGES});
             final long highlightDuration = System.currentTimeMillis() - highlightStart;
             log.info("Highlighting took {} ms", highlightDuration);
 
-            return highlights[0];
+            final var theStemmedHighlight = highlights.get(theLanguageField)[0];
+            return theStemmedHighlight != null ? theStemmedHighlight : highlights.get(IndexFields.CONTENT)[0];
         } catch (final Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            if (indexSearcher != null) {
+                try {
+                    releaseSearcher(indexSearcher);
+                } catch (final IOException e) {
+                    log.error("Error while releasing searcher", e);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,154 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One stage of the indexing pipeline. Work is handed over using a bounded queue, so
+ * submitting blocks as soon as the stage cannot keep up. This way backpressure is
+ * propagated back to the producer. Each stage is served by its own pool of workers.
+ * Workers can take several queued items at once, so a stage can process a whole
+ * batch with a single call. The queue decides about the order in which items are
+ * processed.
+ */
+@Slf4j
+public class PipelineStage<T> {
+
+    private final String name;
+    private final BlockingQueue<T> queue;
+    private final int batchSize;
+    private final Consumer<List<T>> handler;
+    private final List<Thread> workers;
+    private final AtomicLong pending;
+    private volatile boolean stopped;
+
+    public PipelineStage(final String name, final int queueCapacity, final int numberOfWorkers, final ThreadFactory threadFactory, final Consumer<T> handler) {
+        this(name, new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), numberOfWorkers, threadFactory, handler);
+    }
+
+    public PipelineStage(final String name, final BlockingQueue<T> queue, final int numberOfWorkers, final ThreadFactory threadFactory, final Consumer<T> handler) {
+        this(name, queue, numberOfWorkers, threadFactory, 1, items -> handler.accept(items.getFirst()));
+    }
+
+    public PipelineStage(final String name, final BlockingQueue<T> queue, final int numberOfWorkers, final ThreadFactory threadFactory, final int batchSize, final Consumer<List<T>> handler) {
+        this.name = name;
+        this.queue = queue;
+        this.batchSize = Math.max(1, batchSize);
+        this.handler = handler;
+        this.workers = new ArrayList<>();
+        this.pending = new AtomicLong();
+
+        for (var i = 0; i < Math.max(1, numberOfWorkers); i++) {
+            final var theWorker = threadFactory.newThread(this::work);
+            workers.add(theWorker);
+            theWorker.start();
+        }
+    }
+
+    private void work() {
+        while (!stopped && !Thread.currentThread().isInterrupted()) {
+            final List<T> theItems = new ArrayList<>();
+            try {
+                // Workers are never interrupted while handling items, they check for shutdown in between
+                final var theItem = queue.poll(1, TimeUnit.SECONDS);
+                if (theItem == null) {
+                    continue;
+                }
+                theItems.add(theItem);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (batchSize > 1) {
+                queue.drainTo(theItems, batchSize - 1);
+            }
+            try {
+                handler.accept(theItems);
+            } catch (final Exception e) {
+                log.error("Error in pipeline stage {}", name, e);
+            } finally {
+                pending.addAndGet(-theItems.size());
+            }
+        }
+        log.debug("Worker for pipeline stage {} stopped", name);
+    }
+
+    /**
+     * Hands an item over to this stage. Blocks while the queue of this stage is full. Returns
+     * false if the item was not accepted, because the stage was stopped or the caller interrupted.
+     */
+    public boolean submit(final T item) {
+        pending.incrementAndGet();
+        try {
+            // Waits in steps, so producers are released once the stage is stopped
+            while (!stopped) {
+                if (queue.offer(item, 1, TimeUnit.SECONDS)) {
+                    return true;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while submitting to pipeline stage {}", name);
+        }
+        pending.decrementAndGet();
+        return false;
+    }
+
+    /**
+     * Number of items queued or currently processed by this stage.
+     */
+    public long pending() {
+        return pending.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Stops the workers and waits until they finished their current items. Queued items are
+     * dropped, and producers waiting for space in the queue are released. Interrupting the
+     * workers instead could abort index writes.
+     */
+    public void shutdown() {
+        stopped = true;
+        for (final var theWorker : workers) {
+            try {
+                theWorker.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while waiting for pipeline stage {} to stop", name);
+                return;
+            }
+        }
+        final List<T> theDropped = new ArrayList<>();
+        queue.drainTo(theDropped);
+        pending.addAndGet(-theDropped.size());
+        if (!theDropped.isEmpty()) {
+            log.info("Dropped {} queued items of pipeline stage {}", theDropped.size(), name);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A bounded blocking queue with two lanes. Urgent items are served first in FIFO order,
+ * all other items are served in the order of the given comparator. Two rules prevent
+ * starvation:
+ *
+ * <ul>
+ *     <li>After a number of urgent items, one waiting item of the normal lane is served.</li>
+ *     <li>Items of the normal lane are grouped into epochs of one queue capacity. Items of
+ *     an older epoch are always served before items of a newer one, so the comparator
+ *     only reorders items which were submitted around the same time.</li>
+ * </ul>
+ */
+public class PriorityLaneQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+
+    private static final int MAX_CONSECUTIVE_URGENT = 8;
+
+    private static final class Entry<T> {
+
+        private final T item;
+        private final long epoch;
+        private final long sequence;
+
+        private Entry(final T item, final long epoch, final long sequence) {
+            this.item = item;
+            this.epoch = epoch;
+            this.sequence = sequence;
+        }
+    }
+
+    private final int capacity;
+    private final Predicate<? super T> urgent;
+    private final Queue<T> urgentLane;
+    private final PriorityQueue<Entry<T>> normalLane;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition urgentNotFull;
+    private final Condition normalNotFull;
+    private long normalSequence;
+    private int consecutiveUrgent;
+
+    public PriorityLaneQueue(final int capacity, final Predicate<? super T> urgent, final Comparator<? super T> normalOrder) {
+        this.capacity = Math.max(1, capacity);
+        this.urgent = urgent;
+        this.urgentLane = new ArrayDeque<>();
+        this.normalLane = new PriorityQueue<>(Comparator.<Entry<T>>comparingLong(e -> e.epoch)
+                .thenComparing((a, b) -> normalOrder.compare(a.item, b.item))
+                .thenComparingLong(e -> e.sequence));
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.urgentNotFull = lock.newCondition();
+        this.normalNotFull = lock.newCondition();
+    }
+
+    private boolean isFull(final boolean isUrgent) {
+        return isUrgent ? urgentLane.size() >= capacity : normalLane.size() >= capacity;
+    }
+
+    private void enqueue(final T item, final boolean isUrgent) {
+        if (isUrgent) {
+            urgentLane.add(item);
+        } else {
+            final var theSequence = normalSequence++;
+            normalLane.add(new Entry<>(item, theSequence / capacity, theSequence));
+        }
+        notEmpty.signal();
+    }
+
+    private T dequeue() {
+        final T theResult;
+        if (!urgentLane.isEmpty() && (normalLane.isEmpty() || consecutiveUrgent < MAX_CONSECUTIVE_URGENT)) {
+            theResult = urgentLane.poll();
+            consecutiveUrgent++;
+            urgentNotFull.signal();
+        } else {
+            theResult = normalLane.poll().item;
+            consecutiveUrgent = 0;
+            normalNotFull.signal();
+        }
+        return theResult;
+    }
+
+    @Override
+    public boolean offer(final T item) {
+        final var isUrgent = urgent.test(item);
+        lock.lock();
+        try {
+            if (isFull(isUrgent)) {
+                return false;
+            }
+            enqueue(item, isUrgent);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(final T item, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final var isUrgent = urgent.test(item);
+        var theNanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (isFull(isUrgent)) {
+                if (theNanos <= 0) {
+                    return false;
+                }
+                theNanos = (isUrgent ? urgentNotFull : normalNotFull).awaitNanos(theNanos);
+            }
+            enqueue(item, isUrgent);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final T item) throws InterruptedException {
+        final var isUrgent = urgent.test(item);
+        lock.lockInterruptibly();
+        try {
+            while (isFull(isUrgent)) {
+                (isUrgent ? urgentNotFull : normalNotFull).await();
+            }
+            enqueue(item, isUrgent);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (urgentLane.isEmpty() && normalLane.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        var theNanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (urgentLane.isEmpty() && normalLane.isEmpty()) {
+                if (theNanos <= 0) {
+                    return null;
+                }
+                theNanos = notEmpty.awaitNanos(theNanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll() {
+        lock.lock();
+        try {
+            if (urgentLane.isEmpty() && normalLane.isEmpty()) {
+                return null;
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T peek() {
+        lock.lock();
+        try {
+            if (!urgentLane.isEmpty() && (normalLane.isEmpty() || consecutiveUrgent < MAX_CONSECUTIVE_URGENT)) {
+                return urgentLane.peek();
+            }
+            final var theEntry = normalLane.peek();
+            return theEntry != null ? theEntry.item : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> target, final int maxElements) {
+        lock.lock();
+        try {
+            var theCount = 0;
+            while (theCount < maxElements && !(urgentLane.isEmpty() && normalLane.isEmpty())) {
+                target.add(dequeue());
+                theCount++;
+            }
+            return theCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - normalLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return urgentLane.size() + normalLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of urgent items currently waiting.
+     */
+    public int urgentSize() {
+        lock.lock();
+        try {
+            return urgentLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the queued items in no particular order.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        lock.lock();
+        try {
+            final List<T> theItems = new ArrayList<>(urgentLane);
+            normalLane.forEach(e -> theItems.add(e.item));
+            return Collections.unmodifiableList(theItems).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.apache.lucene.queries.spans.SpanTermQuery;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
 import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
@@ -33,18 +34,26 @@ import org.apache.lucene.search.WildcardQuery;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 public class QueryParser {
 
     private final Analyzer analyzer;
+    // The prefix field is queried with whole tokens, not with their n-grams
+    private final Analyzer prefixAnalyzer;
 
     public QueryParser(final Analyzer analyzer) {
         this.analyzer = analyzer;
+        this.prefixAnalyzer = new DesktopSearchAnalyzer(false);
     }
 
     private String toToken(final String aToken, final String aSearchField) throws IOException {
-        try (final var theStream = analyzer.tokenStream(aSearchField, aToken)) {
+        return toToken(analyzer, aToken, aSearchField);
+    }
+
+    private static String toToken(final Analyzer aAnalyzer, final String aToken, final String aSearchField) throws IOException {
+        try (final var theStream = aAnalyzer.tokenStream(aSearchField, aToken)) {
             final var theAttribute = theStream.getAttribute(CharTermAttribute.class);
             theStream.reset();
             if (theStream.incrementToken()) {
@@ -54,71 +63,215 @@ public class QueryParser {
         return "";
     }
 
+    /**
+     * The token to look up in the prefix field, or null if the term is too short or too long to
+     * be found by its n-grams.
+     */
+    private String toPrefixToken(final String aTerm, final String aPrefixField) throws IOException {
+        final var theToken = toToken(prefixAnalyzer, StringUtils.removeEnd(aTerm, QueryUtils.ASTERISK), aPrefixField);
+        if (theToken.length() < DesktopSearchAnalyzer.MIN_GRAM_SIZE || theToken.length() > DesktopSearchAnalyzer.MAX_GRAM_SIZE) {
+            return null;
+        }
+        return theToken;
+    }
+
+    /**
+     * Query for a single term. Plain terms are also looked up in the stemmed language fields, so
+     * other forms of a word are found without expanding it with a fuzzy query. With a prefix field,
+     * prefix wildcards and the partial term typed last are looked up as a single n-gram. As long as
+     * not every document has the prefix field, prefix wildcards are also expanded in the search field.
+     */
+    private Query toTermQuery(final String aTerm, final boolean aPartial, final String aSearchField, final Collection<String> aLanguageFields, final String aPrefixField,
+            final boolean aPrefixFieldComplete, final boolean defaultFuzzy, final int fuzzyEditDistance) throws IOException {
+        final var thePrefixToken = aPrefixField != null && (aPartial || QueryUtils.isPrefix(aTerm)) ? toPrefixToken(aTerm, aPrefixField) : null;
+        if (thePrefixToken != null && QueryUtils.isPrefix(aTerm) && aPrefixFieldComplete) {
+            return new TermQuery(new Term(aPrefixField, thePrefixToken));
+        }
+
+        final List<Query> theQueries = new ArrayList<>();
+        if (thePrefixToken != null) {
+            theQueries.add(new TermQuery(new Term(aPrefixField, thePrefixToken)));
+        }
+        if (QueryUtils.isWildCard(aTerm)) {
+            theQueries.add(new WildcardQuery(new Term(aSearchField, aTerm)));
+        } else if (QueryUtils.isFuzzy(aTerm) || defaultFuzzy) {
+            theQueries.add(new FuzzyQuery(new Term(aSearchField, aTerm), fuzzyEditDistance));
+        } else {
+            final var theTokenizedTerm = toToken(aTerm, aSearchField);
+            if (!StringUtils.isEmpty(theTokenizedTerm)) {
+                theQueries.add(new TermQuery(new Term(aSearchField, theTokenizedTerm)));
+            }
+        }
+        if (!QueryUtils.isWildCard(aTerm) && !QueryUtils.isFuzzy(aTerm)) {
+            for (final var theLanguageField : aLanguageFields) {
+                final var theStemmedTerm = toToken(aTerm, theLanguageField);
+                if (!StringUtils.isEmpty(theStemmedTerm)) {
+                    theQueries.add(new TermQuery(new Term(theLanguageField, theStemmedTerm)));
+                }
+            }
+        }
+        if (theQueries.isEmpty()) {
+            return null;
+        }
+        if (theQueries.size() == 1) {
+            return theQueries.get(0);
+        }
+        return new DisjunctionMaxQuery(theQueries, 0);
+    }
+
     private void addToBooleanQuery(
-            final List<String> aTermList, final String aFieldName, final BooleanQuery.Builder aQuery, final BooleanClause.Occur aOccour, final boolean defaultFuzzy, final int fuzzyEditDistance)
-            throws IOException {
+            final List<String> aTermList, final String aPartialTerm, final String aFieldName, final Collection<String> aLanguageFields, final String aPrefixField,
+            final boolean aPrefixFieldComplete, final BooleanQuery.Builder aQuery, final BooleanClause.Occur aOccour, final boolean defaultFuzzy,
+            final int fuzzyEditDistance) throws IOException {
         for (final var theTerm : aTermList) {
+            final var theQuery = toTermQuery(theTerm, theTerm.equals(aPartialTerm), aFieldName, aLanguageFields, aPrefixField, aPrefixFieldComplete,
+                    defaultFuzzy, fuzzyEditDistance);
+            if (theQuery != null) {
+                aQuery.add(theQuery, aOccour);
+            }
+        }
+
+    }
+
+    /**
+     * The span queries for the terms in the unstemmed search field.
+     */
+    private List<SpanQuery> toSpans(final List<String> aTermList, final String aSearchField, final String aPrefixField, final boolean aPrefixFieldComplete,
+            final boolean defaultFuzzy, final int fuzzyEditDistance) throws IOException {
+        final List<SpanQuery> theSpans = new ArrayList<>();
+        for (final var theTerm : aTermList) {
+            if (aPrefixField != null && aPrefixFieldComplete && QueryUtils.isPrefix(theTerm) && toPrefixToken(theTerm, aPrefixField) != null) {
+                // Looked up in the prefix field, so the wildcard is not expanded here either
+                continue;
+            }
             if (QueryUtils.isWildCard(theTerm)) {
-                aQuery.add(new WildcardQuery(new Term(aFieldName, theTerm)), aOccour);
+                theSpans.add(new SpanMultiTermQueryWrapper<>(new WildcardQuery(new Term(aSearchField, theTerm))));
             } else if (QueryUtils.isFuzzy(theTerm) || defaultFuzzy) {
-                aQuery.add(new FuzzyQuery(new Term(aFieldName, theTerm), fuzzyEditDistance), aOccour);
+                theSpans.add(new SpanMultiTermQueryWrapper<>(new FuzzyQuery(new Term(aSearchField, theTerm), fuzzyEditDistance)));
             } else {
-                final var theTokenizedTerm = toToken(theTerm, aFieldName);
+                // Ok, we need to check of the token would be removed due to stopwords and so on
+                final var theTokenizedTerm = toToken(theTerm, aSearchField);
                 if (!StringUtils.isEmpty(theTokenizedTerm)) {
-                    aQuery.add(new TermQuery(new Term(aFieldName, theTokenizedTerm)), aOccour);
+                    theSpans.add(new SpanTermQuery(new Term(aSearchField, theTokenizedTerm)));
                 }
             }
         }
+        return theSpans;
+    }
 
+    /**
+     * The span queries for the terms in a stemmed language field, or an empty list if the terms
+     * contain wildcards or fuzzy terms, which cannot be matched against stems.
+     */
+    private List<SpanQuery> toStemmedSpans(final List<String> aTermList, final String aLanguageField) throws IOException {
+        final List<SpanQuery> theSpans = new ArrayList<>();
+        for (final var theTerm : aTermList) {
+            if (QueryUtils.isWildCard(theTerm) || QueryUtils.isFuzzy(theTerm)) {
+                return List.of();
+            }
+            final var theStemmedTerm = toToken(theTerm, aLanguageField);
+            if (!StringUtils.isEmpty(theStemmedTerm)) {
+                theSpans.add(new SpanTermQuery(new Term(aLanguageField, theStemmedTerm)));
+            }
+        }
+        return theSpans;
     }
 
-    public Query parse(final String aQuery, final String aSearchField, final boolean defaultFuzzy, final int fuzzyEditDistance) throws IOException {
+    private void addProximityQueries(final List<SpanQuery> aSpans, final BooleanQuery.Builder aQuery) {
+        if (aSpans.size() > 1) {
+            // This is the original span, so we boost it a lot
+            final SpanQuery theExactMatchQuery = new SpanNearQuery(aSpans.toArray(new SpanQuery[0]), 0, true);
+            aQuery.add(new BoostQuery(theExactMatchQuery, 61), BooleanClause.Occur.SHOULD);
+
+            // We expect a maximum edit distance of 10 between the searched terms in any order
+            // This seems to be the most useful value
+            final var theMaxEditDistance = 10;
+            for (var theSlop = 0; theSlop < theMaxEditDistance; theSlop++) {
+                final SpanQuery theNearQuery = new SpanNearQuery(aSpans.toArray(new SpanQuery[0]), theSlop, false);
+                aQuery.add(new BoostQuery(theNearQuery, 50 + theMaxEditDistance - theSlop), BooleanClause.Occur.SHOULD);
+            }
+        }
+    }
+
+    /**
+     * Moves the range filters like size:>10mb from the terms to the filters.
+     */
+    private static List<String> extractRangeFilters(final List<String> aTermList, final long aNow, final List<Query> aFilters) {
+        final List<String> theTerms = new ArrayList<>();
+        for (final var theTerm : aTermList) {
+            final var theFilter = RangeField.parseTerm(theTerm, aNow);
+            if (theFilter != null) {
+                aFilters.add(theFilter);
+            } else {
+                theTerms.add(theTerm);
+            }
+        }
+        return theTerms;
+    }
+
+    /**
+     * Parses a query for the unstemmed search field and the stemmed content fields of the given languages.
+     * If a prefix field is given, the query is treated as typed so far, and its last word may be incomplete.
+     * Range filters on numeric fields only filter the result and do not contribute to the score.
+     */
+    public Query parse(final String aQuery, final String aSearchField, final Collection<String> aLanguageFields, final String aPrefixField,
+            final boolean defaultFuzzy, final int fuzzyEditDistance) throws IOException {
+        return parse(aQuery, aSearchField, aLanguageFields, aPrefixField, true, defaultFuzzy, fuzzyEditDistance);
+    }
+
+    /**
+     * Parses a query like {@link #parse(String, String, Collection, String, boolean, int)}. If not every
+     * document has the prefix field yet, because it was indexed before the field was enabled, prefix
+     * wildcards are looked up in the prefix field and expanded in the search field.
+     */
+    public Query parse(final String aQuery, final String aSearchField, final Collection<String> aLanguageFields, final String aPrefixField,
+            final boolean aPrefixFieldComplete, final boolean defaultFuzzy, final int fuzzyEditDistance) throws IOException {
 
         final var theTokenizer = new QueryTokenizer(aQuery);
+        final var theNow = System.currentTimeMillis();
+        final List<Query> theFilters = new ArrayList<>();
+        final List<Query> theExcludedRanges = new ArrayList<>();
+        final var theRequiredTerms = extractRangeFilters(theTokenizer.getRequiredTerms(), theNow, theFilters);
+        final var theNotRequiredTerms = extractRangeFilters(theTokenizer.getNotRequiredTerms(), theNow, theExcludedRanges);
+
+        String thePartialTerm = null;
+        if (aPrefixField != null && !aQuery.endsWith(" ") && !theRequiredTerms.isEmpty()) {
+            final var theLastWord = StringUtils.removeStart(aQuery.substring(aQuery.lastIndexOf(' ') + 1).toLowerCase(), "+");
+            final var theLastTerm = theRequiredTerms.get(theRequiredTerms.size() - 1);
+            if (theLastTerm.equals(theLastWord) && !QueryUtils.isWildCard(theLastTerm) && !QueryUtils.isFuzzy(theLastTerm)) {
+                thePartialTerm = theLastTerm;
+            }
+        }
 
         // Now we have the terms, lets construct the query#
 
         final var theResult = new BooleanQuery.Builder();
 
-        if (!theTokenizer.getRequiredTerms().isEmpty()) {
-
-            final List<SpanQuery> theSpans = new ArrayList<>();
-            for (final var theTerm : theTokenizer.getRequiredTerms()) {
-                if (QueryUtils.isWildCard(theTerm)) {
-                    theSpans.add(new SpanMultiTermQueryWrapper<>(new WildcardQuery(new Term(aSearchField, theTerm))));
-                } else if (QueryUtils.isFuzzy(theTerm) || defaultFuzzy) {
-                    theSpans.add(new SpanMultiTermQueryWrapper<>(new FuzzyQuery(new Term(aSearchField, theTerm), fuzzyEditDistance)));
-                } else {
-                    // Ok, we need to check of the token would be removed due to stopwords and so on
-                    final var theTokenizedTerm = toToken(theTerm, aSearchField);
-                    if (!StringUtils.isEmpty(theTokenizedTerm)) {
-                        theSpans.add(new SpanTermQuery(new Term(aSearchField, theTokenizedTerm)));
-                    }
-                }
-            }
+        if (!theRequiredTerms.isEmpty()) {
 
-            if (theSpans.size() > 1) {
-                // This is the original span, so we boost it a lot
-                final SpanQuery theExactMatchQuery = new SpanNearQuery(theSpans.toArray(new SpanQuery[0]), 0, true);
-                theResult.add(new BoostQuery(theExactMatchQuery, 61), BooleanClause.Occur.SHOULD);
-
-                // We expect a maximum edit distance of 10 between the searched terms in any order
-                // This seems to be the most useful value
-                final var theMaxEditDistance = 10;
-                for (var theSlop = 0; theSlop < theMaxEditDistance; theSlop++) {
-                    final SpanQuery theNearQuery = new SpanNearQuery(theSpans.toArray(new SpanQuery[0]), theSlop, false);
-                    theResult.add(new BoostQuery(theNearQuery, 50 + theMaxEditDistance - theSlop), BooleanClause.Occur.SHOULD);
-                }
+            addProximityQueries(toSpans(theRequiredTerms, aSearchField, aPrefixField, aPrefixFieldComplete, defaultFuzzy, fuzzyEditDistance), theResult);
+            // A document has only the field of its language, so these clauses are cheap for all others
+            for (final var theLanguageField : aLanguageFields) {
+                addProximityQueries(toStemmedSpans(theRequiredTerms, theLanguageField), theResult);
             }
 
             // Finally, we just add simple term queries, but do not boost them
             // This makes sure that at least the searched terms
             // are found in the document
-            addToBooleanQuery(theTokenizer.getRequiredTerms(), aSearchField, theResult, BooleanClause.Occur.MUST, defaultFuzzy, fuzzyEditDistance);
+            addToBooleanQuery(theRequiredTerms, thePartialTerm, aSearchField, aLanguageFields, aPrefixField, aPrefixFieldComplete, theResult, BooleanClause.Occur.MUST,
+                    defaultFuzzy, fuzzyEditDistance);
         }
 
         // Finally, add the terms that must not occur in the search result
-        addToBooleanQuery(theTokenizer.getNotRequiredTerms(), aSearchField, theResult, BooleanClause.Occur.MUST_NOT, defaultFuzzy, fuzzyEditDistance);
+        addToBooleanQuery(theNotRequiredTerms, null, aSearchField, aLanguageFields, aPrefixField, aPrefixFieldComplete, theResult, BooleanClause.Occur.MUST_NOT,
+                defaultFuzzy, fuzzyEditDistance);
+
+        for (final var theFilter : theFilters) {
+            theResult.add(theFilter, BooleanClause.Occur.FILTER);
+        }
+        for (final var theExcludedRange : theExcludedRanges) {
+            theResult.add(theExcludedRange, BooleanClause.Occur.MUST_NOT);
+        }
 
         return theResult.build();
     }
@@ -26,6 +26,13 @@ public final class QueryUtils {
         return aTerm.contains(ASTERISK) || aTerm.contains("?");
     }
 
+    /**
+     * Checks if the term is a prefix wildcard like "ad*", with no other wildcards.
+     */
+    public static boolean isPrefix(final String aTerm) {
+        return aTerm.length() > 1 && aTerm.indexOf(ASTERISK) == aTerm.length() - 1 && !aTerm.contains("?");
+    }
+
     public static boolean isFuzzy(final String aTerm) {
         return aTerm.startsWith("~") && aTerm.length() > 1;
     }
@@ -0,0 +1,301 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.facet.range.LongRange;
+import org.apache.lucene.search.IndexOrDocValuesQuery;
+import org.apache.lucene.search.LongValuesSource;
+import org.apache.lucene.search.Query;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A numeric field which can be filtered by ranges in the query syntax, like size:>10mb,
+ * modified:<30d or pages:10..20. Sizes accept the units kb, mb and gb. Dates are given as
+ * yyyy-mm-dd, or as an age in days, weeks, months or years, so modified:<30d finds files
+ * changed within the last 30 days. Some fields are also offered as range facets, their buckets
+ * are computed relative to the time of the query.
+ */
+public final class RangeField {
+
+    private enum Type {
+        NUMBER, SIZE, DATE
+    }
+
+    private static final class Bucket {
+
+        private final String label;
+        private final String expression;
+
+        private Bucket(final String label, final String expression) {
+            this.label = label;
+            this.expression = expression;
+        }
+    }
+
+    /**
+     * A single value of an expression. A date covers a whole day, an age is a point in time
+     * relative to now.
+     */
+    private static final class Value {
+
+        private final long start;
+        private final long end;
+        private final boolean relative;
+
+        private Value(final long start, final long end, final boolean relative) {
+            this.start = start;
+            this.end = end;
+            this.relative = relative;
+        }
+    }
+
+    private static final Pattern TERM = Pattern.compile("([a-z]+):(.+)");
+    private static final Pattern COMPARISON = Pattern.compile("(>=|<=|>|<|=)?(.+)");
+    private static final Pattern AMOUNT = Pattern.compile("(\\d+)([a-z]*)");
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    public static final RangeField SIZE = new RangeField("size", "Size", IndexFields.FILESIZE, IndexFields.FILESIZE_DV, Type.SIZE, List.of(
+            new Bucket("Less than 100 KB", "<100kb"),
+            new Bucket("100 KB to 1 MB", "100kb..1mb"),
+            new Bucket("1 MB to 10 MB", "1mb..10mb"),
+            new Bucket("10 MB to 100 MB", "10mb..100mb"),
+            new Bucket("100 MB or more", ">=100mb")));
+    public static final RangeField MODIFIED = new RangeField("modified", "Last modified", IndexFields.LASTMODIFIED, IndexFields.LASTMODIFIED_DV, Type.DATE, List.of(
+            new Bucket("Last 24 hours", "<1d"),
+            new Bucket("Last week", "1d..1w"),
+            new Bucket("Last month", "1w..1m"),
+            new Bucket("Last year", "1m..1y"),
+            new Bucket("Older", ">=1y")));
+
+    private static final Map<String, RangeField> FIELDS = new LinkedHashMap<>();
+
+    static {
+        for (final var theField : List.of(SIZE, MODIFIED,
+                new RangeField("created", "Created", IndexFields.DATE_PREFIX + "creation-date", Type.DATE, List.of()),
+                new RangeField("pages", "Pages", IndexFields.NUMBER_PREFIX + "page-count", Type.NUMBER, List.of()),
+                new RangeField("words", "Words", IndexFields.NUMBER_PREFIX + "word-count", Type.NUMBER, List.of()),
+                new RangeField("characters", "Characters", IndexFields.NUMBER_PREFIX + "character-count", Type.NUMBER, List.of()))) {
+            FIELDS.put(theField.name, theField);
+        }
+    }
+
+    private final String name;
+    private final String title;
+    private final String field;
+    private final String docValuesField;
+    private final Type type;
+    private final List<Bucket> buckets;
+
+    /**
+     * A field indexed as a point, with its doc values in a separate field.
+     */
+    private RangeField(final String name, final String title, final String field, final String docValuesField, final Type type,
+            final List<Bucket> buckets) {
+        this.name = name;
+        this.title = title;
+        this.field = field;
+        this.docValuesField = docValuesField;
+        this.type = type;
+        this.buckets = buckets;
+    }
+
+    /**
+     * A field indexed as a {@link LongField}, so point and doc values share one field.
+     */
+    private RangeField(final String name, final String title, final String field, final Type type, final List<Bucket> buckets) {
+        this(name, title, field, field, type, buckets);
+    }
+
+    /**
+     * The field with the given name in the query syntax, or null if there is none.
+     */
+    public static RangeField forName(final String name) {
+        return FIELDS.get(name);
+    }
+
+    /**
+     * The filter for a term like size:>10mb, or null if the term is no valid range filter.
+     */
+    public static Query parseTerm(final String term, final long now) {
+        final var theMatcher = TERM.matcher(term.toLowerCase(Locale.ROOT));
+        if (!theMatcher.matches()) {
+            return null;
+        }
+        final var theField = forName(theMatcher.group(1));
+        return theField != null ? theField.newRangeQuery(theMatcher.group(2), now) : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * The filter for a range expression like >10mb or 10..20, or null if the expression is invalid.
+     */
+    public Query newRangeQuery(final String expression, final long now) {
+        final var theBounds = bounds(expression, now);
+        if (theBounds == null) {
+            return null;
+        }
+        if (field.equals(docValuesField)) {
+            return LongField.newRangeQuery(field, theBounds[0], theBounds[1]);
+        }
+        // Selective ranges are read from the points, others checked on the doc values of the hits
+        return new IndexOrDocValuesQuery(LongPoint.newRangeQuery(field, theBounds[0], theBounds[1]),
+                NumericDocValuesField.newSlowRangeQuery(docValuesField, theBounds[0], theBounds[1]));
+    }
+
+    /**
+     * The buckets of the range facet of this field, labeled with their expressions.
+     */
+    public LongRange[] facetRanges(final long now) {
+        final var theRanges = new LongRange[buckets.size()];
+        for (var i = 0; i < theRanges.length; i++) {
+            final var theBounds = bounds(buckets.get(i).expression, now);
+            theRanges[i] = new LongRange(buckets.get(i).expression, theBounds[0], true, theBounds[1], true);
+        }
+        return theRanges;
+    }
+
+    public LongValuesSource facetValues() {
+        return LongValuesSource.fromLongField(docValuesField);
+    }
+
+    /**
+     * The label of a facet bucket, or the expression itself if it is no bucket of this field.
+     */
+    public String bucketLabel(final String expression) {
+        for (final var theBucket : buckets) {
+            if (theBucket.expression.equals(expression)) {
+                return theBucket.label;
+            }
+        }
+        return expression;
+    }
+
+    /**
+     * The inclusive lower and upper bound of a range expression, or null if it is invalid. A range
+     * like 1mb..10mb or 1d..1w includes its first value but not its second one, so adjacent ranges
+     * do not overlap.
+     */
+    long[] bounds(final String expression, final long now) {
+        final var theRangeSeparator = expression.indexOf("..");
+        if (theRangeSeparator >= 0) {
+            final var theLower = parse(expression.substring(0, theRangeSeparator), now);
+            final var theUpper = parse(expression.substring(theRangeSeparator + 2), now);
+            if (theLower == null || theUpper == null || theLower.relative != theUpper.relative) {
+                return null;
+            }
+            // An age range like 1d..1w ends with the younger files
+            return theLower.relative
+                    ? new long[] {theUpper.start + 1, theLower.start}
+                    : new long[] {theLower.start, theUpper.start - 1};
+        }
+
+        final var theMatcher = COMPARISON.matcher(expression);
+        if (!theMatcher.matches()) {
+            return null;
+        }
+        final var theValue = parse(theMatcher.group(2), now);
+        if (theValue == null) {
+            return null;
+        }
+        final var theOperator = theMatcher.group(1) != null ? theMatcher.group(1) : "=";
+        if (theValue.relative) {
+            // Files younger than an age were modified after the point in time
+            return switch (theOperator) {
+                case "<" -> new long[] {theValue.start + 1, Long.MAX_VALUE};
+                case "<=" -> new long[] {theValue.start, Long.MAX_VALUE};
+                case ">" -> new long[] {Long.MIN_VALUE, theValue.start - 1};
+                case ">=" -> new long[] {Long.MIN_VALUE, theValue.start};
+                default -> null;
+            };
+        }
+        return switch (theOperator) {
+            case "<" -> new long[] {Long.MIN_VALUE, theValue.start - 1};
+            case "<=" -> new long[] {Long.MIN_VALUE, theValue.end};
+            case ">" -> new long[] {theValue.end + 1, Long.MAX_VALUE};
+            case ">=" -> new long[] {theValue.start, Long.MAX_VALUE};
+            default -> new long[] {theValue.start, theValue.end};
+        };
+    }
+
+    private Value parse(final String value, final long now) {
+        if (type == Type.DATE) {
+            try {
+                final var theStart = LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                return new Value(theStart, theStart + DAY - 1, false);
+            } catch (final DateTimeParseException e) {
+                // No date, maybe an age
+            }
+        }
+        final var theMatcher = AMOUNT.matcher(value);
+        if (!theMatcher.matches()) {
+            return null;
+        }
+        final var theFactor = factor(theMatcher.group(2));
+        if (theFactor == 0) {
+            return null;
+        }
+        try {
+            final var theAmount = Math.multiplyExact(Long.parseLong(theMatcher.group(1)), theFactor);
+            return type == Type.DATE
+                    ? new Value(now - theAmount, now - theAmount, true)
+                    : new Value(theAmount, theAmount, false);
+        } catch (final NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The factor of a unit, or 0 if the unit cannot be used with this field.
+     */
+    private long factor(final String unit) {
+        return switch (type) {
+            case DATE -> switch (unit) {
+                case "d" -> DAY;
+                case "w" -> 7 * DAY;
+                case "m" -> 30 * DAY;
+                case "y" -> 365 * DAY;
+                default -> 0;
+            };
+            case SIZE -> switch (unit) {
+                case "", "b" -> 1;
+                case "kb" -> 1024;
+                case "mb" -> 1024 * 1024;
+                case "gb" -> 1024 * 1024 * 1024;
+                default -> 0;
+            };
+            case NUMBER -> unit.isEmpty() ? 1 : 0;
+        };
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.SortedSetDocValues;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Facet state of a reopened reader whose segments did not change. Deleted documents and doc
+ * value updates keep the segment cores, and with them the sorted set values of the facet fields.
+ * The ordinals of the previous state are still valid then, so its ordinal map and dimension
+ * ranges are used for the new reader instead of building them again.
+ */
+public class ReusedSortedSetDocValuesReaderState extends SortedSetDocValuesReaderState {
+
+    private final SortedSetDocValuesReaderState original;
+    private final IndexReader reader;
+    // Null for a single segment, which needs no mapping to global ordinals
+    private final OrdinalMap ordinalMap;
+
+    private ReusedSortedSetDocValuesReaderState(final SortedSetDocValuesReaderState original, final IndexReader reader, final OrdinalMap ordinalMap) {
+        this.original = original;
+        this.reader = reader;
+        this.ordinalMap = ordinalMap;
+    }
+
+    /**
+     * Reuses the state of the previous reader for the new one, or returns null if the
+     * segments of the readers differ. Must be called while the previous reader is open.
+     */
+    public static SortedSetDocValuesReaderState reuse(final SortedSetDocValuesReaderState previous, final IndexReader reader) throws IOException {
+        final var thePreviousLeaves = previous.getReader().leaves();
+        final var theLeaves = reader.leaves();
+        if (thePreviousLeaves.size() != theLeaves.size()) {
+            return null;
+        }
+        for (var i = 0; i < theLeaves.size(); i++) {
+            final var theKey = coreKey(thePreviousLeaves.get(i));
+            if (theKey == null || theKey != coreKey(theLeaves.get(i))) {
+                return null;
+            }
+        }
+        // Wrapping the original state keeps reused states from being chained across generations
+        final var theOriginal = previous instanceof final ReusedSortedSetDocValuesReaderState theReused ? theReused.original : previous;
+        final var theValues = previous.getDocValues();
+        final var theOrdinalMap = theValues instanceof final MultiDocValues.MultiSortedSetDocValues theMultiValues ? theMultiValues.mapping : null;
+        return new ReusedSortedSetDocValuesReaderState(theOriginal, reader, theOrdinalMap);
+    }
+
+    private static Object coreKey(final LeafReaderContext context) {
+        final var theHelper = context.reader().getCoreCacheHelper();
+        return theHelper != null ? theHelper.getKey() : null;
+    }
+
+    @Override
+    public SortedSetDocValues getDocValues() throws IOException {
+        if (ordinalMap == null) {
+            return MultiDocValues.getSortedSetValues(reader, getField());
+        }
+        final List<LeafReaderContext> theLeaves = reader.leaves();
+        final var theValues = new SortedSetDocValues[theLeaves.size()];
+        final var theStarts = new int[theLeaves.size() + 1];
+        long theCost = 0;
+        for (var i = 0; i < theLeaves.size(); i++) {
+            final var theContext = theLeaves.get(i);
+            final var theLeafValues = theContext.reader().getSortedSetDocValues(getField());
+            theValues[i] = theLeafValues != null ? theLeafValues : DocValues.emptySortedSet();
+            theStarts[i] = theContext.docBase;
+            theCost += theValues[i].cost();
+        }
+        theStarts[theLeaves.size()] = reader.maxDoc();
+        return new MultiDocValues.MultiSortedSetDocValues(theValues, theStarts, ordinalMap, theCost);
+    }
+
+    @Override
+    public String getField() {
+        return original.getField();
+    }
+
+    @Override
+    public IndexReader getReader() {
+        return reader;
+    }
+
+    @Override
+    public int getSize() {
+        return original.getSize();
+    }
+
+    @Override
+    public FacetsConfig getFacetsConfig() {
+        return original.getFacetsConfig();
+    }
+
+    @Override
+    public OrdRange getOrdRange(final String dim) {
+        return original.getOrdRange(dim);
+    }
+
+    @Override
+    public Map<String, OrdRange> getPrefixToOrdRange() {
+        return original.getPrefixToOrdRange();
+    }
+
+    @Override
+    public DimTree getDimTree(final String dim) {
+        return original.getDimTree(dim);
+    }
+
+    @Override
+    public Iterable<String> getDims() {
+        return original.getDims();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return original.ramBytesUsed();
+    }
+}
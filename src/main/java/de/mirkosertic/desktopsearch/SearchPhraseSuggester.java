@@ -55,12 +55,14 @@ public class SearchPhraseSuggester {
     private final IndexSearcher indexSearcher;
     private final Analyzer analyzer;
     private final SearchPhraseSuggesterConfiguration configuration;
+    private final ContentStore contentStore;
 
     public SearchPhraseSuggester(
-            final IndexSearcher aIndexSearcher, final Analyzer aAnalyzer, final SearchPhraseSuggesterConfiguration aConfiguration) {
+            final IndexSearcher aIndexSearcher, final Analyzer aAnalyzer, final SearchPhraseSuggesterConfiguration aConfiguration, final ContentStore aContentStore) {
         indexSearcher = aIndexSearcher;
         analyzer = aAnalyzer;
         configuration = aConfiguration;
+        contentStore = aContentStore;
     }
 
     public List<Suggestion> suggestSearchPhrase(final String aFieldName, final String aPhrase) throws IOException {
@@ -98,8 +100,15 @@ public class SearchPhraseSuggester {
 
         final TopDocs theDocs = indexSearcher.search(theQuery, configuration.getNumberOfSuggestions(), Sort.RELEVANCE);
         for (var i = 0; i<theDocs.scoreDocs.length; i++) {
-            final var theDocument = indexSearcher.storedFields().document(theDocs.scoreDocs[i].doc);
-            final var theOriginalContent = theDocument.getField(aFieldName).stringValue();
+            final var theDocument = indexSearcher.storedFields().document(theDocs.scoreDocs[i].doc, Set.of(aFieldName, IndexFields.CONTENTMD5));
+            // The text is only loaded for the hits, and comes from the content store unless it was stored in the index
+            var theOriginalContent = theDocument.get(aFieldName);
+            if (theOriginalContent == null && theDocument.get(IndexFields.CONTENTMD5) != null) {
+                theOriginalContent = contentStore.get(theDocument.get(IndexFields.CONTENTMD5));
+            }
+            if (theOriginalContent == null) {
+                continue;
+            }
 
             try {
                 for (var theFragment : theHighligher.getBestFragments(analyzer, aFieldName, theOriginalContent, 1)) {
@@ -0,0 +1,54 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Creates searchers which search the segments of large indexes in parallel. Segments are
+ * grouped into slices of at most the given number of documents, and every slice is searched
+ * by a task of the executor. Without an executor, all segments are searched by the calling
+ * thread.
+ */
+public class SlicedSearcherFactory extends SearcherFactory {
+
+    private static final int MAX_SEGMENTS_PER_SLICE = 5;
+
+    private final Executor executor;
+    private final int maxDocumentsPerSlice;
+
+    public SlicedSearcherFactory(final Executor executor, final int maxDocumentsPerSlice) {
+        this.executor = executor;
+        this.maxDocumentsPerSlice = Math.max(1, maxDocumentsPerSlice);
+    }
+
+    @Override
+    public IndexSearcher newSearcher(final IndexReader reader, final IndexReader previousReader) throws IOException {
+        return new IndexSearcher(reader, executor) {
+            @Override
+            protected LeafSlice[] slices(final List<LeafReaderContext> leaves) {
+                return slices(leaves, maxDocumentsPerSlice, MAX_SEGMENTS_PER_SLICE, false);
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.IOException;
+
+/**
+ * Manages the searcher of a reader which never changes, like the one of an index which is
+ * migrated. Other than a {@link SearcherManager}, the reader does not need to be a directory
+ * reader, so an index consisting of several indexes can be searched with a multi reader. The
+ * manager owns the reader and closes it once the manager is closed and all searchers are released.
+ */
+public class StaticSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    public StaticSearcherManager(final IndexReader reader, final SearcherFactory searcherFactory) throws IOException {
+        current = SearcherManager.getSearcher(searcherFactory, reader, null);
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(final IndexSearcher referenceToRefresh) {
+        return null;
+    }
+
+    @Override
+    protected boolean tryIncRef(final IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected void decRef(final IndexSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected int getRefCount(final IndexSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+}
@@ -21,10 +21,26 @@ public class Statistics {
 
     private final AtomicLong totalJobs;
     private final AtomicLong completedJobs;
+    private volatile int extractionLimit;
+    private volatile String extractionLimitReason;
+    private volatile int extractionsInFlight;
+    private volatile long extractionBytesInFlight;
+    private volatile double extractedFilesPerSecond;
+    private volatile double extractedBytesPerSecond;
+    private volatile long searcherRefreshMillis;
+    private volatile long facetStatesMillis;
+    private final AtomicLong builtFacetStates;
+    private final AtomicLong reusedFacetStates;
+    private final AtomicLong stalledFacetQueries;
+    private final AtomicLong facetQueryStallMillis;
 
     public Statistics() {
         totalJobs = new AtomicLong();
         completedJobs = new AtomicLong();
+        builtFacetStates = new AtomicLong();
+        reusedFacetStates = new AtomicLong();
+        stalledFacetQueries = new AtomicLong();
+        facetQueryStallMillis = new AtomicLong();
     }
 
     public void newDeletedFileJob() {
@@ -50,4 +66,88 @@ public class Statistics {
     public long completedJobs() {
         return completedJobs.get();
     }
-}
+
+    public void extractionLimitChanged(final int limit, final String reason) {
+        extractionLimit = limit;
+        extractionLimitReason = reason;
+    }
+
+    public void extractionInFlight(final int files, final long estimatedBytes) {
+        extractionsInFlight = files;
+        extractionBytesInFlight = estimatedBytes;
+    }
+
+    public void extractionThroughput(final double filesPerSecond, final double bytesPerSecond) {
+        extractedFilesPerSecond = filesPerSecond;
+        extractedBytesPerSecond = bytesPerSecond;
+    }
+
+    public int extractionLimit() {
+        return extractionLimit;
+    }
+
+    public String extractionLimitReason() {
+        return extractionLimitReason;
+    }
+
+    public int extractionsInFlight() {
+        return extractionsInFlight;
+    }
+
+    public long extractionBytesInFlight() {
+        return extractionBytesInFlight;
+    }
+
+    public double extractedFilesPerSecond() {
+        return extractedFilesPerSecond;
+    }
+
+    public double extractedBytesPerSecond() {
+        return extractedBytesPerSecond;
+    }
+
+    /**
+     * Time from reopening the index until the new searcher was published, including its facets.
+     */
+    public void searcherRefreshed(final long millis) {
+        searcherRefreshMillis = millis;
+    }
+
+    public void facetStatesReady(final long millis, final int built, final int reused) {
+        facetStatesMillis = millis;
+        builtFacetStates.addAndGet(built);
+        reusedFacetStates.addAndGet(reused);
+    }
+
+    /**
+     * A query had to wait for the facets of its searcher to be built.
+     */
+    public void facetQueryStalled(final long millis) {
+        stalledFacetQueries.incrementAndGet();
+        facetQueryStallMillis.addAndGet(millis);
+    }
+
+    public long searcherRefreshMillis() {
+        return searcherRefreshMillis;
+    }
+
+    public long facetStatesMillis() {
+        return facetStatesMillis;
+    }
+
+    public long builtFacetStates() {
+        return builtFacetStates.get();
+    }
+
+    public long reusedFacetStates() {
+        return reusedFacetStates.get();
+    }
+
+    public long stalledFacetQueries() {
+        return stalledFacetQueries.get();
+    }
+
+    public long facetQueryStallMillis() {
+        return facetQueryStallMillis.get();
+    }
+}
\ No newline at end of file
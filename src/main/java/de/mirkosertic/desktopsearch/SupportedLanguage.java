@@ -15,6 +15,40 @@
  */
 package de.mirkosertic.desktopsearch;
 
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.ar.ArabicAnalyzer;
+import org.apache.lucene.analysis.bg.BulgarianAnalyzer;
+import org.apache.lucene.analysis.br.BrazilianAnalyzer;
+import org.apache.lucene.analysis.ca.CatalanAnalyzer;
+import org.apache.lucene.analysis.ckb.SoraniAnalyzer;
+import org.apache.lucene.analysis.cz.CzechAnalyzer;
+import org.apache.lucene.analysis.da.DanishAnalyzer;
+import org.apache.lucene.analysis.de.GermanAnalyzer;
+import org.apache.lucene.analysis.el.GreekAnalyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.es.SpanishAnalyzer;
+import org.apache.lucene.analysis.eu.BasqueAnalyzer;
+import org.apache.lucene.analysis.fa.PersianAnalyzer;
+import org.apache.lucene.analysis.fi.FinnishAnalyzer;
+import org.apache.lucene.analysis.fr.FrenchAnalyzer;
+import org.apache.lucene.analysis.ga.IrishAnalyzer;
+import org.apache.lucene.analysis.gl.GalicianAnalyzer;
+import org.apache.lucene.analysis.hi.HindiAnalyzer;
+import org.apache.lucene.analysis.hu.HungarianAnalyzer;
+import org.apache.lucene.analysis.hy.ArmenianAnalyzer;
+import org.apache.lucene.analysis.id.IndonesianAnalyzer;
+import org.apache.lucene.analysis.it.ItalianAnalyzer;
+import org.apache.lucene.analysis.lv.LatvianAnalyzer;
+import org.apache.lucene.analysis.nl.DutchAnalyzer;
+import org.apache.lucene.analysis.no.NorwegianAnalyzer;
+import org.apache.lucene.analysis.pt.PortugueseAnalyzer;
+import org.apache.lucene.analysis.ro.RomanianAnalyzer;
+import org.apache.lucene.analysis.ru.RussianAnalyzer;
+import org.apache.lucene.analysis.sv.SwedishAnalyzer;
+import org.apache.lucene.analysis.ta.TamilAnalyzer;
+import org.apache.lucene.analysis.th.ThaiAnalyzer;
+import org.apache.lucene.analysis.tr.TurkishAnalyzer;
+
 import java.util.Locale;
 
 public enum SupportedLanguage {
@@ -62,4 +96,51 @@ public enum SupportedLanguage {
     public Locale toLocale() {
         return Locale.of(name());
     }
+
+    /**
+     * Name of the field with the content analyzed for this language.
+     */
+    public String getContentField() {
+        return IndexFields.CONTENT + "_" + name();
+    }
+
+    /**
+     * Analyzer with the stemmer and stopwords of this language.
+     */
+    public Analyzer createAnalyzer() {
+        return switch (this) {
+            case ar -> new ArabicAnalyzer();
+            case bg -> new BulgarianAnalyzer();
+            case br -> new BrazilianAnalyzer();
+            case ca -> new CatalanAnalyzer();
+            case ckb -> new SoraniAnalyzer();
+            case cz -> new CzechAnalyzer();
+            case da -> new DanishAnalyzer();
+            case de -> new GermanAnalyzer();
+            case el -> new GreekAnalyzer();
+            case en -> new EnglishAnalyzer();
+            case es -> new SpanishAnalyzer();
+            case eu -> new BasqueAnalyzer();
+            case fa -> new PersianAnalyzer();
+            case fi -> new FinnishAnalyzer();
+            case fr -> new FrenchAnalyzer();
+            case ga -> new IrishAnalyzer();
+            case gl -> new GalicianAnalyzer();
+            case hi -> new HindiAnalyzer();
+            case hu -> new HungarianAnalyzer();
+            case hy -> new ArmenianAnalyzer();
+            case id -> new IndonesianAnalyzer();
+            case it -> new ItalianAnalyzer();
+            case lv -> new LatvianAnalyzer();
+            case nl -> new DutchAnalyzer();
+            case no -> new NorwegianAnalyzer();
+            case pt -> new PortugueseAnalyzer();
+            case ro -> new RomanianAnalyzer();
+            case ru -> new RussianAnalyzer();
+            case sv -> new SwedishAnalyzer();
+            case ta -> new TamilAnalyzer();
+            case th -> new ThaiAnalyzer();
+            case tr -> new TurkishAnalyzer();
+        };
+    }
 }
\ No newline at end of file
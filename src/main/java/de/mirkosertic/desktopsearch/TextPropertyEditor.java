@@ -0,0 +1,38 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import javafx.beans.value.ObservableValue;
+import javafx.scene.control.TextField;
+import org.controlsfx.control.PropertySheet;
+import org.controlsfx.property.editor.AbstractPropertyEditor;
+
+public class TextPropertyEditor extends AbstractPropertyEditor<String, TextField> {
+
+    public TextPropertyEditor(final PropertySheet.Item property) {
+        super(property, new TextField());
+    }
+
+    @Override
+    protected ObservableValue<String> getObservableValue() {
+        return getEditor().textProperty();
+    }
+
+    @Override
+    public void setValue(final String aText) {
+        getEditor().textProperty().setValue(aText);
+    }
+}
\ No newline at end of file
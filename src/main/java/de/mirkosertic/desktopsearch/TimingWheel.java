@@ -0,0 +1,120 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Hashed timing wheel used to debounce events per key. Every key has at most one timer.
+ * Scheduling an already armed key only moves its deadline, the timer stays in its slot
+ * and is moved to the right slot once the old one is reached. This way, scheduling is O(1)
+ * no matter how often a key is re-armed, and advancing the wheel only touches the timers
+ * in the current slot.
+ * <p>
+ * The wheel lock only guards the slots. Advancing detaches the current slot under the lock
+ * and decides about its timers outside of it, so a large burst of expiring timers never
+ * blocks scheduling. The timer of a key is only changed while its map entry is locked.
+ */
+public class TimingWheel<K, V> {
+
+    private static final class Timer<K, V> {
+
+        private final K key;
+        private V value;
+        private long deadline;
+
+        private Timer(final K key, final V value, final long deadline) {
+            this.key = key;
+            this.value = value;
+            this.deadline = deadline;
+        }
+    }
+
+    private final ArrayDeque<Timer<K, V>>[] slots;
+    private final int mask;
+    private final Map<K, Timer<K, V>> timers;
+    private volatile long currentTick;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(final int numberOfSlots) {
+        final var theSize = Integer.highestOneBit(Math.max(2, numberOfSlots) * 2 - 1);
+        this.slots = new ArrayDeque[theSize];
+        for (var i = 0; i < theSize; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.mask = theSize - 1;
+        this.timers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Arms the timer for a key, so it expires after the given number of ticks. An already
+     * armed timer gets the new value, and its deadline is never moved backwards.
+     */
+    public void schedule(final K key, final V value, final int delayInTicks) {
+        final var theDelay = Math.max(1, delayInTicks);
+        timers.compute(key, (theKey, theTimer) -> {
+            if (theTimer == null) {
+                final Timer<K, V> theNewTimer;
+                synchronized (slots) {
+                    // The deadline is taken under the lock, so its slot is never already detached
+                    theNewTimer = new Timer<>(theKey, value, currentTick + theDelay);
+                    slots[(int) (theNewTimer.deadline & mask)].add(theNewTimer);
+                }
+                return theNewTimer;
+            }
+            theTimer.value = value;
+            theTimer.deadline = Math.max(theTimer.deadline, currentTick + theDelay);
+            return theTimer;
+        });
+    }
+
+    /**
+     * Advances the wheel by one tick and reports all timers expiring with it. The wheel must
+     * only be advanced by one thread at a time. The consumer is called while the entry of the
+     * expired key is locked, so it should only collect the results.
+     */
+    public void advance(final BiConsumer<K, V> expired) {
+        final ArrayDeque<Timer<K, V>> theSlot;
+        final long theTick;
+        synchronized (slots) {
+            theTick = currentTick + 1;
+            final var theIndex = (int) (theTick & mask);
+            theSlot = slots[theIndex];
+            slots[theIndex] = new ArrayDeque<>();
+            currentTick = theTick;
+        }
+        for (final var theTimer : theSlot) {
+            timers.computeIfPresent(theTimer.key, (theKey, theCurrent) -> {
+                if (theTimer.deadline <= theTick) {
+                    expired.accept(theKey, theTimer.value);
+                    return null;
+                }
+                // Re-armed or due in a later round of the wheel
+                synchronized (slots) {
+                    slots[(int) (theTimer.deadline & mask)].add(theTimer);
+                }
+                return theTimer;
+            });
+        }
+    }
+
+    public int size() {
+        return timers.size();
+    }
+}
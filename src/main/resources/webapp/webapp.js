@@ -90,7 +90,7 @@ document.addEventListener("DOMContentLoaded", function() {
                     if ((lazyHighlight.getBoundingClientRect().top <= window.innerHeight && lazyHighlight.getBoundingClientRect().bottom >= 0) && getComputedStyle(lazyHighlight).display !== "none") {
                         var resourceToLoad = "/highlight" +
                             "?query=" + encodeURIComponent(lazyHighlight.dataset.query) +
-                            "&docId=" + encodeURIComponent(lazyHighlight.dataset.docid);
+                            "&file=" + encodeURIComponent(lazyHighlight.dataset.filename);
 
                         console.info("Loading lazy highlight resource " + resourceToLoad);
 
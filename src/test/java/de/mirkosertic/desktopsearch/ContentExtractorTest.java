@@ -0,0 +1,45 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContentExtractorTest {
+
+    @Test
+    public void testLargeFileIsHashedBeforeExtraction() throws IOException {
+        // Larger than the maximum text length, so the parser stops before the end of the file
+        final var theFile = Files.createTempDirectory("extractor").resolve("large.txt");
+        Files.writeString(theFile, "Some words of a large file. ".repeat(250_000));
+        final var theAttributes = Files.readAttributes(theFile, BasicFileAttributes.class);
+
+        final var theExtractor = new ContentExtractor(new Configuration(theFile.getParent().toFile()));
+        final var theHash = DigestUtils.md5Hex(Files.readAllBytes(theFile));
+        final var theRawContent = theExtractor.readRawContent(theFile, theAttributes);
+        assertEquals(theHash, theRawContent.getHash());
+
+        assertEquals(theHash, theExtractor.extractContentFrom(theFile, theAttributes, theRawContent).getRawHash());
+        // Extraction processes hash large files only while they are parsed
+        assertEquals(theHash, theExtractor.extractContentFrom(theFile, theAttributes).getRawHash());
+    }
+}
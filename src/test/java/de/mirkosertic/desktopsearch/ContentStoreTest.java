@@ -0,0 +1,100 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentStoreTest {
+
+    private static String randomText(final Random random, final int length) {
+        final var theText = new StringBuilder(length);
+        while (theText.length() < length) {
+            theText.append("word").append(random.nextInt(10000)).append(" äöü ");
+        }
+        return theText.toString();
+    }
+
+    @Test
+    public void testTextsSurviveReopen() throws IOException {
+        final var theDirectory = Files.createTempDirectory("content");
+        final var theRandom = new Random(42);
+        final var theSmallText = "Hello world";
+        final var theLargeText = randomText(theRandom, 500_000);
+        try (final var theStore = ContentStore.open(theDirectory)) {
+            theStore.put(DigestUtils.md5Hex(theSmallText), theSmallText);
+            theStore.put(DigestUtils.md5Hex(theLargeText), theLargeText);
+            theStore.put(DigestUtils.md5Hex(""), "");
+            assertEquals(theSmallText, theStore.get(DigestUtils.md5Hex(theSmallText)));
+        }
+        try (final var theStore = ContentStore.open(theDirectory)) {
+            assertEquals(theSmallText, theStore.get(DigestUtils.md5Hex(theSmallText)));
+            assertEquals(theLargeText, theStore.get(DigestUtils.md5Hex(theLargeText)));
+            assertEquals("", theStore.get(DigestUtils.md5Hex("")));
+            assertNull(theStore.get(DigestUtils.md5Hex("unknown")));
+        }
+    }
+
+    @Test
+    public void testSameTextIsStoredOnce() throws IOException {
+        final var theDirectory = Files.createTempDirectory("content");
+        final var theText = randomText(new Random(42), 100_000);
+        try (final var theStore = ContentStore.open(theDirectory)) {
+            theStore.put(DigestUtils.md5Hex(theText), theText);
+            final var theSize = Files.size(theDirectory.resolve("content-000001.pack"));
+            theStore.put(DigestUtils.md5Hex(theText), theText);
+            assertEquals(theSize, Files.size(theDirectory.resolve("content-000001.pack")));
+        }
+    }
+
+    @Test
+    public void testUnusedTextsAreCollected() throws IOException {
+        final var theDirectory = Files.createTempDirectory("content");
+        final var theRandom = new Random(42);
+        final var theUsedText = randomText(theRandom, 1000);
+        final var theUnusedText = randomText(theRandom, 100_000);
+        final var theLaterText = randomText(theRandom, 1000);
+        try (final var theStore = ContentStore.open(theDirectory)) {
+            theStore.put(DigestUtils.md5Hex(theUsedText), theUsedText);
+            theStore.put(DigestUtils.md5Hex(theUnusedText), theUnusedText);
+
+            theStore.beginCollection();
+            // Stored after the collection started, so it might be used by a document not visible yet
+            theStore.put(DigestUtils.md5Hex(theLaterText), theLaterText);
+            final var theUsedKey = ContentStore.keyOf(DigestUtils.md5Hex(theUsedText));
+            theStore.collectGarbage(theKey -> theKey == theUsedKey);
+
+            assertFalse(Files.exists(theDirectory.resolve("content-000001.pack")));
+            assertEquals(theUsedText, theStore.get(DigestUtils.md5Hex(theUsedText)));
+            assertEquals(theLaterText, theStore.get(DigestUtils.md5Hex(theLaterText)));
+            assertNull(theStore.get(DigestUtils.md5Hex(theUnusedText)));
+        }
+        try (final var theStore = ContentStore.open(theDirectory)) {
+            assertEquals(theUsedText, theStore.get(DigestUtils.md5Hex(theUsedText)));
+            assertTrue(theStore.contains(DigestUtils.md5Hex(theLaterText)));
+            assertFalse(theStore.contains(DigestUtils.md5Hex(theUnusedText)));
+        }
+    }
+}
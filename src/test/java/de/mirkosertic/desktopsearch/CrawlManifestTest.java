@@ -0,0 +1,125 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CrawlManifestTest {
+
+    private Path newManifestFile() throws IOException {
+        return Files.createTempDirectory("manifest").resolve("crawl.manifest");
+    }
+
+    @Test
+    public void testChangesAreVisibleAfterCommit() throws IOException {
+        final var theFile = newManifestFile();
+        try (final var theManifest = CrawlManifest.open(theFile, 0)) {
+            theManifest.recordUpdate("/a.txt", 10, 20, 30);
+            assertNull(theManifest.lookup("/a.txt"));
+
+            theManifest.commit(theManifest.snapshotPendingChanges(), 1);
+
+            final var theEntry = theManifest.lookup("/a.txt");
+            assertEquals(10, theEntry.getLastModified());
+            assertEquals(20, theEntry.getSize());
+            assertEquals(30, theEntry.getContentHash());
+            assertTrue(theManifest.isUnchanged("/a.txt", 10, 20));
+            assertFalse(theManifest.isUnchanged("/a.txt", 11, 20));
+            assertFalse(theManifest.isUnchanged("/b.txt", 10, 20));
+        }
+    }
+
+    @Test
+    public void testPendingRemovalHidesCommittedEntry() throws IOException {
+        final var theFile = newManifestFile();
+        try (final var theManifest = CrawlManifest.open(theFile, 0)) {
+            theManifest.recordUpdate("/a.txt", 10, 20, 30);
+            theManifest.commit(theManifest.snapshotPendingChanges(), 1);
+
+            theManifest.recordRemoval("/a.txt");
+            assertNull(theManifest.lookup("/a.txt"));
+
+            theManifest.commit(theManifest.snapshotPendingChanges(), 2);
+            assertNull(theManifest.lookup("/a.txt"));
+            assertEquals(0, theManifest.size());
+        }
+    }
+
+    @Test
+    public void testReopenChecksGeneration() throws IOException {
+        final var theFile = newManifestFile();
+        try (final var theManifest = CrawlManifest.open(theFile, 0)) {
+            theManifest.recordUpdate("/a.txt", 10, 20, 30);
+            theManifest.commit(theManifest.snapshotPendingChanges(), 1);
+        }
+        try (final var theManifest = CrawlManifest.open(theFile, 1)) {
+            assertTrue(theManifest.isUnchanged("/a.txt", 10, 20));
+        }
+        try (final var theManifest = CrawlManifest.open(theFile, 2)) {
+            assertNull(theManifest.lookup("/a.txt"));
+            assertEquals(2, theManifest.getGeneration());
+        }
+    }
+
+    @Test
+    public void testGrow() throws IOException {
+        final var theFile = newManifestFile();
+        try (final var theManifest = CrawlManifest.open(theFile, 0)) {
+            for (var i = 0; i < 100_000; i++) {
+                theManifest.recordUpdate("/file" + i, i, i, i);
+            }
+            theManifest.commit(theManifest.snapshotPendingChanges(), 1);
+            assertEquals(100_000, theManifest.size());
+        }
+        try (final var theManifest = CrawlManifest.open(theFile, 1)) {
+            for (var i = 0; i < 100_000; i++) {
+                assertTrue(theManifest.isUnchanged("/file" + i, i, i));
+            }
+        }
+    }
+
+    @Test
+    public void testGrowKeepsCommittedEntries() throws IOException {
+        final var theFile = newManifestFile();
+        try (final var theManifest = CrawlManifest.open(theFile, 0)) {
+            theManifest.recordUpdate("/a.txt", 10, 20, 30);
+            theManifest.commit(theManifest.snapshotPendingChanges(), 1);
+            for (var i = 0; i < 100_000; i++) {
+                theManifest.recordUpdate("/file" + i, i, i, i);
+            }
+            theManifest.commit(theManifest.snapshotPendingChanges(), 2);
+            assertTrue(theManifest.isUnchanged("/a.txt", 10, 20));
+        }
+        // The file was grown in place, no other file is left behind
+        try (final var theFiles = Files.list(theFile.getParent())) {
+            assertEquals(1, theFiles.count());
+        }
+        try (final var theManifest = CrawlManifest.open(theFile, 2)) {
+            assertEquals(100_001, theManifest.size());
+            assertTrue(theManifest.isUnchanged("/a.txt", 10, 20));
+            assertTrue(theManifest.isUnchanged("/file99999", 99999, 99999));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExtractionControllerTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(2);
+
+    private final AtomicLong clock = new AtomicLong();
+    private volatile double heapUsage = 0.5;
+    private final Statistics statistics = new Statistics();
+
+    private ExtractionController newController(final int maxConcurrency, final long memoryBudget) {
+        return new ExtractionController(maxConcurrency, memoryBudget, statistics, clock::get, () -> heapUsage);
+    }
+
+    // Acquires in a separate thread and waits until it is blocked
+    private Thread blockedAcquire(final ExtractionController controller, final long estimatedBytes) throws InterruptedException {
+        final var theThread = new Thread(() -> {
+            try {
+                controller.acquire(estimatedBytes);
+            } catch (final InterruptedException e) {
+                // Test is over
+            }
+        });
+        theThread.start();
+        while (theThread.getState() != Thread.State.WAITING) {
+            assertTrue(theThread.isAlive());
+            Thread.sleep(10);
+        }
+        return theThread;
+    }
+
+    // Raises the limit from 2 to 3 with one extraction waiting
+    private void increase(final ExtractionController controller) throws InterruptedException {
+        controller.acquire(MB);
+        controller.acquire(MB);
+        final var theWaiting = blockedAcquire(controller, MB);
+
+        clock.addAndGet(INTERVAL);
+        controller.release(MB, MB);
+        theWaiting.join(10000);
+        assertFalse(theWaiting.isAlive());
+        assertEquals(3, statistics.extractionLimit());
+        assertEquals(2, statistics.extractionsInFlight());
+    }
+
+    @Test
+    public void testStartsWithHalfOfMaximum() {
+        newController(4, 100 * MB);
+        assertEquals(2, statistics.extractionLimit());
+        assertEquals("initial", statistics.extractionLimitReason());
+    }
+
+    @Test
+    public void testLimitIsIncreasedOnDemand() throws InterruptedException {
+        final var theController = newController(4, 100 * MB);
+        increase(theController);
+        assertTrue(statistics.extractionLimitReason().startsWith("throughput"));
+        assertEquals(0.5, statistics.extractedFilesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testLimitIsNotIncreasedWithoutDemand() throws InterruptedException {
+        final var theController = newController(4, 100 * MB);
+        theController.acquire(MB);
+        clock.addAndGet(INTERVAL);
+        theController.release(MB, MB);
+        assertEquals(2, statistics.extractionLimit());
+    }
+
+    @Test
+    public void testLimitIsNotIncreasedBeyondMaximum() throws InterruptedException {
+        final var theController = newController(3, 100 * MB);
+        assertEquals(1, statistics.extractionLimit());
+        theController.acquire(MB);
+        final var theWaiting = blockedAcquire(theController, MB);
+        clock.addAndGet(INTERVAL);
+        theController.release(MB, MB);
+        theWaiting.join(10000);
+        assertEquals(2, statistics.extractionLimit());
+
+        theController.acquire(MB);
+        final var theNextWaiting = blockedAcquire(theController, MB);
+        clock.addAndGet(INTERVAL);
+        theController.release(MB, MB);
+        theNextWaiting.join(10000);
+        assertEquals(3, statistics.extractionLimit());
+
+        theController.acquire(MB);
+        final var theLastWaiting = blockedAcquire(theController, MB);
+        clock.addAndGet(INTERVAL);
+        theController.release(MB, MB);
+        theLastWaiting.join(10000);
+        assertEquals(3, statistics.extractionLimit());
+    }
+
+    @Test
+    public void testIncreaseIsTakenBackIfThroughputDrops() throws InterruptedException {
+        final var theController = newController(4, 100 * MB);
+        increase(theController);
+
+        // One file in ten seconds instead of one in two
+        clock.addAndGet(5 * INTERVAL);
+        theController.release(MB, MB);
+        assertEquals(2, statistics.extractionLimit());
+        assertTrue(statistics.extractionLimitReason().startsWith("throughput dropped"));
+    }
+
+    @Test
+    public void testLimitIsHalvedUnderHeapPressure() throws InterruptedException {
+        final var theController = newController(8, 100 * MB);
+        assertEquals(4, statistics.extractionLimit());
+
+        heapUsage = 0.9;
+        theController.acquire(MB);
+        clock.addAndGet(INTERVAL);
+        theController.release(MB, MB);
+        assertEquals(2, statistics.extractionLimit());
+        assertTrue(statistics.extractionLimitReason().startsWith("heap usage"));
+
+        theController.acquire(MB);
+        clock.addAndGet(INTERVAL);
+        theController.release(MB, MB);
+        assertEquals(1, statistics.extractionLimit());
+
+        theController.acquire(MB);
+        clock.addAndGet(INTERVAL);
+        theController.release(MB, MB);
+        assertEquals(1, statistics.extractionLimit());
+    }
+
+    @Test
+    public void testLimitIsKeptWithinControlInterval() throws InterruptedException {
+        final var theController = newController(8, 100 * MB);
+        heapUsage = 0.9;
+        theController.acquire(MB);
+        clock.addAndGet(INTERVAL / 2);
+        theController.release(MB, MB);
+        assertEquals(4, statistics.extractionLimit());
+    }
+
+    @Test
+    public void testFilesAreAdmittedWithinHeapBudget() throws InterruptedException {
+        final var theController = newController(8, 10 * MB);
+        theController.acquire(6 * MB);
+        assertEquals(6 * MB, statistics.extractionBytesInFlight());
+
+        // Below the limit, but beyond the budget
+        final var theWaiting = blockedAcquire(theController, 6 * MB);
+        assertEquals(1, statistics.extractionsInFlight());
+
+        theController.release(6 * MB, MB);
+        theWaiting.join(10000);
+        assertFalse(theWaiting.isAlive());
+        assertEquals(1, statistics.extractionsInFlight());
+        assertEquals(6 * MB, statistics.extractionBytesInFlight());
+    }
+
+    @Test
+    public void testFileBeyondBudgetIsAdmittedIfNothingElseIsExtracted() throws InterruptedException {
+        final var theController = newController(8, 10 * MB);
+        theController.acquire(20 * MB);
+        assertEquals(1, statistics.extractionsInFlight());
+        assertEquals(20 * MB, statistics.extractionBytesInFlight());
+    }
+
+    @Test
+    public void testEstimateIsBounded() {
+        assertEquals(MB, ExtractionController.estimateHeapBytes(0));
+        assertEquals(4 * MB, ExtractionController.estimateHeapBytes(MB));
+        assertEquals(64 * MB, ExtractionController.estimateHeapBytes(1024 * MB));
+    }
+}
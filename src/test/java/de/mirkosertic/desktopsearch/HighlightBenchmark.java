@@ -0,0 +1,183 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.BreakIterator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares highlighting from term vectors, as stored by schema version 1, with highlighting
+ * from offsets in the postings, as stored by schema version 2. The corpus is generated with a
+ * Zipf distributed vocabulary and log-normal document sizes between 1 KB and 2 MB, so a few
+ * large documents dominate the index size, like on a typical desktop. The index size and
+ * build time of both schemas are printed during setup. Run with the main method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class HighlightBenchmark {
+
+    private static final int NUMBER_OF_DOCUMENTS = 1000;
+    private static final int VOCABULARY_SIZE = 50000;
+
+    @Param({"termVectors", "postingsOffsets"})
+    public String schema;
+
+    private Path indexDirectory;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private UnifiedHighlighter highlighter;
+    private Query query;
+    private TopDocs topDocs;
+
+    private static String word(final int rank) {
+        return "w" + Integer.toString(rank, 36);
+    }
+
+    private static String generateText(final Random random, final int length) {
+        final var theText = new StringBuilder(length + 200);
+        while (theText.length() < length) {
+            final var theWords = 8 + random.nextInt(12);
+            for (var i = 0; i < theWords; i++) {
+                // Inverse transform sampling of a Zipf distribution with exponent 1
+                final var theRank = (int) Math.pow(VOCABULARY_SIZE, random.nextDouble());
+                theText.append(i == 0 ? "" : " ").append(word(theRank));
+            }
+            theText.append(". ");
+        }
+        return theText.toString();
+    }
+
+    private FieldType contentFieldType() {
+        final var theType = new FieldType(TextField.TYPE_STORED);
+        if ("termVectors".equals(schema)) {
+            theType.setStoreTermVectors(true);
+            theType.setStoreTermVectorPositions(true);
+            theType.setStoreTermVectorOffsets(true);
+        } else {
+            theType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        }
+        theType.freeze();
+        return theType;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        indexDirectory = Files.createTempDirectory("highlight");
+        final var theAnalyzer = new StandardAnalyzer();
+        final var theFieldType = contentFieldType();
+        final var theRandom = new Random(42);
+
+        final long theStart = System.currentTimeMillis();
+        try (final var theWriter = new IndexWriter(FSDirectory.open(indexDirectory), new IndexWriterConfig(theAnalyzer))) {
+            for (var i = 0; i < NUMBER_OF_DOCUMENTS; i++) {
+                final var theLength = (int) Math.min(2_000_000, Math.max(1_000, Math.exp(9.5 + 1.5 * theRandom.nextGaussian())));
+                final var theDocument = new Document();
+                theDocument.add(new StringField(IndexFields.UNIQUEID, "/file" + i + ".txt", Field.Store.YES));
+                theDocument.add(new Field(IndexFields.CONTENT, generateText(theRandom, theLength), theFieldType));
+                theWriter.addDocument(theDocument);
+            }
+            theWriter.forceMerge(1);
+        }
+        final long theDuration = System.currentTimeMillis() - theStart;
+
+        long theSize = 0;
+        try (final var theFiles = Files.list(indexDirectory)) {
+            for (final var theFile : theFiles.toList()) {
+                theSize += Files.size(theFile);
+            }
+        }
+        System.out.printf("%nSchema %s: index size %.1f MB, built in %d ms%n", schema, theSize / 1024d / 1024, theDuration);
+
+        reader = DirectoryReader.open(FSDirectory.open(indexDirectory));
+        searcher = new IndexSearcher(reader);
+        highlighter = new UnifiedHighlighter.Builder(searcher, theAnalyzer)
+                .withMaxLength(1_000_000)
+                .withFormatter(new DefaultPassageFormatter())
+                .withBreakIterator(() -> BreakIterator.getSentenceInstance(Locale.ENGLISH))
+                .build();
+        query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(IndexFields.CONTENT, word(200))), BooleanClause.Occur.SHOULD)
+                .add(new TermQuery(new Term(IndexFields.CONTENT, word(3000))), BooleanClause.Occur.SHOULD)
+                .build();
+        topDocs = searcher.search(query, 10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        try (final var theFiles = Files.list(indexDirectory)) {
+            for (final var theFile : theFiles.toList()) {
+                Files.delete(theFile);
+            }
+        }
+        Files.delete(indexDirectory);
+    }
+
+    @Benchmark
+    public String[] highlightTopTen() throws IOException {
+        return highlighter.highlight(IndexFields.CONTENT, query, topDocs, 5);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HighlightBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocalDirectoryWatcherTest {
+
+    /**
+     * Records the files found. Files in the blocked directory are never processed, the
+     * listener waits until the crawl is interrupted.
+     */
+    private static class RecordingListener implements DirectoryListener {
+
+        private final Path blockedDirectory;
+        private final Set<Path> foundFiles;
+        private final CountDownLatch blocked;
+
+        private RecordingListener(final Path blockedDirectory) {
+            this.blockedDirectory = blockedDirectory;
+            this.foundFiles = ConcurrentHashMap.newKeySet();
+            this.blocked = new CountDownLatch(1);
+        }
+
+        @Override
+        public void fileDeleted(final Configuration.CrawlLocation crawlLocation, final Path deletedFile) {
+        }
+
+        @Override
+        public void fileCreatedOrModified(final Configuration.CrawlLocation crawlLocation, final Path createdOrModifiedFile, final BasicFileAttributes fileAttributes) {
+        }
+
+        @Override
+        public void fileFound(final Configuration.CrawlLocation crawlLocation, final Path foundFile, final BasicFileAttributes fileAttributes, final Runnable processed) {
+            foundFiles.add(foundFile);
+            if (foundFile.getParent().equals(blockedDirectory)) {
+                blocked.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (final InterruptedException e) {
+                    // Crawl is interrupted, the file stays unprocessed
+                    return;
+                }
+            }
+            processed.run();
+        }
+    }
+
+    private static Path createFile(final Path directory, final String name) throws IOException {
+        Files.createDirectories(directory);
+        return Files.writeString(directory.resolve(name), name);
+    }
+
+    @Test
+    public void testInterruptedCrawlIsResumedWithUnfinishedDirectories() throws Exception {
+        final var theRoot = Files.createTempDirectory("crawl");
+        final var theRootFile = createFile(theRoot, "r.txt");
+        createFile(theRoot.resolve("a"), "a1.txt");
+        createFile(theRoot.resolve("a"), "a2.txt");
+        createFile(theRoot.resolve("b"), "b1.txt");
+        createFile(theRoot.resolve("b").resolve("c"), "c1.txt");
+        final var theBlockedFile = createFile(theRoot.resolve("d"), "d1.txt");
+        final var theLocation = new Configuration.CrawlLocation("location", theRoot.toFile());
+
+        final var theCheckpoint = CrawlCheckpoint.fromCommitData(Map.of());
+        final var theListener = new RecordingListener(theRoot.resolve("d"));
+        final var theWatcher = new LocalDirectoryWatcher(theLocation, LocalDirectoryWatcher.DEFAULT_WAIT_FOR_ACTION, theListener);
+        final var theCrawler = new Thread(() -> {
+            try {
+                theWatcher.crawl(theCheckpoint, 4);
+            } catch (final InterruptedException e) {
+                // Expected
+            }
+        });
+        try {
+            theCrawler.start();
+            assertTrue(theListener.blocked.await(10, TimeUnit.SECONDS));
+            // Completed subdirectories are replaced by their parent
+            final var theCompleted = Set.of(theRoot.resolve("a"), theRoot.resolve("b"));
+            final var theDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!theCheckpoint.completedDirectories("location").equals(theCompleted)) {
+                assertTrue(System.nanoTime() < theDeadline);
+                Thread.sleep(10);
+            }
+            theCrawler.interrupt();
+            theCrawler.join(10000);
+            assertFalse(theCrawler.isAlive());
+            assertEquals(6, theListener.foundFiles.size());
+            assertEquals(theCompleted, theCheckpoint.completedDirectories("location"));
+        } finally {
+            theWatcher.stopWatching();
+        }
+
+        final var theRestored = CrawlCheckpoint.fromCommitData(theCheckpoint.toCommitData());
+        assertEquals(theCheckpoint.completedDirectories("location"), theRestored.completedDirectories("location"));
+
+        // Files of the root directory are reported again, as it was not completed
+        final var theResumedListener = new RecordingListener(null);
+        final var theResumedWatcher = new LocalDirectoryWatcher(theLocation, LocalDirectoryWatcher.DEFAULT_WAIT_FOR_ACTION, theResumedListener);
+        try {
+            theResumedWatcher.crawl(theRestored, 4).get(10, TimeUnit.SECONDS);
+            assertEquals(Set.of(theRootFile, theBlockedFile), theResumedListener.foundFiles);
+            assertTrue(theRestored.completedDirectories("location").isEmpty());
+            assertTrue(theRestored.toCommitData().isEmpty());
+        } finally {
+            theResumedWatcher.stopWatching();
+        }
+    }
+}
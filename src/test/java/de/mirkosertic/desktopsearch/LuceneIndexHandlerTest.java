@@ -0,0 +1,614 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.KeywordField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+import org.springframework.util.LinkedMultiValueMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LuceneIndexHandlerTest {
+
+    // Schema versions 2 to 5 indexed the offsets in the postings and did not store the text
+    private static final FieldType LEGACY_CONTENT_TYPE = new FieldType(TextField.TYPE_NOT_STORED);
+
+    static {
+        LEGACY_CONTENT_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        LEGACY_CONTENT_TYPE.freeze();
+    }
+
+    private Configuration newConfiguration() throws IOException {
+        return new Configuration(Files.createTempDirectory("index").toFile());
+    }
+
+    private Content newContent(final String fileName, final long lastModified) {
+        return new Content(fileName, "Some content of " + fileName, 100, lastModified, SupportedLanguage.en);
+    }
+
+    @Test
+    public void testBulkBuildIsSearchableWhenFinished() throws IOException {
+        final var theHandler = new LuceneIndexHandler(newConfiguration(), null);
+        try {
+            theHandler.crawlingStarts();
+            theHandler.addToIndex("location", newContent("/a.txt", 10));
+            theHandler.commitDataJob();
+            assertEquals(UpdateCheckResult.UPDATED, theHandler.checkIfModified("/a.txt", 10));
+
+            theHandler.crawlingFinished();
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified("/a.txt", 10));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testInterruptedBulkBuildIsContinued() throws IOException {
+        final var theConfiguration = newConfiguration();
+        final var theFirstHandler = new LuceneIndexHandler(theConfiguration, null);
+        theFirstHandler.crawlingStarts();
+        theFirstHandler.addToIndex("location", newContent("/a.txt", 10));
+        theFirstHandler.shutdown();
+
+        final var theSecondHandler = new LuceneIndexHandler(theConfiguration, null);
+        try {
+            theSecondHandler.crawlingStarts();
+            theSecondHandler.addToIndex("location", newContent("/b.txt", 10));
+            theSecondHandler.commitDataJob();
+            assertEquals(UpdateCheckResult.UNMODIFIED, theSecondHandler.checkIfModified("/a.txt", 10));
+            assertEquals(UpdateCheckResult.UPDATED, theSecondHandler.checkIfModified("/b.txt", 10));
+
+            theSecondHandler.crawlingFinished();
+            assertEquals(UpdateCheckResult.UNMODIFIED, theSecondHandler.checkIfModified("/b.txt", 10));
+        } finally {
+            theSecondHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoBulkBuildForExistingIndex() throws IOException {
+        final var theConfiguration = newConfiguration();
+        final var theFirstHandler = new LuceneIndexHandler(theConfiguration, null);
+        theFirstHandler.addToIndex("location", newContent("/a.txt", 10));
+        theFirstHandler.shutdown();
+
+        final var theSecondHandler = new LuceneIndexHandler(theConfiguration, null);
+        try {
+            theSecondHandler.crawlingStarts();
+            theSecondHandler.addToIndex("location", newContent("/b.txt", 10));
+            theSecondHandler.commitDataJob();
+            assertEquals(UpdateCheckResult.UNMODIFIED, theSecondHandler.checkIfModified("/b.txt", 10));
+        } finally {
+            theSecondHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testModifiedFileReplacesPreviousVersion() throws IOException {
+        final var theHandler = new LuceneIndexHandler(newConfiguration(), null);
+        try {
+            theHandler.addToIndex("location", newContent("/a.txt", 10));
+            theHandler.addToIndex("location", newContent("/a.txt", 20));
+            theHandler.commitDataJob();
+            assertEquals(UpdateCheckResult.UPDATED, theHandler.checkIfModified("/a.txt", 10));
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified("/a.txt", 20));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testPrefixWildcardFindsFilesIndexedBeforePrefixSearch() throws IOException {
+        final var theConfiguration = newConfiguration();
+        final var theOldFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("a.txt"), "Dilbert").toString();
+        final var theNewFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("b.txt"), "Dilbert").toString();
+        final var theHandler = new LuceneIndexHandler(theConfiguration, new PreviewProcessor());
+        try {
+            theHandler.addToIndex("location", new Content(theOldFile, "Dilbert and the boss", 20, 10, SupportedLanguage.en));
+            theHandler.commitDataJob();
+        } finally {
+            theHandler.shutdown();
+        }
+
+        final var thePrefixConfiguration = theConfiguration.updatePrefixSearch(true);
+        final var thePrefixHandler = new LuceneIndexHandler(thePrefixConfiguration, new PreviewProcessor());
+        try {
+            thePrefixHandler.addToIndex("location", new Content(theNewFile, "Dilbert and the boss", 20, 10, SupportedLanguage.en));
+            thePrefixHandler.commitDataJob();
+            assertEquals(2, thePrefixHandler.performQuery("dilb*", thePrefixConfiguration, new LinkedMultiValueMap<>()).getDocuments().size());
+        } finally {
+            thePrefixHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testChangesAreSearchableWithoutCommit() throws IOException, InterruptedException {
+        final var theHandler = new LuceneIndexHandler(newConfiguration(), null);
+        try {
+            theHandler.addToIndex("location", newContent("/a.txt", 10));
+            final var theDeadline = System.currentTimeMillis() + 10000;
+            while (theHandler.checkIfModified("/a.txt", 10) != UpdateCheckResult.UNMODIFIED && System.currentTimeMillis() < theDeadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified("/a.txt", 10));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexOfRemovedLocationIsDropped() throws IOException {
+        final var theLocation = new Configuration.CrawlLocation("a", new File("/a"));
+        final var theConfiguration = newConfiguration().addLocation(theLocation);
+        final var theFirstHandler = new LuceneIndexHandler(theConfiguration, null);
+        theFirstHandler.addToIndex("a", newContent("/a/a.txt", 10));
+        theFirstHandler.addToIndex("b", newContent("/b/b.txt", 10));
+        theFirstHandler.shutdown();
+        final var theLocationDirectory = theConfiguration.getConfigDirectory().toPath().resolve("index-v6").resolve("location-a");
+        assertTrue(Files.exists(theLocationDirectory));
+
+        final var theSecondHandler = new LuceneIndexHandler(theConfiguration.removeLocation(theLocation), null);
+        try {
+            assertFalse(Files.exists(theLocationDirectory));
+            assertEquals(UpdateCheckResult.UPDATED, theSecondHandler.checkIfModified("/a/a.txt", 10));
+            assertNull(theSecondHandler.getCrawlManifest().lookup("/a/a.txt"));
+            // Files of unknown locations are kept in the default index
+            assertEquals(UpdateCheckResult.UNMODIFIED, theSecondHandler.checkIfModified("/b/b.txt", 10));
+        } finally {
+            theSecondHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testFileMovedToAnotherLocationIsKeptOnce() throws IOException {
+        final var theConfiguration = newConfiguration()
+                .addLocation(new Configuration.CrawlLocation("a", new File("/data")))
+                .addLocation(new Configuration.CrawlLocation("b", new File("/data/nested")));
+        final var theHandler = new LuceneIndexHandler(theConfiguration, null);
+        try {
+            theHandler.addToIndex("a", newContent("/data/nested/a.txt", 10));
+            theHandler.addToIndex("b", newContent("/data/nested/a.txt", 20));
+            theHandler.commitDataJob();
+            assertEquals(UpdateCheckResult.UPDATED, theHandler.checkIfModified("/data/nested/a.txt", 10));
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified("/data/nested/a.txt", 20));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testHighlightingUsesContentStore() throws IOException {
+        final var theConfiguration = newConfiguration();
+        final var theHandler = new LuceneIndexHandler(theConfiguration, null);
+        try {
+            theHandler.addToIndex("location", newContent("/a.txt", 10));
+            theHandler.commitDataJob();
+            assertTrue(theHandler.highlight("content", "/a.txt").contains("<b>content</b>"));
+            assertTrue(Files.exists(theConfiguration.getConfigDirectory().toPath().resolve("content").resolve("content-000001.pack")));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testFacetStatesAreReusedWhenSegmentsAreUnchanged() throws IOException {
+        // Only the explicit commits refresh the searcher, a background refresh would flush additional segments
+        final var theConfiguration = newConfiguration().updateSearchRefreshMillis(3_600_000);
+        final var theStatistics = new Statistics();
+        final var theFirstFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("a.txt"), "Some content").toString();
+        final var theSecondFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("b.txt"), "Some content").toString();
+        final var theHandler = new LuceneIndexHandler(theConfiguration, new PreviewProcessor(), theStatistics);
+        try {
+            // Two segments, so the ordinals of the segments are mapped to global ones. The first one is large
+            // enough that a single deletion does not make the merge policy merge away deleted documents.
+            theHandler.addToIndex("location", new Content(theFirstFile, "Some content", 12, 10, SupportedLanguage.en));
+            for (var i = 0; i < 8; i++) {
+                final var theFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("c" + i + ".txt"), "Some content").toString();
+                theHandler.addToIndex("location", new Content(theFile, "Some content", 12, 10, SupportedLanguage.en));
+            }
+            theHandler.commitDataJob();
+            theHandler.addToIndex("location", new Content(theSecondFile, "Some content", 12, 10, SupportedLanguage.en));
+            theHandler.commitDataJob();
+            assertEquals(0, theStatistics.reusedFacetStates());
+
+            // Deletions keep the segments, as long as they are not deleted completely
+            theHandler.removeFromIndex(theFirstFile);
+            theHandler.commitDataJob();
+            assertTrue(theStatistics.reusedFacetStates() > 0);
+            assertEquals(0, theStatistics.stalledFacetQueries());
+
+            final var theResult = theHandler.performQuery("content", theConfiguration, new LinkedMultiValueMap<>());
+            assertEquals(9, theResult.getDocuments().size());
+            final var theLanguages = theResult.getFacetDimensions().stream()
+                    .filter(theDimension -> theDimension.getName().equals(IndexFields.LANGUAGE))
+                    .findFirst().orElseThrow();
+            assertEquals(1, theLanguages.getFacets().size());
+            assertEquals(9, theLanguages.getFacets().get(0).getNumber());
+            assertEquals(0, theStatistics.stalledFacetQueries());
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testUpdatedModificationTimeIsShown() throws IOException {
+        final var theConfiguration = newConfiguration();
+        final var theFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("a.txt"), "Some content").toString();
+        final var theRawHash = "0123456789abcdef0123456789abcdef";
+        final var theHandler = new LuceneIndexHandler(theConfiguration, new PreviewProcessor());
+        try {
+            theHandler.addToIndex("location", new Content(theFile, "Some content", 12, 10, SupportedLanguage.en, theRawHash));
+            theHandler.commitDataJob();
+
+            theHandler.updateLastModified("location", theFile, 20, 12, theRawHash);
+            theHandler.commitDataJob();
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified(theFile, 20));
+
+            final var theResult = theHandler.performQuery("content", theConfiguration, new LinkedMultiValueMap<>());
+            assertEquals(1, theResult.getDocuments().size());
+            assertEquals(20, theResult.getDocuments().get(0).getLastModified());
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testDrilldownKeepsSidewaysCountsOfItsDimension() throws IOException {
+        final var theConfiguration = newConfiguration();
+        final var theDirectory = theConfiguration.getConfigDirectory().toPath();
+        final var theHandler = new LuceneIndexHandler(theConfiguration, new PreviewProcessor());
+        try {
+            for (final var theName : new String[] {"a.txt", "b.txt", "c.txt"}) {
+                final var theFile = Files.writeString(theDirectory.resolve(theName), "Some content").toString();
+                final var theLanguage = theName.equals("b.txt") ? SupportedLanguage.de : SupportedLanguage.en;
+                theHandler.addToIndex("location", new Content(theFile, "Some content", 12, 10, theLanguage));
+            }
+            theHandler.commitDataJob();
+
+            final var theFilters = new LinkedMultiValueMap<String, String>();
+            theFilters.add("filter" + IndexFields.LANGUAGE, SupportedLanguage.en.name());
+            final var theResult = theHandler.performQuery("content", theConfiguration, theFilters);
+            assertEquals(2, theResult.getDocuments().size());
+            assertEquals(1, theResult.getActiveFilters().size());
+
+            // The other language is still offered with the number of documents it would add
+            final var theLanguages = theResult.getFacetDimensions().stream()
+                    .filter(theDimension -> theDimension.getName().equals(IndexFields.LANGUAGE))
+                    .findFirst().orElseThrow();
+            assertEquals(2, theLanguages.getFacets().size());
+            assertEquals(SupportedLanguage.en.name(), theLanguages.getFacets().get(0).getName());
+            assertEquals(2, theLanguages.getFacets().get(0).getNumber());
+            assertTrue(theLanguages.getFacets().get(0).isSelected());
+            assertEquals(SupportedLanguage.de.name(), theLanguages.getFacets().get(1).getName());
+            assertEquals(1, theLanguages.getFacets().get(1).getNumber());
+            assertFalse(theLanguages.getFacets().get(1).isSelected());
+
+            theFilters.add("filter" + IndexFields.LANGUAGE, SupportedLanguage.de.name());
+            assertEquals(3, theHandler.performQuery("content", theConfiguration, theFilters).getDocuments().size());
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testSizeIsFilteredAndCountedInRanges() throws IOException {
+        final var theConfiguration = newConfiguration();
+        final var theDirectory = theConfiguration.getConfigDirectory().toPath();
+        final var theHandler = new LuceneIndexHandler(theConfiguration, new PreviewProcessor());
+        try {
+            final var theSmallFile = Files.writeString(theDirectory.resolve("small.txt"), "Some content").toString();
+            final var theLargeFile = Files.writeString(theDirectory.resolve("large.txt"), "Some content").toString();
+            theHandler.addToIndex("location", new Content(theSmallFile, "Some content", 12, 10, SupportedLanguage.en));
+            theHandler.addToIndex("location", new Content(theLargeFile, "Some content", 20 * 1024 * 1024, 10, SupportedLanguage.en));
+            theHandler.commitDataJob();
+
+            assertEquals(1, theHandler.performQuery("content size:>10mb", theConfiguration, new LinkedMultiValueMap<>()).getDocuments().size());
+
+            final var theFilters = new LinkedMultiValueMap<String, String>();
+            theFilters.add("filter" + RangeField.SIZE.getName(), "<100kb");
+            final var theResult = theHandler.performQuery("content", theConfiguration, theFilters);
+            assertEquals(1, theResult.getDocuments().size());
+            assertEquals(1, theResult.getActiveFilters().size());
+
+            // Buckets without documents are not offered, the other bucket keeps its sideways count
+            final var theSizes = theResult.getFacetDimensions().stream()
+                    .filter(theDimension -> theDimension.getName().equals(RangeField.SIZE.getName()))
+                    .findFirst().orElseThrow();
+            assertEquals(2, theSizes.getFacets().size());
+            assertEquals("Less than 100 KB", theSizes.getFacets().get(0).getName());
+            assertEquals(1, theSizes.getFacets().get(0).getNumber());
+            assertTrue(theSizes.getFacets().get(0).isSelected());
+            assertEquals("10 MB to 100 MB", theSizes.getFacets().get(1).getName());
+            assertEquals(1, theSizes.getFacets().get(1).getNumber());
+            assertFalse(theSizes.getFacets().get(1).isSelected());
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testUncuratedMetadataIsKeptInMetaField() throws IOException {
+        final var theConfiguration = newConfiguration().updateMetaDataFields(Set.of("project"));
+        final var theFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("a.txt"), "Some content").toString();
+        final var theRawHash = "0123456789abcdef0123456789abcdef";
+        final var thePrinted = new Date(1_700_000_000_000L);
+        final var theHandler = new LuceneIndexHandler(theConfiguration, new PreviewProcessor());
+        try {
+            final var theContent = new Content(theFile, "Some content", 12, 10, SupportedLanguage.en, theRawHash);
+            theContent.addMetaData("author", "Mirko");
+            theContent.addMetaData("project", "Desktop search");
+            theContent.addMetaData("template", "Normal.dotm");
+            theContent.addMetaData("last-printed", thePrinted);
+            theHandler.addToIndex("location", theContent);
+            theHandler.commitDataJob();
+
+            // Enabled keys are offered as facets, all other keys are not
+            final var theResult = theHandler.performQuery("content", theConfiguration, new LinkedMultiValueMap<>());
+            final var theDimensions = theResult.getFacetDimensions().stream().map(FacetDimension::getName).toList();
+            assertTrue(theDimensions.contains("attr_author"));
+            assertTrue(theDimensions.contains("attr_project"));
+            assertFalse(theDimensions.contains("attr_template"));
+
+            final Map<String, Object> theMetadata = new HashMap<>();
+            theHandler.findContentByRawHash(theRawHash).getMetadata().forEach(theEntry -> theMetadata.put(theEntry.key, theEntry.value));
+            assertEquals("Mirko", theMetadata.get("author"));
+            assertEquals("Desktop search", theMetadata.get("project"));
+            assertEquals("Normal.dotm", theMetadata.get("template"));
+            assertEquals(thePrinted, theMetadata.get("last-printed"));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testLegacyIndexIsMigrated() throws IOException, InterruptedException {
+        final var theConfiguration = newConfiguration();
+        final var theFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("a.txt"), "Some content").toString();
+        final var theVanishedFile = new File(theConfiguration.getConfigDirectory(), "vanished.txt").toString();
+
+        // Schema version 1 stored term vectors and added a new document for every modification
+        final var theLegacyContentType = new FieldType(TextField.TYPE_STORED);
+        theLegacyContentType.setStoreTermVectors(true);
+        theLegacyContentType.setStoreTermVectorPositions(true);
+        theLegacyContentType.setStoreTermVectorOffsets(true);
+        final var theLegacyDirectory = new File(theConfiguration.getConfigDirectory(), "index");
+        try (final var theWriter = new IndexWriter(FSDirectory.open(theLegacyDirectory.toPath()), new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (final var theLastModified : new long[] {20, 30, 10}) {
+                final var theDocument = new Document();
+                theDocument.add(new StringField(IndexFields.UNIQUEID, theFile, Field.Store.YES));
+                theDocument.add(new StringField(IndexFields.FILESIZE, "12", Field.Store.YES));
+                theDocument.add(new StringField(IndexFields.LASTMODIFIED, Long.toString(theLastModified), Field.Store.YES));
+                theDocument.add(new NumericDocValuesField(IndexFields.FILESIZE_DV, 12));
+                theDocument.add(new NumericDocValuesField(IndexFields.LASTMODIFIED_DV, theLastModified));
+                theDocument.add(new KeywordField(IndexFields.LANGUAGE, new BytesRef(SupportedLanguage.en.name()), Field.Store.YES));
+                theDocument.add(new Field(IndexFields.CONTENT, "Some content", theLegacyContentType));
+                theWriter.addDocument(theDocument);
+                theWriter.commit();
+            }
+            final var theDocument = new Document();
+            theDocument.add(new StringField(IndexFields.UNIQUEID, theVanishedFile, Field.Store.YES));
+            theDocument.add(new StringField(IndexFields.LASTMODIFIED, "10", Field.Store.YES));
+            theDocument.add(new Field(IndexFields.CONTENT, "Vanished content", theLegacyContentType));
+            theWriter.addDocument(theDocument);
+        }
+
+        final var theHandler = new LuceneIndexHandler(theConfiguration, null);
+        try {
+            theHandler.awaitMigration();
+            assertFalse(theLegacyDirectory.exists());
+            assertEquals(UpdateCheckResult.UPDATED, theHandler.checkIfModified(theFile, 10));
+            assertEquals(UpdateCheckResult.UPDATED, theHandler.checkIfModified(theFile, 20));
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified(theFile, 30));
+            assertEquals(UpdateCheckResult.UPDATED, theHandler.checkIfModified(theVanishedFile, 10));
+            assertTrue(theHandler.highlight("content", theFile).contains("<b>content</b>"));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    // The text is kept in the content store since schema version 2
+    private String storeText(final Configuration configuration, final String text) throws IOException {
+        final var theContentMD5 = DigestUtils.md5Hex(text);
+        try (final var theStore = ContentStore.open(new File(configuration.getConfigDirectory(), "content").toPath())) {
+            theStore.put(theContentMD5, text);
+        }
+        return theContentMD5;
+    }
+
+    private void writeLegacyIndex(final Path directory, final Document... documents) throws IOException {
+        try (final var theWriter = new IndexWriter(FSDirectory.open(directory), new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (final var theDocument : documents) {
+                theWriter.addDocument(theDocument);
+            }
+        }
+    }
+
+    // Schema versions 2 to 4 stored the size and the modification time as strings
+    private Document legacyDocument(final String fileName, final String locationId, final String contentMD5, final String rawHash,
+            final long fileSize, final long lastModified) {
+        final var theDocument = new Document();
+        theDocument.add(new StringField(IndexFields.UNIQUEID, fileName, Field.Store.YES));
+        theDocument.add(new StringField(IndexFields.LOCATIONID, locationId, Field.Store.YES));
+        theDocument.add(new StringField(IndexFields.CONTENTMD5, contentMD5, Field.Store.YES));
+        theDocument.add(new StringField(IndexFields.RAWHASH, rawHash, Field.Store.YES));
+        theDocument.add(new StringField(IndexFields.FILESIZE, Long.toString(fileSize), Field.Store.YES));
+        theDocument.add(new StringField(IndexFields.LASTMODIFIED, Long.toString(lastModified), Field.Store.YES));
+        theDocument.add(new NumericDocValuesField(IndexFields.FILESIZE_DV, fileSize));
+        theDocument.add(new NumericDocValuesField(IndexFields.LASTMODIFIED_DV, lastModified));
+        theDocument.add(new KeywordField(IndexFields.LANGUAGE, new BytesRef(SupportedLanguage.en.name()), Field.Store.YES));
+        return theDocument;
+    }
+
+    private Map<String, Object> metadataOf(final LuceneIndexHandler handler, final String rawHash) throws IOException {
+        final Map<String, Object> theMetadata = new HashMap<>();
+        handler.findContentByRawHash(rawHash).getMetadata().forEach(theEntry -> theMetadata.put(theEntry.key, theEntry.value));
+        return theMetadata;
+    }
+
+    @Test
+    public void testPreviousSchemaIsMigratedWithLanguageFields() throws IOException, InterruptedException {
+        final var theConfiguration = newConfiguration();
+        final var theFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("a.txt"), "Some buildings").toString();
+
+        // Schema version 2 kept the text in the content store only and had no field analyzed for the language
+        final var theLegacyDirectory = theConfiguration.getConfigDirectory().toPath().resolve("index-v2");
+        final var theDocument = legacyDocument(theFile, "location", storeText(theConfiguration, "Some buildings"), "0123456789abcdef0123456789abcdef", 14, 10);
+        theDocument.add(new Field(IndexFields.CONTENT, "Some buildings", LEGACY_CONTENT_TYPE));
+        writeLegacyIndex(theLegacyDirectory, theDocument);
+
+        final var theHandler = new LuceneIndexHandler(theConfiguration, null);
+        try {
+            theHandler.awaitMigration();
+            assertFalse(Files.exists(theLegacyDirectory));
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified(theFile, 10));
+            assertTrue(theHandler.highlight("building", theFile).contains("<b>buildings</b>"));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexOfPreviousLayoutIsMigrated() throws IOException, InterruptedException {
+        final var theConfigDirectory = Files.createTempDirectory("index");
+        final var theLocationDirectory = Files.createDirectory(theConfigDirectory.resolve("a"));
+        final var theLocation = new Configuration.CrawlLocation("a", theLocationDirectory.toFile());
+        final var theConfiguration = new Configuration(theConfigDirectory.toFile()).addLocation(theLocation);
+        final var theFile = Files.writeString(theLocationDirectory.resolve("a.txt"), "Some content").toString();
+        final var theOtherFile = Files.writeString(theConfigDirectory.resolve("b.txt"), "Some content").toString();
+        final var theRawHash = "0123456789abcdef0123456789abcdef";
+        final var theContentMD5 = storeText(theConfiguration, "Some content");
+
+        // Schema version 4 had one index per crawl location, dates indexed by day, month and year, and numbers as keywords
+        final var theLegacyDirectory = theConfigDirectory.resolve("index-v4");
+        final var theDocument = legacyDocument(theFile, "a", theContentMD5, theRawHash, 12, 10);
+        theDocument.add(new KeywordField("attr_author", new BytesRef("Mirko"), Field.Store.YES));
+        theDocument.add(new KeywordField("attr_template", new BytesRef("Normal.dotm"), Field.Store.YES));
+        theDocument.add(new KeywordField("attr_page-count", new BytesRef("12"), Field.Store.YES));
+        theDocument.add(new KeywordField("attr_creation-date-year-month-day", new BytesRef("2020/05/17"), Field.Store.YES));
+        theDocument.add(new KeywordField("attr_creation-date-year", new BytesRef("2020"), Field.Store.YES));
+        theDocument.add(new KeywordField("attr_creation-date-year-month", new BytesRef("2020/05"), Field.Store.YES));
+        theDocument.add(new KeywordField("attr_last-printed-year-month-day", new BytesRef("2021/01/02"), Field.Store.YES));
+        theDocument.add(new Field(IndexFields.CONTENT, "Some content", LEGACY_CONTENT_TYPE));
+        theDocument.add(new Field(SupportedLanguage.en.getContentField(), "Some content", LEGACY_CONTENT_TYPE));
+        writeLegacyIndex(theLegacyDirectory.resolve("location-a"), theDocument);
+        final var theOtherDocument = legacyDocument(theOtherFile, "b", theContentMD5, "fedcba9876543210fedcba9876543210", 12, 10);
+        // The modification time of unchanged files was updated in the doc values only
+        theOtherDocument.removeFields(IndexFields.LASTMODIFIED_DV);
+        theOtherDocument.add(new NumericDocValuesField(IndexFields.LASTMODIFIED_DV, 20));
+        writeLegacyIndex(theLegacyDirectory.resolve("default"), theOtherDocument);
+
+        final var theHandler = new LuceneIndexHandler(theConfiguration, new PreviewProcessor());
+        try {
+            theHandler.awaitMigration();
+            assertFalse(Files.exists(theLegacyDirectory));
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified(theFile, 10));
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified(theOtherFile, 20));
+            assertEquals(2, theHandler.performQuery("content size:<1kb", theConfiguration, new LinkedMultiValueMap<>()).getDocuments().size());
+
+            final var theMetadata = metadataOf(theHandler, theRawHash);
+            assertEquals("Mirko", theMetadata.get("author"));
+            assertEquals("Normal.dotm", theMetadata.get("template"));
+            assertEquals("12", theMetadata.get("page-count"));
+            assertEquals(new Date(Instant.parse("2020-05-17T00:00:00Z").toEpochMilli()), theMetadata.get("creation-date"));
+            assertEquals(new Date(Instant.parse("2021-01-02T00:00:00Z").toEpochMilli()), theMetadata.get("last-printed"));
+            assertFalse(theMetadata.containsKey("creation-date-year"));
+            assertFalse(theMetadata.containsKey("creation-date-year-month"));
+            assertFalse(theMetadata.containsKey("creation-date-year-month-day"));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+
+    @Test
+    public void testPointSchemaIsMigratedWithMetaField() throws IOException, InterruptedException {
+        final var theConfiguration = newConfiguration();
+        final var theFile = Files.writeString(theConfiguration.getConfigDirectory().toPath().resolve("a.txt"), "Some content").toString();
+        final var theRawHash = "0123456789abcdef0123456789abcdef";
+        final var thePrinted = new Date(1_700_000_000_000L);
+
+        // Schema version 5 indexed sizes, dates and numbers as points, and had a field for every metadata key
+        final var theLegacyDirectory = theConfiguration.getConfigDirectory().toPath().resolve("index-v5");
+        final var theDocument = new Document();
+        theDocument.add(new StringField(IndexFields.UNIQUEID, theFile, Field.Store.YES));
+        theDocument.add(new StringField(IndexFields.LOCATIONID, "location", Field.Store.YES));
+        theDocument.add(new StringField(IndexFields.CONTENTMD5, storeText(theConfiguration, "Some content"), Field.Store.YES));
+        theDocument.add(new StringField(IndexFields.RAWHASH, theRawHash, Field.Store.YES));
+        theDocument.add(new LongPoint(IndexFields.FILESIZE, 12));
+        theDocument.add(new StoredField(IndexFields.FILESIZE, 12L));
+        theDocument.add(new NumericDocValuesField(IndexFields.FILESIZE_DV, 12));
+        theDocument.add(new StoredField(IndexFields.LASTMODIFIED, 10L));
+        theDocument.add(new NumericDocValuesField(IndexFields.LASTMODIFIED_DV, 10));
+        theDocument.add(new KeywordField(IndexFields.LANGUAGE, new BytesRef(SupportedLanguage.en.name()), Field.Store.YES));
+        theDocument.add(new KeywordField("attr_author", new BytesRef("Mirko"), Field.Store.YES));
+        theDocument.add(new KeywordField("attr_template", new BytesRef("Normal.dotm"), Field.Store.YES));
+        theDocument.add(new LongField(IndexFields.DATE_PREFIX + "last-printed", thePrinted.getTime(), Field.Store.YES));
+        theDocument.add(new LongField(IndexFields.NUMBER_PREFIX + "page-count", 12, Field.Store.YES));
+        theDocument.add(new Field(IndexFields.CONTENT, "Some content", LEGACY_CONTENT_TYPE));
+        theDocument.add(new Field(SupportedLanguage.en.getContentField(), "Some content", LEGACY_CONTENT_TYPE));
+        writeLegacyIndex(theLegacyDirectory.resolve("default"), theDocument);
+
+        final var theHandler = new LuceneIndexHandler(theConfiguration, new PreviewProcessor());
+        try {
+            theHandler.awaitMigration();
+            assertFalse(Files.exists(theLegacyDirectory));
+            assertEquals(UpdateCheckResult.UNMODIFIED, theHandler.checkIfModified(theFile, 10));
+
+            // Keys which are not configured are kept in the meta field and not offered as facets anymore
+            final var theResult = theHandler.performQuery("content size:<1kb", theConfiguration, new LinkedMultiValueMap<>());
+            assertEquals(1, theResult.getDocuments().size());
+            final var theDimensions = theResult.getFacetDimensions().stream().map(FacetDimension::getName).toList();
+            assertTrue(theDimensions.contains("attr_author"));
+            assertFalse(theDimensions.contains("attr_template"));
+
+            final var theMetadata = metadataOf(theHandler, theRawHash);
+            assertEquals("Mirko", theMetadata.get("author"));
+            assertEquals("Normal.dotm", theMetadata.get("template"));
+            assertEquals("12", theMetadata.get("page-count"));
+            assertEquals(thePrinted, theMetadata.get("last-printed"));
+        } finally {
+            theHandler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.KeywordField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a keyword field with doc values for every metadata key, as written by schema version 5,
+ * with a single meta field holding key=value, as written by schema version 6. The corpus mimics a
+ * desktop with many file types, every type has a few dozen keys of its own out of a pool of several
+ * hundred, like Tika reports them for office documents, images, audio files and archives. The index
+ * size and build time of both schemas are printed during setup. The open benchmark opens the whole
+ * index like on startup, the reopen benchmark adds a few documents and reopens the near real-time
+ * reader like the searcher refresh does. Run with the main method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class MetadataSchemaBenchmark {
+
+    private static final int NUMBER_OF_DOCUMENTS = 100000;
+    private static final int NUMBER_OF_FILE_TYPES = 40;
+    private static final int NUMBER_OF_KEYS = 600;
+    private static final int VALUES_PER_KEY = 50;
+    private static final int DOCUMENTS_PER_REOPEN = 10;
+
+    @Param({"fieldPerKey", "metaField"})
+    public String schema;
+
+    private Path indexDirectory;
+    private Directory directory;
+    private IndexWriter writer;
+    private DirectoryReader reader;
+    private Document[] newDocuments;
+    private int next;
+
+    private Document newDocument(final Random random, final int number) {
+        final var theFileType = random.nextInt(NUMBER_OF_FILE_TYPES);
+        final var theDocument = new Document();
+        theDocument.add(new StringField(IndexFields.UNIQUEID, "/file" + number + ".type" + theFileType, Field.Store.YES));
+        theDocument.add(new TextField(IndexFields.CONTENT, "Some content of file " + number, Field.Store.NO));
+        theDocument.add(new KeywordField("attr_" + IndexFields.EXTENSION, new BytesRef("type" + theFileType), Field.Store.YES));
+        theDocument.add(new KeywordField("attr_author", new BytesRef("author" + random.nextInt(100)), Field.Store.YES));
+
+        // Every file type has its own keys, which are found in most of its files
+        final var theTypeRandom = new Random(theFileType);
+        final var theNumberOfKeys = 10 + theTypeRandom.nextInt(40);
+        for (var i = 0; i < theNumberOfKeys; i++) {
+            final var theKey = "key" + theTypeRandom.nextInt(NUMBER_OF_KEYS);
+            if (random.nextInt(10) == 0) {
+                continue;
+            }
+            final var theValue = "value" + random.nextInt(VALUES_PER_KEY);
+            if ("fieldPerKey".equals(schema)) {
+                theDocument.add(new KeywordField("attr_" + theKey, new BytesRef(theValue), Field.Store.YES));
+            } else {
+                theDocument.add(new StringField(IndexFields.META, theKey + "=" + theValue, Field.Store.YES));
+            }
+        }
+        return theDocument;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        indexDirectory = Files.createTempDirectory("metadataschema");
+        directory = FSDirectory.open(indexDirectory);
+        final var theRandom = new Random(42);
+
+        final long theStart = System.currentTimeMillis();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+        for (var i = 0; i < NUMBER_OF_DOCUMENTS; i++) {
+            writer.addDocument(newDocument(theRandom, i));
+        }
+        writer.commit();
+        final long theDuration = System.currentTimeMillis() - theStart;
+
+        long theSize = 0;
+        try (final var theFiles = Files.list(indexDirectory)) {
+            for (final var theFile : theFiles.toList()) {
+                theSize += Files.size(theFile);
+            }
+        }
+        System.out.printf("%nSchema %s: index size %.1f MB, built in %d ms%n", schema, theSize / 1024d / 1024, theDuration);
+
+        newDocuments = new Document[1000];
+        for (var i = 0; i < newDocuments.length; i++) {
+            newDocuments[i] = newDocument(theRandom, NUMBER_OF_DOCUMENTS + i);
+        }
+        reader = DirectoryReader.open(writer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        writer.close();
+        directory.close();
+        FileSystemUtils.deleteRecursively(indexDirectory);
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        try (final var theReader = DirectoryReader.open(directory)) {
+            return theReader.leaves().size();
+        }
+    }
+
+    @Benchmark
+    public int reopen() throws IOException {
+        for (var i = 0; i < DOCUMENTS_PER_REOPEN; i++) {
+            next = (next + 1) % newDocuments.length;
+            writer.addDocument(newDocuments[next]);
+        }
+        final var theNewReader = DirectoryReader.openIfChanged(reader, writer);
+        if (theNewReader != null) {
+            reader.close();
+            reader = theNewReader;
+        }
+        return reader.leaves().size();
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MetadataSchemaBenchmark.class.getSimpleName()).build()).run();
+    }
+}
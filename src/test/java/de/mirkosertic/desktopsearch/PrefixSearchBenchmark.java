@@ -0,0 +1,145 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares prefix searches expanded by a wildcard query on the content field with single term
+ * lookups in the edge n-gram prefix field. Both fields are indexed from the same Zipf distributed
+ * corpus of random words. Every invocation parses and runs a query for a prefix of two to four
+ * letters taken from a random word, so the sample time percentiles show the latency as typed.
+ * Run with the main method.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class PrefixSearchBenchmark {
+
+    private static final int NUMBER_OF_DOCUMENTS = 20000;
+    private static final int WORDS_PER_DOCUMENT = 300;
+    private static final int VOCABULARY_SIZE = 100000;
+    private static final int NUMBER_OF_QUERIES = 1024;
+
+    @Param({"wildcard", "prefixField"})
+    public String path;
+
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private QueryParser queryParser;
+    private String prefixField;
+    private String[] queries;
+    private int next;
+
+    private static String word(final int rank) {
+        final var theRandom = new Random(rank);
+        final var theLength = 3 + theRandom.nextInt(10);
+        final var theWord = new StringBuilder(theLength);
+        for (var i = 0; i < theLength; i++) {
+            theWord.append((char) ('a' + theRandom.nextInt(26)));
+        }
+        return theWord.toString();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final Analyzer theAnalyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer(), Map.of(IndexFields.CONTENT_PREFIX, new DesktopSearchAnalyzer()));
+        final var thePrefixFieldType = new FieldType(TextField.TYPE_NOT_STORED);
+        thePrefixFieldType.setIndexOptions(IndexOptions.DOCS);
+        thePrefixFieldType.setOmitNorms(true);
+        thePrefixFieldType.freeze();
+
+        final var theRandom = new Random(42);
+        final var theDirectory = new ByteBuffersDirectory();
+        try (final var theWriter = new IndexWriter(theDirectory, new IndexWriterConfig(theAnalyzer))) {
+            for (var i = 0; i < NUMBER_OF_DOCUMENTS; i++) {
+                final var theText = new StringBuilder();
+                for (var j = 0; j < WORDS_PER_DOCUMENT; j++) {
+                    // Inverse transform sampling of a Zipf distribution with exponent 1
+                    theText.append(word((int) Math.pow(VOCABULARY_SIZE, theRandom.nextDouble()))).append(' ');
+                }
+                final var theDocument = new Document();
+                theDocument.add(new TextField(IndexFields.CONTENT, theText.toString(), Field.Store.NO));
+                theDocument.add(new Field(IndexFields.CONTENT_PREFIX, theText.toString(), thePrefixFieldType));
+                theWriter.addDocument(theDocument);
+            }
+            theWriter.forceMerge(1);
+        }
+
+        reader = DirectoryReader.open(theDirectory);
+        searcher = new IndexSearcher(reader);
+        queryParser = new QueryParser(theAnalyzer);
+        prefixField = "prefixField".equals(path) ? IndexFields.CONTENT_PREFIX : null;
+        queries = new String[NUMBER_OF_QUERIES];
+        for (var i = 0; i < NUMBER_OF_QUERIES; i++) {
+            final var theWord = word(1 + theRandom.nextInt(VOCABULARY_SIZE));
+            queries[i] = theWord.substring(0, Math.min(theWord.length(), 2 + theRandom.nextInt(3))) + QueryUtils.ASTERISK;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+    }
+
+    @Benchmark
+    public TopDocs prefixSearch() throws IOException {
+        next = (next + 1) % NUMBER_OF_QUERIES;
+        return searcher.search(queryParser.parse(queries[next], IndexFields.CONTENT, List.of(), prefixField, false, 2), 10);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PrefixSearchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PriorityLaneQueueTest {
+
+    // Negative numbers are urgent, the normal lane is ordered ascending
+    private PriorityLaneQueue<Integer> newQueue(final int capacity) {
+        return new PriorityLaneQueue<>(capacity, x -> x < 0, Comparator.<Integer>naturalOrder());
+    }
+
+    @Test
+    public void testUrgentItemsFirst() throws InterruptedException {
+        final var theQueue = newQueue(10);
+        theQueue.put(5);
+        theQueue.put(3);
+        theQueue.put(-1);
+        theQueue.put(-2);
+
+        assertEquals(-1, (int) theQueue.take());
+        assertEquals(-2, (int) theQueue.take());
+        assertEquals(3, (int) theQueue.take());
+        assertEquals(5, (int) theQueue.take());
+    }
+
+    @Test
+    public void testNormalLaneIsNotStarved() {
+        final var theQueue = newQueue(100);
+        theQueue.offer(1);
+        for (var i = 1; i <= 20; i++) {
+            theQueue.offer(-i);
+        }
+
+        final List<Integer> theResult = new ArrayList<>();
+        theQueue.drainTo(theResult, 9);
+        assertEquals(1, (int) theResult.get(8));
+    }
+
+    @Test
+    public void testOlderEpochIsServedFirst() {
+        final var theQueue = newQueue(2);
+        theQueue.offer(10);
+        theQueue.offer(9);
+        assertFalse(theQueue.offer(1));
+
+        assertEquals(9, (int) theQueue.poll());
+        theQueue.offer(1);
+
+        // 10 was submitted in an earlier epoch than 1
+        assertEquals(10, (int) theQueue.poll());
+        assertEquals(1, (int) theQueue.poll());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.LinkedMultiValueMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the query throughput of the index handler with a growing number of concurrent
+ * clients. Optionally, a background thread keeps changing documents and committing, like a
+ * running crawl, to show whether queries wait for commits. The main method runs the
+ * benchmark with 1, 2, 4 and 8 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class QueryLoadBenchmark {
+
+    private static final int NUMBER_OF_DOCUMENTS = 10000;
+    private static final int WORDS_PER_DOCUMENT = 200;
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final int NUMBER_OF_QUERIES = 1024;
+
+    @Param({"false", "true"})
+    public boolean commitsRunning;
+
+    private Configuration configuration;
+    private LuceneIndexHandler handler;
+    private String[] fileNames;
+    private String[] queries;
+    private volatile boolean stopped;
+    private Thread committer;
+
+    private static String word(final int rank) {
+        final var theRandom = new Random(rank);
+        final var theLength = 3 + theRandom.nextInt(10);
+        final var theWord = new StringBuilder(theLength);
+        for (var i = 0; i < theLength; i++) {
+            theWord.append((char) ('a' + theRandom.nextInt(26)));
+        }
+        return theWord.toString();
+    }
+
+    private static Content content(final String fileName, final Random random) {
+        final var theText = new StringBuilder();
+        for (var j = 0; j < WORDS_PER_DOCUMENT; j++) {
+            // Inverse transform sampling of a Zipf distribution with exponent 1
+            theText.append(word((int) Math.pow(VOCABULARY_SIZE, random.nextDouble()))).append(' ');
+        }
+        return new Content(fileName, theText.toString(), theText.length(), random.nextLong(), SupportedLanguage.en);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final var theDirectory = Files.createTempDirectory("queryload");
+        configuration = new Configuration(theDirectory.resolve("config").toFile());
+        handler = new LuceneIndexHandler(configuration, new PreviewProcessor());
+
+        // Results are only returned for files which exist
+        final var theRandom = new Random(42);
+        fileNames = new String[NUMBER_OF_DOCUMENTS];
+        handler.crawlingStarts();
+        for (var i = 0; i < NUMBER_OF_DOCUMENTS; i++) {
+            fileNames[i] = Files.createFile(theDirectory.resolve("file" + i + ".txt")).toString();
+            handler.addToIndex("location", content(fileNames[i], theRandom));
+        }
+        handler.crawlingFinished();
+
+        queries = new String[NUMBER_OF_QUERIES];
+        for (var i = 0; i < NUMBER_OF_QUERIES; i++) {
+            queries[i] = word(1 + theRandom.nextInt(1000));
+        }
+
+        if (commitsRunning) {
+            committer = Thread.ofPlatform().name("Committer").daemon(true).start(() -> {
+                final var theRandom2 = new Random(7);
+                while (!stopped) {
+                    try {
+                        for (var i = 0; i < 100; i++) {
+                            handler.addToIndex("location", content(fileNames[theRandom2.nextInt(NUMBER_OF_DOCUMENTS)], theRandom2));
+                        }
+                    } catch (final IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    handler.commitDataJob();
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        stopped = true;
+        if (committer != null) {
+            committer.join();
+        }
+        handler.shutdown();
+    }
+
+    @Benchmark
+    public QueryResult query() {
+        final var theQuery = queries[ThreadLocalRandom.current().nextInt(NUMBER_OF_QUERIES)];
+        return handler.performQuery(theQuery, configuration, new LinkedMultiValueMap<>());
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        for (final var theThreads : new int[] {1, 2, 4, 8}) {
+            new Runner(new OptionsBuilder().include(QueryLoadBenchmark.class.getSimpleName()).threads(theThreads).build()).run();
+        }
+    }
+}
@@ -1,14 +1,33 @@
 package de.mirkosertic.desktopsearch;
 
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.range.LongRange;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.queries.spans.SpanMultiTermQueryWrapper;
 import org.apache.lucene.queries.spans.SpanNearQuery;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
 
 public class QueryParserTest {
 
@@ -22,4 +41,133 @@ public class QueryParserTest {
         final Query query = builder.build();
         System.out.println(query);
     }
+
+    @Test
+    public void testStemmedLanguageFields() throws IOException {
+        final var theLanguageField = SupportedLanguage.en.getContentField();
+        final var theAnalyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer(), Map.of(theLanguageField, SupportedLanguage.en.createAnalyzer()));
+        final var theDirectory = new ByteBuffersDirectory();
+        try (final var theWriter = new IndexWriter(theDirectory, new IndexWriterConfig(theAnalyzer))) {
+            final var theDocument = new Document();
+            theDocument.add(new TextField(IndexFields.CONTENT, "The building was built", Field.Store.NO));
+            theDocument.add(new TextField(theLanguageField, "The building was built", Field.Store.NO));
+            theWriter.addDocument(theDocument);
+        }
+
+        final var theParser = new QueryParser(theAnalyzer);
+        try (final var theReader = DirectoryReader.open(theDirectory)) {
+            final var theSearcher = new IndexSearcher(theReader);
+            assertEquals(0, theSearcher.count(theParser.parse("buildings", IndexFields.CONTENT, List.of(), null, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("buildings", IndexFields.CONTENT, List.of(theLanguageField), null, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("the buildings", IndexFields.CONTENT, List.of(theLanguageField), null, false, 2)));
+            assertEquals(0, theSearcher.count(theParser.parse("building -buildings", IndexFields.CONTENT, List.of(theLanguageField), null, false, 2)));
+        }
+    }
+
+    @Test
+    public void testPrefixField() throws IOException {
+        final var theAnalyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer(), Map.of(IndexFields.CONTENT_PREFIX, new DesktopSearchAnalyzer()));
+        final var theDirectory = new ByteBuffersDirectory();
+        try (final var theWriter = new IndexWriter(theDirectory, new IndexWriterConfig(theAnalyzer))) {
+            final var theDocument = new Document();
+            theDocument.add(new TextField(IndexFields.CONTENT, "Scott Adams draws Dilbert", Field.Store.NO));
+            theDocument.add(new TextField(IndexFields.CONTENT_PREFIX, "Scott Adams draws Dilbert", Field.Store.NO));
+            theWriter.addDocument(theDocument);
+        }
+
+        final var theParser = new QueryParser(theAnalyzer);
+        try (final var theReader = DirectoryReader.open(theDirectory)) {
+            final var theSearcher = new IndexSearcher(theReader);
+            assertEquals(0, theSearcher.count(theParser.parse("scott ad", IndexFields.CONTENT, List.of(), null, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("scott ad", IndexFields.CONTENT, List.of(), IndexFields.CONTENT_PREFIX, false, 2)));
+            // A trailing space completes the word
+            assertEquals(0, theSearcher.count(theParser.parse("scott ad ", IndexFields.CONTENT, List.of(), IndexFields.CONTENT_PREFIX, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("dilb* scott", IndexFields.CONTENT, List.of(), IndexFields.CONTENT_PREFIX, false, 2)));
+            assertEquals("+content_prefix:dilb", theParser.parse("dilb*", IndexFields.CONTENT, List.of(), IndexFields.CONTENT_PREFIX, false, 2).toString());
+        }
+    }
+
+    @Test
+    public void testPrefixWildcardFindsDocumentsWithoutPrefixField() throws IOException {
+        final var theAnalyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer(), Map.of(IndexFields.CONTENT_PREFIX, new DesktopSearchAnalyzer()));
+        final var theDirectory = new ByteBuffersDirectory();
+        try (final var theWriter = new IndexWriter(theDirectory, new IndexWriterConfig(theAnalyzer))) {
+            // Indexed before prefix search was enabled
+            final var theOldDocument = new Document();
+            theOldDocument.add(new TextField(IndexFields.CONTENT, "Scott Adams draws Dilbert", Field.Store.NO));
+            theWriter.addDocument(theOldDocument);
+            final var theNewDocument = new Document();
+            theNewDocument.add(new TextField(IndexFields.CONTENT, "Dilbert works for the boss", Field.Store.NO));
+            theNewDocument.add(new TextField(IndexFields.CONTENT_PREFIX, "Dilbert works for the boss", Field.Store.NO));
+            theWriter.addDocument(theNewDocument);
+        }
+
+        final var theParser = new QueryParser(theAnalyzer);
+        try (final var theReader = DirectoryReader.open(theDirectory)) {
+            final var theSearcher = new IndexSearcher(theReader);
+            assertEquals(2, theSearcher.count(theParser.parse("dilb*", IndexFields.CONTENT, List.of(), IndexFields.CONTENT_PREFIX, false, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("dilb* -ada*", IndexFields.CONTENT, List.of(), IndexFields.CONTENT_PREFIX, false, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("dilb* scott", IndexFields.CONTENT, List.of(), IndexFields.CONTENT_PREFIX, false, false, 2)));
+        }
+    }
+
+    private static Document newDocument(final String content, final long fileSize, final long lastModified, final long pages) {
+        final var theDocument = new Document();
+        theDocument.add(new TextField(IndexFields.CONTENT, content, Field.Store.NO));
+        theDocument.add(new LongPoint(IndexFields.FILESIZE, fileSize));
+        theDocument.add(new NumericDocValuesField(IndexFields.FILESIZE_DV, fileSize));
+        theDocument.add(new LongPoint(IndexFields.LASTMODIFIED, lastModified));
+        theDocument.add(new NumericDocValuesField(IndexFields.LASTMODIFIED_DV, lastModified));
+        theDocument.add(new LongField(IndexFields.NUMBER_PREFIX + "page-count", pages, Field.Store.NO));
+        return theDocument;
+    }
+
+    @Test
+    public void testRangeFilters() throws IOException {
+        final var theDirectory = new ByteBuffersDirectory();
+        final var theNow = System.currentTimeMillis();
+        try (final var theWriter = new IndexWriter(theDirectory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            theWriter.addDocument(newDocument("small report", 5 * 1024, theNow - TimeUnit.DAYS.toMillis(2), 50));
+            theWriter.addDocument(newDocument("large report", 20 * 1024 * 1024, theNow - TimeUnit.DAYS.toMillis(400), 200));
+        }
+
+        final var theParser = new QueryParser(new StandardAnalyzer());
+        try (final var theReader = DirectoryReader.open(theDirectory)) {
+            final var theSearcher = new IndexSearcher(theReader);
+            assertEquals(1, theSearcher.count(theParser.parse("report size:>10mb", IndexFields.CONTENT, List.of(), null, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("report size:<=5kb", IndexFields.CONTENT, List.of(), null, false, 2)));
+            assertEquals(2, theSearcher.count(theParser.parse("report size:1kb..1gb", IndexFields.CONTENT, List.of(), null, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("report modified:<30d", IndexFields.CONTENT, List.of(), null, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("report modified:>1y", IndexFields.CONTENT, List.of(), null, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("pages:>100", IndexFields.CONTENT, List.of(), null, false, 2)));
+            assertEquals(1, theSearcher.count(theParser.parse("report -pages:>100", IndexFields.CONTENT, List.of(), null, false, 2)));
+            // Terms which are no valid range are searched as they are
+            assertEquals(0, theSearcher.count(theParser.parse("report size:huge", IndexFields.CONTENT, List.of(), null, false, 2)));
+        }
+    }
+
+    @Test
+    public void testFacetBucketsDoNotOverlap() {
+        final var theNow = System.currentTimeMillis();
+        final var theSizes = RangeField.SIZE.facetRanges(theNow);
+        for (final var theSize : new long[] {0, 100 * 1024 - 1, 100 * 1024, 1024 * 1024, 10 * 1024 * 1024, 100 * 1024 * 1024}) {
+            assertEquals("Buckets of " + theSize, 1, bucketsOf(theSizes, theSize));
+        }
+        final var theDates = RangeField.MODIFIED.facetRanges(theNow);
+        for (final var theAge : new long[] {0, 1, 7, 30, 365, 1000}) {
+            final var theLastModified = theNow - TimeUnit.DAYS.toMillis(theAge);
+            assertEquals("Buckets of age " + theAge, 1, bucketsOf(theDates, theLastModified));
+            assertEquals("Buckets of age " + theAge, 1, bucketsOf(theDates, theLastModified - 1));
+        }
+    }
+
+    private static int bucketsOf(final LongRange[] ranges, final long value) {
+        var theCount = 0;
+        for (final var theRange : ranges) {
+            if (theRange.accept(value)) {
+                theCount++;
+            }
+        }
+        return theCount;
+    }
 }
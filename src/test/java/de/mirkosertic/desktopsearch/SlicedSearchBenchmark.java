@@ -0,0 +1,150 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.KeywordField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.FacetsCollectorManager;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the latency of searches with facets over a large multi-segment index searched by
+ * the calling thread only with sliced searches using a search executor with one thread per
+ * core. The documents are small, the query terms are common, so many documents are collected.
+ * Run with the main method, building the index with five million documents takes a while.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SlicedSearchBenchmark {
+
+    private static final int WORDS_PER_DOCUMENT = 20;
+    private static final int VOCABULARY_SIZE = 100000;
+    private static final int NUMBER_OF_QUERIES = 256;
+    private static final int MAX_DOCUMENTS_PER_SLICE = 250000;
+
+    @Param({"1000000", "5000000"})
+    public int documents;
+
+    @Param({"singleThreaded", "sliced"})
+    public String path;
+
+    private Path indexDirectory;
+    private DirectoryReader reader;
+    private ExecutorService executor;
+    private IndexSearcher searcher;
+    private Query[] queries;
+    private int next;
+
+    private static String word(final int rank) {
+        final var theRandom = new Random(rank);
+        final var theLength = 3 + theRandom.nextInt(10);
+        final var theWord = new StringBuilder(theLength);
+        for (var i = 0; i < theLength; i++) {
+            theWord.append((char) ('a' + theRandom.nextInt(26)));
+        }
+        return theWord.toString();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final var theAnalyzer = new StandardAnalyzer();
+        final var theRandom = new Random(42);
+        final var theLanguages = SupportedLanguage.values();
+        indexDirectory = Files.createTempDirectory("slicedsearch");
+        try (final var theWriter = new IndexWriter(FSDirectory.open(indexDirectory), new IndexWriterConfig(theAnalyzer))) {
+            for (var i = 0; i < documents; i++) {
+                final var theText = new StringBuilder();
+                for (var j = 0; j < WORDS_PER_DOCUMENT; j++) {
+                    // Inverse transform sampling of a Zipf distribution with exponent 1
+                    theText.append(word((int) Math.pow(VOCABULARY_SIZE, theRandom.nextDouble()))).append(' ');
+                }
+                final var theDocument = new Document();
+                theDocument.add(new TextField(IndexFields.CONTENT, theText.toString(), Field.Store.NO));
+                theDocument.add(new KeywordField(IndexFields.LANGUAGE, theLanguages[i % theLanguages.length].name(), Field.Store.NO));
+                theWriter.addDocument(theDocument);
+            }
+        }
+
+        reader = DirectoryReader.open(FSDirectory.open(indexDirectory));
+        if ("sliced".equals(path)) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), Thread.ofPlatform().name("Search-", 0).daemon(true).factory());
+        }
+        searcher = new SlicedSearcherFactory(executor, MAX_DOCUMENTS_PER_SLICE).newSearcher(reader, null);
+
+        final var theQueryParser = new QueryParser(theAnalyzer);
+        queries = new Query[NUMBER_OF_QUERIES];
+        for (var i = 0; i < NUMBER_OF_QUERIES; i++) {
+            queries[i] = theQueryParser.parse(word(1 + theRandom.nextInt(100)), IndexFields.CONTENT, List.of(), null, false, 2);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        FileSystemUtils.deleteRecursively(indexDirectory);
+    }
+
+    @Benchmark
+    public FacetsCollectorManager.FacetsResult search() throws IOException {
+        next = (next + 1) % NUMBER_OF_QUERIES;
+        return FacetsCollectorManager.search(searcher, queries[next], 10, new FacetsCollectorManager());
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SlicedSearchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the timing wheel used by the directory watcher with the former approach of
+ * decrementing a counter per pending path on every tick. The tick benchmarks start in a steady
+ * state where a fifth of the pending paths expires with every tick and is published again right
+ * away. The burst benchmarks publish all paths at once, like a checkout or an unpacked archive,
+ * and tick until all of them expired. The contended benchmarks re-arm paths on one thread while
+ * another one ticks, so the re-arm time shows how long ticking blocks the intake of new events.
+ * Run with the main method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class TimingWheelBenchmark {
+
+    private static final int WAIT_FOR_ACTION = 5;
+
+    private static class CountDownTimer {
+
+        private int waitForAction;
+
+        private CountDownTimer(final int waitForAction) {
+            this.waitForAction = waitForAction;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Paths {
+
+        @Param({"10000", "1000000", "5000000"})
+        public int pendingPaths;
+
+        Path[] paths;
+        int next;
+
+        // A single setup method, JMH does not guarantee the order of inherited ones
+        @Setup(Level.Trial)
+        public void setup() {
+            paths = new Path[pendingPaths];
+            for (var i = 0; i < pendingPaths; i++) {
+                paths[i] = Path.of("/data", Integer.toString(i % 1000), "file" + i + ".txt");
+            }
+            schedulePaths();
+        }
+
+        void schedulePaths() {
+        }
+
+        Path nextPath() {
+            next = (next + 1) % pendingPaths;
+            return paths[next];
+        }
+    }
+
+    public static class WheelState extends Paths {
+
+        TimingWheel<Path, Integer> wheel;
+
+        @Override
+        void schedulePaths() {
+            wheel = new TimingWheel<>(WAIT_FOR_ACTION + 1);
+            for (var i = 0; i < WAIT_FOR_ACTION; i++) {
+                for (var j = 0; j < pendingPaths / WAIT_FOR_ACTION; j++) {
+                    wheel.schedule(nextPath(), 1, WAIT_FOR_ACTION);
+                }
+                wheel.advance((thePath, theValue) -> { });
+            }
+        }
+    }
+
+    @State(Scope.Group)
+    public static class ContendedWheelState extends WheelState {
+    }
+
+    public static class CountDownState extends Paths {
+
+        Map<Path, CountDownTimer> timers;
+
+        @Override
+        void schedulePaths() {
+            timers = new HashMap<>();
+            for (var i = 0; i < pendingPaths; i++) {
+                timers.put(nextPath(), new CountDownTimer(1 + i * WAIT_FOR_ACTION / pendingPaths));
+            }
+        }
+    }
+
+    @State(Scope.Group)
+    public static class ContendedCountDownState extends CountDownState {
+    }
+
+    @Benchmark
+    public void wheelRearm(final WheelState state) {
+        state.wheel.schedule(state.nextPath(), 1, WAIT_FOR_ACTION);
+    }
+
+    @Benchmark
+    public void countDownRearm(final CountDownState state) {
+        final var thePath = state.nextPath();
+        synchronized (state.timers) {
+            final var theTimer = state.timers.get(thePath);
+            if (theTimer == null) {
+                state.timers.put(thePath, new CountDownTimer(WAIT_FOR_ACTION));
+            } else {
+                theTimer.waitForAction = WAIT_FOR_ACTION;
+            }
+        }
+    }
+
+    @Benchmark
+    public void wheelTick(final WheelState state, final Blackhole blackhole) {
+        final List<Path> theExpired = new ArrayList<>();
+        state.wheel.advance((thePath, theValue) -> theExpired.add(thePath));
+        for (final var thePath : theExpired) {
+            state.wheel.schedule(thePath, 1, WAIT_FOR_ACTION);
+        }
+        blackhole.consume(theExpired);
+    }
+
+    @Benchmark
+    public void countDownTick(final CountDownState state, final Blackhole blackhole) {
+        final List<Path> theExpired = new ArrayList<>();
+        synchronized (state.timers) {
+            final var theIterator = state.timers.entrySet().iterator();
+            while (theIterator.hasNext()) {
+                final var theEntry = theIterator.next();
+                if (--theEntry.getValue().waitForAction <= 0) {
+                    theExpired.add(theEntry.getKey());
+                    theIterator.remove();
+                }
+            }
+        }
+        for (final var thePath : theExpired) {
+            synchronized (state.timers) {
+                state.timers.put(thePath, new CountDownTimer(WAIT_FOR_ACTION));
+            }
+        }
+        blackhole.consume(theExpired);
+    }
+
+    @Benchmark
+    public void wheelBurst(final Paths state, final Blackhole blackhole) {
+        final var theWheel = new TimingWheel<Path, Integer>(WAIT_FOR_ACTION + 1);
+        for (final var thePath : state.paths) {
+            theWheel.schedule(thePath, 1, WAIT_FOR_ACTION);
+        }
+        final List<Path> theExpired = new ArrayList<>();
+        while (theWheel.size() > 0) {
+            theWheel.advance((thePath, theValue) -> theExpired.add(thePath));
+        }
+        blackhole.consume(theExpired);
+    }
+
+    @Benchmark
+    public void countDownBurst(final Paths state, final Blackhole blackhole) {
+        final Map<Path, CountDownTimer> theTimers = new HashMap<>();
+        for (final var thePath : state.paths) {
+            synchronized (theTimers) {
+                theTimers.put(thePath, new CountDownTimer(WAIT_FOR_ACTION));
+            }
+        }
+        final List<Path> theExpired = new ArrayList<>();
+        while (!theTimers.isEmpty()) {
+            synchronized (theTimers) {
+                final var theIterator = theTimers.entrySet().iterator();
+                while (theIterator.hasNext()) {
+                    final var theEntry = theIterator.next();
+                    if (--theEntry.getValue().waitForAction <= 0) {
+                        theExpired.add(theEntry.getKey());
+                        theIterator.remove();
+                    }
+                }
+            }
+        }
+        blackhole.consume(theExpired);
+    }
+
+    @Benchmark
+    @Group("wheelContended")
+    @GroupThreads(1)
+    public void wheelContendedRearm(final ContendedWheelState state) {
+        wheelRearm(state);
+    }
+
+    @Benchmark
+    @Group("wheelContended")
+    @GroupThreads(1)
+    public void wheelContendedTick(final ContendedWheelState state, final Blackhole blackhole) {
+        wheelTick(state, blackhole);
+    }
+
+    @Benchmark
+    @Group("countDownContended")
+    @GroupThreads(1)
+    public void countDownContendedRearm(final ContendedCountDownState state) {
+        countDownRearm(state);
+    }
+
+    @Benchmark
+    @Group("countDownContended")
+    @GroupThreads(1)
+    public void countDownContendedTick(final ContendedCountDownState state, final Blackhole blackhole) {
+        countDownTick(state, blackhole);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TimingWheelBenchmark.class.getSimpleName()).build()).run();
+    }
+}
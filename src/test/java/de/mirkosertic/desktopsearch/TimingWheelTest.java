@@ -0,0 +1,67 @@
+/*
+ * FXDesktopSearch Copyright 2013 Mirko Sertic
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mirkosertic.desktopsearch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    private List<String> advance(final TimingWheel<String, String> wheel) {
+        final List<String> theResult = new ArrayList<>();
+        wheel.advance((theKey, theValue) -> theResult.add(theKey + "=" + theValue));
+        return theResult;
+    }
+
+    @Test
+    public void testExpiresAfterDelay() {
+        final var theWheel = new TimingWheel<String, String>(6);
+        theWheel.schedule("a", "1", 5);
+        for (var i = 0; i < 4; i++) {
+            assertTrue(advance(theWheel).isEmpty());
+        }
+        assertEquals(List.of("a=1"), advance(theWheel));
+        assertEquals(0, theWheel.size());
+    }
+
+    @Test
+    public void testRearmMovesDeadline() {
+        final var theWheel = new TimingWheel<String, String>(6);
+        theWheel.schedule("a", "1", 5);
+        advance(theWheel);
+        advance(theWheel);
+        theWheel.schedule("a", "2", 5);
+        for (var i = 0; i < 4; i++) {
+            assertTrue(advance(theWheel).isEmpty());
+        }
+        assertEquals(List.of("a=2"), advance(theWheel));
+    }
+
+    @Test
+    public void testDelayLongerThanWheel() {
+        final var theWheel = new TimingWheel<String, String>(2);
+        theWheel.schedule("a", "1", 10);
+        for (var i = 0; i < 9; i++) {
+            assertTrue(advance(theWheel).isEmpty());
+        }
+        assertEquals(List.of("a=1"), advance(theWheel));
+    }
+}